@@ -0,0 +1,77 @@
+package dynamicsetproblem.bench;
+
+import dynamicsetproblem.PersistenceEngine;
+import dynamicsetproblem.VersionedSortedSet;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Compares the persistence engines on update throughput and on the space each update adds to the history
+ * Each set is filled with random keys, then a run of random adds and removes is timed. Retained space is the
+ * growth of the heap after a full collection, so it counts only what the new versions keep reachable
+ * @author Tamati Rudd 18045626
+ */
+public class EngineBenchmark {
+    private static final int UPDATES = 200000;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    /**
+     * @param args sizes of the sets to update (default 10000 100000 1000000)
+     */
+    public static void main(String[] args) {
+        int[] sizes = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            for (PersistenceEngine engine : PersistenceEngine.values()) {
+                run(engine, size);
+            }
+        }
+    }
+
+    /**
+     * Fill a set, then time a run of updates and measure the space they allocate and retain
+     * @param engine persistence engine
+     * @param size number of keys to fill the set with
+     */
+    private static void run(PersistenceEngine engine, int size) {
+        Random random = new Random(size);
+        VersionedSortedSet<Integer> set = engine.create();
+        while (set.size() < size) {
+            set.add(random.nextInt(2*size));
+        }
+        Integer[] keys = new Integer[UPDATES];
+        for (int i = 0; i < UPDATES; i++) {
+            keys[i] = random.nextInt(2*size);
+        }
+        long threadId = Thread.currentThread().getId();
+        long retainedBefore = usedHeapAfterGc();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            if ((i&1) == 0) {
+                set.add(keys[i]);
+            } else {
+                set.remove(keys[i]);
+            }
+        }
+        long nanos = System.nanoTime()-start;
+        long allocated = THREADS.getThreadAllocatedBytes(threadId)-allocatedBefore;
+        long retained = usedHeapAfterGc()-retainedBefore;
+        System.out.printf("%-22s n=%-8d %8.1f ns/update %8.1f bytes allocated/update %8.1f bytes retained/update (%d versions)%n",
+                engine, size, (double) nanos/UPDATES, (double) allocated/UPDATES, (double) retained/UPDATES, set.versionCount());
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
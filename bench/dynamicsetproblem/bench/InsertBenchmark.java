@@ -0,0 +1,94 @@
+package dynamicsetproblem.bench;
+
+import dynamicsetproblem.ArenaPersistentDynamicSet;
+import dynamicsetproblem.BalancedPersistentDynamicSet;
+import dynamicsetproblem.KeyCodec;
+import dynamicsetproblem.PersistentBTreeSet;
+import dynamicsetproblem.PersistentDynamicSet;
+import dynamicsetproblem.PersistentIntSet;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Measures the time and memory allocated per insert for the persistent sets
+ * The allocation figure is what the balanced insert is tuned for: it should be close to
+ * the size of the nodes copied along the path, with nothing else allocated per insert
+ * @author Tamati Rudd 18045626
+ */
+public class InsertBenchmark {
+    private static final int ROUNDS = 5;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * @param args sizes of the sets to build (default 10000 100000 1000000)
+     */
+    public static void main(String[] args) {
+        int[] sizes = {10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            int[] keys = new Random(size).ints(size).toArray();
+            run("PersistentDynamicSet", PersistentDynamicSet::new, keys);
+            run("BalancedPersistentDynamicSet", BalancedPersistentDynamicSet::new, keys);
+            run("BalancedPersistentDynamicSet (KeyCodec)", () -> new BalancedPersistentDynamicSet<>(null, KeyCodec.INTEGER), keys);
+            run("ArenaPersistentDynamicSet", ArenaPersistentDynamicSet::new, keys);
+            run("PersistentBTreeSet", PersistentBTreeSet::new, keys);
+            runIntSet(keys);
+        }
+    }
+
+    /**
+     * Insert all keys into a new set several times, reporting the best round
+     * @param name name of the set implementation
+     * @param factory creates an empty set
+     * @param keys keys to insert
+     */
+    private static void run(String name, Supplier<? extends Set<Integer>> factory, int[] keys) {
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < ROUNDS; round++) {
+            Set<Integer> set = factory.get();
+            long bytes = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int key : keys) {
+                set.add(key);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime()-start);
+            bestBytes = Math.min(bestBytes, THREADS.getThreadAllocatedBytes(threadId)-bytes);
+        }
+        report(name, keys.length, bestNanos, bestBytes);
+    }
+
+    /**
+     * Insert all keys into a new primitive int set several times, reporting the best round
+     * @param keys keys to insert
+     */
+    private static void runIntSet(int[] keys) {
+        long bestNanos = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < ROUNDS; round++) {
+            PersistentIntSet set = new PersistentIntSet();
+            long bytes = THREADS.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int key : keys) {
+                set.add(key);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime()-start);
+            bestBytes = Math.min(bestBytes, THREADS.getThreadAllocatedBytes(threadId)-bytes);
+        }
+        report("PersistentIntSet", keys.length, bestNanos, bestBytes);
+    }
+
+    private static void report(String name, int count, long nanos, long bytes) {
+        System.out.printf("%-30s n=%-9d %8.1f ns/insert %8.1f bytes/insert%n", name, count,
+                (double) nanos/count, (double) bytes/count);
+    }
+}
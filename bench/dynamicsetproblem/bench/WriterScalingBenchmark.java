@@ -0,0 +1,93 @@
+package dynamicsetproblem.bench;
+
+import dynamicsetproblem.BalancedPersistentDynamicSet;
+import dynamicsetproblem.ConcurrentPersistentDynamicSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how update throughput scales with the number of writer threads
+ * The compare-and-set set is compared against a balanced set with a coarse lock around add and remove.
+ * Each writer adds or removes random keys from a fixed range, so the set stays around half full
+ * @author Tamati Rudd 18045626
+ */
+public class WriterScalingBenchmark {
+    private static final int KEY_RANGE = 100000;
+    private static final long RUN_MILLIS = 2000;
+
+    /**
+     * @param args largest number of writer threads (default the number of processors)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ConcurrentPersistentDynamicSet<Integer> concurrentSet = new ConcurrentPersistentDynamicSet<>();
+            long casOps = run(concurrentSet, threads);
+            System.out.printf("%-12s threads=%-3d %12.0f ops/s %8.4f retries/op%n", "cas", threads,
+                    casOps*1000.0/RUN_MILLIS, concurrentSet.retriesPerOperation());
+            long lockOps = run(new LockedSet(), threads);
+            System.out.printf("%-12s threads=%-3d %12.0f ops/s%n", "coarse-lock", threads, lockOps*1000.0/RUN_MILLIS);
+        }
+    }
+
+    /**
+     * Run writer threads against a set for a fixed time
+     * @param set set to change
+     * @param threads number of writer threads
+     * @return total number of adds and removes completed
+     */
+    private static long run(Set<Integer> set, int threads) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        long[] counts = new long[threads];
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            writers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long end = System.currentTimeMillis()+RUN_MILLIS;
+                long count = 0;
+                while (System.currentTimeMillis() < end) {
+                    for (int i = 0; i < 100; i++) {
+                        Integer key = random.nextInt(KEY_RANGE);
+                        if (random.nextBoolean()) {
+                            set.add(key);
+                        } else {
+                            set.remove(key);
+                        }
+                    }
+                    count += 100;
+                }
+                counts[index] = count;
+            });
+            writers[t].start();
+        }
+        start.countDown();
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            writers[t].join();
+            total += counts[t];
+        }
+        return total;
+    }
+
+    /**
+     * Balanced persistent dynamic set with every change made under one lock
+     */
+    private static class LockedSet extends BalancedPersistentDynamicSet<Integer> {
+        @Override
+        public synchronized boolean add(Integer o) {
+            return super.add(o);
+        }
+
+        @Override
+        public synchronized boolean remove(Object o) {
+            return super.remove(o);
+        }
+    }
+}
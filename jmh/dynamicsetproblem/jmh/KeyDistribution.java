@@ -0,0 +1,126 @@
+package dynamicsetproblem.jmh;
+
+import java.util.Random;
+
+/**
+ * Distributions that the benchmark keys are drawn from
+ * Each distribution picks indexes in [0, size), which the benchmarks turn into present (even) or absent (odd) keys
+ * @author Tamati Rudd 18045626
+ */
+public enum KeyDistribution {
+    SEQUENTIAL {
+        @Override
+        int[] indexes(int size, int count, Random random) {
+            int[] indexes = new int[count];
+            int next = random.nextInt(size);
+            for (int i = 0; i < count; i++) {
+                indexes[i] = next;
+                next = next+1 < size ? next+1 : 0;
+            }
+            return indexes;
+        }
+    },
+    RANDOM {
+        @Override
+        int[] indexes(int size, int count, Random random) {
+            int[] indexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = random.nextInt(size);
+            }
+            return indexes;
+        }
+    },
+    ZIPF {
+        @Override
+        int[] indexes(int size, int count, Random random) {
+            ZipfianGenerator zipf = new ZipfianGenerator(size, ZIPF_EXPONENT);
+            int[] indexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = zipf.next(random);
+            }
+            return indexes;
+        }
+    };
+
+    public static final double ZIPF_EXPONENT = 0.99;
+
+    /**
+     * Pick indexes from this distribution
+     * @param size indexes are in [0, size)
+     * @param count number of indexes to pick
+     * @param random source of randomness
+     * @return picked indexes
+     */
+    abstract int[] indexes(int size, int count, Random random);
+
+    /**
+     * Pick keys that are in a set loaded by SetImplementation.load
+     * @param size number of elements in the set
+     * @param count number of keys to pick
+     * @param seed random seed
+     * @return even keys below 2*size, boxed ahead of time so the benchmarks do not allocate them
+     */
+    public Integer[] presentKeys(int size, int count, long seed) {
+        return keys(size, count, seed, 0);
+    }
+
+    /**
+     * Pick keys that are not in a set loaded by SetImplementation.load
+     * @param size number of elements in the set
+     * @param count number of keys to pick
+     * @param seed random seed
+     * @return odd keys below 2*size, boxed ahead of time so the benchmarks do not allocate them
+     */
+    public Integer[] absentKeys(int size, int count, long seed) {
+        return keys(size, count, seed, 1);
+    }
+
+    private Integer[] keys(int size, int count, long seed, int offset) {
+        int[] indexes = indexes(size, count, new Random(seed));
+        Integer[] keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = 2*indexes[i]+offset;
+        }
+        return keys;
+    }
+
+    /**
+     * Zipfian generator of Gray et al. ("Quickly generating billion-record synthetic databases"), as used by YCSB
+     * Index 0 is the most popular, so the hot keys are the smallest ones
+     */
+    private static class ZipfianGenerator {
+        private final int size;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        public ZipfianGenerator(int size, double theta) {
+            this.size = size;
+            this.theta = theta;
+            this.zetaN = zeta(size, theta);
+            this.alpha = 1/(1-theta);
+            this.eta = (1-Math.pow(2.0/size, 1-theta))/(1-zeta(2, theta)/zetaN);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1/Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        public int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u*zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1+Math.pow(0.5, theta)) {
+                return Math.min(1, size-1);
+            }
+            return Math.min((int) (size*Math.pow(eta*u-eta+1, alpha)), size-1);
+        }
+    }
+}
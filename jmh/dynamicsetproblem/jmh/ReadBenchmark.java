@@ -0,0 +1,80 @@
+package dynamicsetproblem.jmh;
+
+import dynamicsetproblem.BinarySearchTree;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures contains and iteration over a range of the current version
+ * Lookups alternate between present and absent keys. Ranges start at a present key and cover RANGE elements
+ * @author Tamati Rudd 18045626
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ReadBenchmark {
+    private static final int KEYS = 1<<16;
+    private static final int RANGE = 100;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param
+    public SetImplementation implementation;
+
+    @Param
+    public KeyDistribution keys;
+
+    private BinarySearchTree<Integer> set;
+    private Integer[] lookupKeys;
+    private Integer[] rangeEnds; //exclusive end of the range starting at the matching lookup key
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        set = implementation.load(size);
+        Integer[] presentKeys = keys.presentKeys(size, KEYS, 1);
+        Integer[] absentKeys = keys.absentKeys(size, KEYS, 2);
+        lookupKeys = new Integer[KEYS];
+        rangeEnds = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            lookupKeys[i] = i%2 == 0 ? presentKeys[i] : absentKeys[i];
+            rangeEnds[i] = presentKeys[i]+2*RANGE;
+        }
+        next = 0;
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next+1)&(KEYS-1);
+        return index;
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.contains(lookupKeys[nextIndex()]);
+    }
+
+    @Benchmark
+    public void rangeIteration(Blackhole blackhole) {
+        int index = nextIndex()&~1; //even indexes hold present keys
+        for (Integer element : set.subSet(lookupKeys[index], rangeEnds[index])) {
+            blackhole.consume(element);
+        }
+    }
+}
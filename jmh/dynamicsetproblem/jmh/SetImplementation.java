@@ -0,0 +1,64 @@
+package dynamicsetproblem.jmh;
+
+import dynamicsetproblem.BalancedPersistentDynamicSet;
+import dynamicsetproblem.BinarySearchTree;
+import dynamicsetproblem.PersistentDynamicSet;
+
+/**
+ * The set implementations being benchmarked
+ * Every set is bulk loaded with the even numbers 0, 2, ..., 2(size-1), so each implementation starts from a
+ * balanced tree and the odd numbers are free for adds
+ * @author Tamati Rudd 18045626
+ */
+public enum SetImplementation {
+    BINARY_SEARCH_TREE {
+        @Override
+        BinarySearchTree<Integer> create() {
+            return new BinarySearchTree<>();
+        }
+    },
+    PERSISTENT {
+        @Override
+        BinarySearchTree<Integer> create() {
+            return new PersistentDynamicSet<>();
+        }
+    },
+    BALANCED {
+        @Override
+        BinarySearchTree<Integer> create() {
+            return new BalancedPersistentDynamicSet<>();
+        }
+    };
+
+    /**
+     * Create an empty set
+     * @return empty set
+     */
+    abstract BinarySearchTree<Integer> create();
+
+    /**
+     * Create a set holding the even numbers below 2*size
+     * @param size number of elements
+     * @return loaded set
+     */
+    public BinarySearchTree<Integer> load(int size) {
+        Integer[] elements = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            elements[i] = 2*i;
+        }
+        BinarySearchTree<Integer> set = create();
+        set.loadSorted(elements);
+        return set;
+    }
+
+    /**
+     * Discard the previous versions of a persistent set so that long runs do not fill the heap
+     * Only the history list is cleared, which is constant time per version, unlike a compaction
+     * @param set set whose history is discarded
+     */
+    public static void discardHistory(BinarySearchTree<Integer> set) {
+        if (set instanceof PersistentDynamicSet) {
+            ((PersistentDynamicSet<Integer>) set).previousVersions.clear();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dynamicsetproblem.jmh;
+
+import dynamicsetproblem.BinarySearchTree;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures add and remove
+ * Each invocation makes a batch of changes, which are undone (untimed) afterwards so that every batch
+ * starts from a set of the same size. Adds use keys that are absent from the loaded set and removes use
+ * keys that are present, although repeated keys within a batch are no-ops as they would be in real use
+ * @author Tamati Rudd 18045626
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class UpdateBenchmark {
+    private static final int BATCH = 1000;
+    private static final int KEYS = 64*BATCH;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param
+    public SetImplementation implementation;
+
+    @Param
+    public KeyDistribution keys;
+
+    private BinarySearchTree<Integer> set;
+    private Integer[] absentKeys;
+    private Integer[] presentKeys;
+    private int start; //first key of the current batch
+
+    @Setup(Level.Trial)
+    public void load() {
+        set = implementation.load(size);
+        absentKeys = keys.absentKeys(size, KEYS, 1);
+        presentKeys = keys.presentKeys(size, KEYS, 2);
+        start = -BATCH;
+    }
+
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        start = (start+BATCH)%KEYS;
+    }
+
+    @TearDown(Level.Invocation)
+    public void undoBatch() {
+        for (int i = start; i < start+BATCH; i++) {
+            set.remove(absentKeys[i]);
+            set.add(presentKeys[i]);
+        }
+        SetImplementation.discardHistory(set);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void add(Blackhole blackhole) {
+        for (int i = start; i < start+BATCH; i++) {
+            blackhole.consume(set.add(absentKeys[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void remove(Blackhole blackhole) {
+        for (int i = start; i < start+BATCH; i++) {
+            blackhole.consume(set.remove(presentKeys[i]));
+        }
+    }
+}
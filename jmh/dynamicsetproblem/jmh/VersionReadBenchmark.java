@@ -0,0 +1,91 @@
+package dynamicsetproblem.jmh;
+
+import dynamicsetproblem.PersistentDynamicSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures reads of previous versions of the persistent sets
+ * After loading, VERSIONS adds are made so that there is a history to read from. Each read looks up a
+ * uniformly chosen version, so the cost of finding the version is included
+ * @author Tamati Rudd 18045626
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class VersionReadBenchmark {
+    private static final int KEYS = 1<<16;
+    private static final int VERSIONS = 1000;
+    private static final int RANGE = 100;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"PERSISTENT", "BALANCED"})
+    public SetImplementation implementation;
+
+    @Param
+    public KeyDistribution keys;
+
+    private PersistentDynamicSet<Integer> set;
+    private Integer[] lookupKeys;
+    private Integer[] rangeEnds; //exclusive end of the range starting at the matching lookup key
+    private int[] versionNumbers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() {
+        set = (PersistentDynamicSet<Integer>) implementation.load(size);
+        for (Integer key : keys.absentKeys(size, VERSIONS, 1)) {
+            set.add(key);
+        }
+        Integer[] presentKeys = keys.presentKeys(size, KEYS, 2);
+        Integer[] absentKeys = keys.absentKeys(size, KEYS, 3);
+        lookupKeys = new Integer[KEYS];
+        rangeEnds = new Integer[KEYS];
+        versionNumbers = new int[KEYS];
+        Random random = new Random(4);
+        for (int i = 0; i < KEYS; i++) {
+            lookupKeys[i] = i%2 == 0 ? presentKeys[i] : absentKeys[i];
+            rangeEnds[i] = presentKeys[i]+2*RANGE;
+            versionNumbers[i] = random.nextInt(set.currentVersion()+1);
+        }
+        next = 0;
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = (next+1)&(KEYS-1);
+        return index;
+    }
+
+    @Benchmark
+    public boolean containsInVersion() {
+        int index = nextIndex();
+        return set.version(versionNumbers[index]).contains(lookupKeys[index]);
+    }
+
+    @Benchmark
+    public void rangeIterationInVersion(Blackhole blackhole) {
+        int index = nextIndex()&~1; //even indexes hold present keys
+        for (Integer element : set.version(versionNumbers[index]).subSet(lookupKeys[index], rangeEnds[index])) {
+            blackhole.consume(element);
+        }
+    }
+}
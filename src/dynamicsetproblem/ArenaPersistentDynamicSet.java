@@ -0,0 +1,605 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A persistent dynamic set whose nodes live in an arena of primitive arrays instead of one object per node
+ * A node is an int index into pages of the arena. Its left child, right child and colour are packed into one
+ * long, and its element is held in a parallel array, so a node costs 12 bytes of array space and the garbage
+ * collector scans a few large arrays rather than millions of small objects. The arena only grows: nodes are
+ * never changed once their version is committed, so every previous version stays readable exactly as it was.
+ * Nodes allocated since the start of a change are the only ones that change may write to, so the arena index
+ * itself tells which nodes must be copied. The tree is balanced as a left-leaning red-black tree
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public class ArenaPersistentDynamicSet<E> extends AbstractSet<E> implements VersionedSortedSet<E> {
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1<<PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE-1;
+    private static final int NIL = 0; //index 0 is never allocated, and stands for an empty subtree
+    private static final long INDEX_MASK = (1L<<31)-1;
+    private static final int RIGHT_SHIFT = 31;
+    private static final long RED = 1L<<62;
+
+    private final Comparator<? super E> comparator;
+    private final Comparator<? super E> ordering; //comparator resolved once, so that compare makes no checks
+    private final ArrayList<Version> previousVersions;
+    private volatile Version current; //the last committed version, published for reader threads
+    private long[][] links; //pages of packed left child, right child and colour
+    private Object[][] elements; //pages of elements
+    private int nodeCount; //index of the next node to allocate
+    private int changeStart; //index of the first node allocated by the change being built
+
+    /**
+     * Construct an arena-backed persistent dynamic set
+     */
+    public ArenaPersistentDynamicSet() {
+        this(null);
+    }
+
+    /**
+     * Construct an arena-backed persistent dynamic set ordered by a comparator
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public ArenaPersistentDynamicSet(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+        this.ordering = comparator != null ? comparator : BinarySearchTree::compareNatural;
+        this.previousVersions = new ArrayList<>();
+        this.current = new Version(0, NIL, 0);
+        this.links = new long[1][PAGE_SIZE];
+        this.elements = new Object[1][PAGE_SIZE];
+        this.nodeCount = 1;
+    }
+
+    @Override
+    public int versionCount() {
+        return previousVersions.size()+1;
+    }
+
+    @Override
+    public int currentVersion() {
+        return current.number;
+    }
+
+    @Override
+    public SortedSet<E> version(int number) {
+        Version version = current;
+        if (number != version.number) {
+            if (number < 0 || number > version.number) {
+                throw new IndexOutOfBoundsException("No version "+number);
+            }
+            version = previousVersions.get(number); //version numbers are list indexes as no version is discarded
+        }
+        return new VersionView(version.root, version.size, null, null);
+    }
+
+    @Override
+    public SortedSet<E> snapshot() {
+        Version version = current;
+        return new VersionView(version.root, version.size, null, null);
+    }
+
+    /**
+     * Get the number of nodes allocated in the arena, across all versions
+     * @return number of nodes
+     */
+    public int nodeCount() {
+        return nodeCount-1;
+    }
+
+    @Override
+    public boolean add(E o) {
+        changeStart = nodeCount;
+        int root = insert(current.root, o);
+        if (root == current.root) {
+            return false;
+        }
+        setRed(root, false);
+        commit(root, current.size+1);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        E element = (E) o; //unchecked
+        changeStart = nodeCount;
+        int root = own(current.root);
+        if (!isRed(left(root)) && !isRed(right(root))) {
+            setRed(root, true);
+        }
+        root = delete(root, element);
+        if (root != NIL) {
+            setRed(root, false);
+        }
+        commit(root, current.size-1);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (current.root != NIL) {
+            commit(NIL, 0);
+        }
+    }
+
+    // helper method that records the current version and publishes a new one
+    private void commit(int root, int size) {
+        previousVersions.add(current); //kept even if empty, so that a number always refers to the same contents
+        current = new Version(current.number+1, root, size);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && find(current.root, (E) o); //unchecked
+    }
+
+    // helper method that checks whether an element is in the subtree of a node
+    private boolean find(int node, E element) {
+        while (node != NIL) {
+            int comparison = compare(element, element(node));
+            if (comparison < 0) {
+                node = left(node);
+            } else if (comparison > 0) {
+                node = right(node);
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    /**
+     * Get an iterator over the version current when it was created
+     * Removing through the iterator removes from the set, without disturbing the iteration
+     * @return iterator over the elements in ascending order
+     */
+    @Override
+    public Iterator<E> iterator() {
+        Iterator<E> versionIterator = snapshot().iterator();
+        return new Iterator<E>() {
+            private E lastReturned;
+            private boolean canRemove;
+
+            @Override
+            public boolean hasNext() {
+                return versionIterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                lastReturned = versionIterator.next();
+                canRemove = true;
+                return lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (!canRemove) {
+                    throw new IllegalStateException();
+                }
+                ArenaPersistentDynamicSet.this.remove(lastReturned);
+                canRemove = false;
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return snapshot().subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return snapshot().headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return snapshot().tailSet(fromElement);
+    }
+
+    @Override
+    public E first() {
+        return snapshot().first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot().last();
+    }
+
+    // helper method that compares two elements using the comparator or natural ordering
+    // the choice is made once when the set is constructed, so this is a single call
+    private int compare(E element1, E element2) {
+        return ordering.compare(element1, element2);
+    }
+
+    // node accessors, which split an index into its page and the position in that page
+
+    private E element(int node) {
+        return (E) elements[node>>>PAGE_BITS][node&PAGE_MASK]; //unchecked
+    }
+
+    private int left(int node) {
+        return (int) (links[node>>>PAGE_BITS][node&PAGE_MASK]&INDEX_MASK);
+    }
+
+    private int right(int node) {
+        return (int) ((links[node>>>PAGE_BITS][node&PAGE_MASK]>>>RIGHT_SHIFT)&INDEX_MASK);
+    }
+
+    private boolean isRed(int node) {
+        return node != NIL && (links[node>>>PAGE_BITS][node&PAGE_MASK]&RED) != 0;
+    }
+
+    private void setLinks(int node, int left, int right, boolean red) {
+        links[node>>>PAGE_BITS][node&PAGE_MASK] = left|((long) right<<RIGHT_SHIFT)|(red ? RED : 0);
+    }
+
+    private void setLeft(int node, int left) {
+        setLinks(node, left, right(node), isRed(node));
+    }
+
+    private void setRight(int node, int right) {
+        setLinks(node, left(node), right, isRed(node));
+    }
+
+    private void setRed(int node, boolean red) {
+        setLinks(node, left(node), right(node), red);
+    }
+
+    private void setElement(int node, E element) {
+        elements[node>>>PAGE_BITS][node&PAGE_MASK] = element;
+    }
+
+    // helper method that allocates a node at the end of the arena, adding a page when the last one is full
+    private int allocate(E element, int left, int right, boolean red) {
+        if (nodeCount == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Arena is full");
+        }
+        int node = nodeCount++;
+        int page = node>>>PAGE_BITS;
+        if (page == links.length) {
+            links = Arrays.copyOf(links, 2*page);
+            elements = Arrays.copyOf(elements, 2*page);
+        }
+        if (links[page] == null) {
+            links[page] = new long[PAGE_SIZE];
+            elements[page] = new Object[PAGE_SIZE];
+        }
+        setElement(node, element);
+        setLinks(node, left, right, red);
+        return node;
+    }
+
+    // helper method that returns a node that the change being built may write to, copying it if it is shared
+    private int own(int node) {
+        return node >= changeStart ? node : allocate(element(node), left(node), right(node), isRed(node));
+    }
+
+    // helper method that inserts an element below node, returning node itself if the element is already present
+    private int insert(int node, E element) {
+        if (node == NIL) {
+            return allocate(element, NIL, NIL, true);
+        }
+        int comparison = compare(element, element(node));
+        if (comparison < 0) {
+            int leftChild = insert(left(node), element);
+            if (leftChild == left(node)) {
+                return node;
+            }
+            node = own(node);
+            setLeft(node, leftChild);
+        } else if (comparison > 0) {
+            int rightChild = insert(right(node), element);
+            if (rightChild == right(node)) {
+                return node;
+            }
+            node = own(node);
+            setRight(node, rightChild);
+        } else {
+            return node;
+        }
+        return balance(node);
+    }
+
+    // helper method that deletes an element known to be below the owned node
+    private int delete(int node, E element) {
+        if (compare(element, element(node)) < 0) {
+            if (!isRed(left(node)) && !isRed(left(left(node)))) {
+                node = moveRedLeft(node);
+            }
+            setLeft(node, delete(own(left(node)), element));
+        } else {
+            if (isRed(left(node))) {
+                node = rotateRight(node);
+            }
+            if (compare(element, element(node)) == 0 && right(node) == NIL) {
+                return NIL;
+            }
+            if (!isRed(right(node)) && !isRed(left(right(node)))) {
+                node = moveRedRight(node);
+            }
+            if (compare(element, element(node)) == 0) {
+                int successor = right(node);
+                while (left(successor) != NIL) {
+                    successor = left(successor);
+                }
+                setElement(node, element(successor));
+                setRight(node, deleteMin(own(right(node))));
+            } else {
+                setRight(node, delete(own(right(node)), element));
+            }
+        }
+        return balance(node);
+    }
+
+    // helper method that deletes the smallest element below the owned node
+    private int deleteMin(int node) {
+        if (left(node) == NIL) {
+            return NIL;
+        }
+        if (!isRed(left(node)) && !isRed(left(left(node)))) {
+            node = moveRedLeft(node);
+        }
+        setLeft(node, deleteMin(own(left(node))));
+        return balance(node);
+    }
+
+    // helper method that restores the left-leaning red-black invariants at the owned node
+    private int balance(int node) {
+        if (isRed(right(node)) && !isRed(left(node))) {
+            node = rotateLeft(node);
+        }
+        if (isRed(left(node)) && isRed(left(left(node)))) {
+            node = rotateRight(node);
+        }
+        if (isRed(left(node)) && isRed(right(node))) {
+            flipColours(node);
+        }
+        return node;
+    }
+
+    // helper method that rotates the owned node left, returning the owned node that replaces it
+    private int rotateLeft(int node) {
+        int rightChild = own(right(node));
+        boolean red = isRed(node);
+        setLinks(node, left(node), left(rightChild), true);
+        setLinks(rightChild, node, right(rightChild), red);
+        return rightChild;
+    }
+
+    // helper method that rotates the owned node right, returning the owned node that replaces it
+    private int rotateRight(int node) {
+        int leftChild = own(left(node));
+        boolean red = isRed(node);
+        setLinks(node, right(leftChild), right(node), true);
+        setLinks(leftChild, left(leftChild), node, red);
+        return leftChild;
+    }
+
+    // helper method that flips the colours of the owned node and its children
+    private void flipColours(int node) {
+        int leftChild = own(left(node));
+        int rightChild = own(right(node));
+        setRed(leftChild, !isRed(leftChild));
+        setRed(rightChild, !isRed(rightChild));
+        setLinks(node, leftChild, rightChild, !isRed(node));
+    }
+
+    // helper method that makes the left child of the owned node or one of its children red
+    private int moveRedLeft(int node) {
+        flipColours(node);
+        if (isRed(left(right(node)))) {
+            setRight(node, rotateRight(right(node)));
+            node = rotateLeft(node);
+            flipColours(node);
+        }
+        return node;
+    }
+
+    // helper method that makes the right child of the owned node or one of its children red
+    private int moveRedRight(int node) {
+        flipColours(node);
+        if (isRed(left(left(node)))) {
+            node = rotateRight(node);
+            flipColours(node);
+        }
+        return node;
+    }
+
+    /**
+     * A committed version of the set, which is never changed once published
+     */
+    private static class Version {
+        private final int number;
+        private final int root;
+        private final int size;
+
+        public Version(int number, int root, int size) {
+            this.number = number;
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A read-only view of the elements of one version between fromElement (inclusive) and toElement (exclusive)
+     * A null bound means the view is not bounded on that side, as in BinarySearchTree
+     */
+    private class VersionView extends AbstractSet<E> implements SortedSet<E> {
+        private final int root;
+        private final int size; //size of the whole version
+        private final E fromElement, toElement;
+
+        public VersionView(int root, int size, E fromElement, E toElement) {
+            this.root = root;
+            this.size = size;
+            this.fromElement = fromElement;
+            this.toElement = toElement;
+        }
+
+        private boolean inRange(E element) {
+            return (fromElement == null || compare(element, fromElement) >= 0)
+                    && (toElement == null || compare(element, toElement) < 0);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            E element = (E) o; //unchecked
+            return o != null && inRange(element) && find(root, element);
+        }
+
+        /**
+         * Get the number of elements in the view
+         * This is constant time for a whole version, and counts the elements of a bounded view
+         * @return number of elements
+         */
+        @Override
+        public int size() {
+            if (fromElement == null && toElement == null) {
+                return size;
+            }
+            int count = 0;
+            for (Iterator<E> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new ArenaIterator(root, fromElement, toElement);
+        }
+
+        @Override
+        public boolean add(E o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return new VersionView(root, size, fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public E first() {
+            Iterator<E> iterator = iterator();
+            if (!iterator.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public E last() {
+            E greatest = null;
+            int node = root;
+            while (node != NIL) {
+                if (toElement == null || compare(element(node), toElement) < 0) {
+                    greatest = element(node);
+                    node = right(node);
+                } else {
+                    node = left(node);
+                }
+            }
+            if (greatest == null || (fromElement != null && compare(greatest, fromElement) < 0)) {
+                throw new NoSuchElementException();
+            }
+            return greatest;
+        }
+    }
+
+    /**
+     * Iterator over a range of one version, using an explicit stack of the node indexes still to be visited
+     */
+    private class ArenaIterator implements Iterator<E> {
+        private int[] stack;
+        private int depth;
+        private final E toElement;
+
+        public ArenaIterator(int root, E fromElement, E toElement) {
+            this.stack = new int[16];
+            this.depth = 0;
+            this.toElement = toElement;
+            int node = root;
+            while (node != NIL) { //push the path to the first element not below fromElement
+                if (fromElement != null && compare(element(node), fromElement) < 0) {
+                    node = right(node);
+                } else {
+                    push(node);
+                    node = left(node);
+                }
+            }
+        }
+
+        private void push(int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, 2*depth);
+            }
+            stack[depth++] = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0 && (toElement == null || compare(element(stack[depth-1]), toElement) < 0);
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int node = stack[--depth];
+            for (int child = right(node); child != NIL; child = left(child)) {
+                push(child);
+            }
+            return element(node);
+        }
+    }
+}
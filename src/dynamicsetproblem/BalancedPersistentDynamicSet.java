@@ -1,19 +1,58 @@
 package dynamicsetproblem;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.SortedSet;
 
 /**
  * This subclass of Persistent Dynamic Set adds red black tree functionality to the set
  * @author Tamati Rudd 18045626
  */
 public class BalancedPersistentDynamicSet<E> extends PersistentDynamicSet<E> {
+    private RedBlackNode[] path; //Reusable scratch space: the copied nodes from the root down to the node being fixed
     
     /**
      * Construct a new Balanced Persistent Dynamic Set
      */
     public BalancedPersistentDynamicSet() {
-        super();
+        this((Comparator<? super E>) null);
+    }
+    
+    /**
+     * Construct a new Balanced Persistent Dynamic Set ordered by a comparator
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public BalancedPersistentDynamicSet(Comparator<? super E> comparator) {
+        this(comparator, null);
+    }
+    
+    /**
+     * Construct a new Balanced Persistent Dynamic Set whose nodes cache a prefix of their element
+     * @param comparator comparator used to order the set (null for natural ordering)
+     * @param keyCodec codec giving prefixes that agree with the ordering (null to always use the comparator)
+     */
+    public BalancedPersistentDynamicSet(Comparator<? super E> comparator, KeyCodec<? super E> keyCodec) {
+        super(comparator, keyCodec);
+        path = (RedBlackNode[]) new BalancedPersistentDynamicSet.RedBlackNode[32]; //unchecked
+    }
+    
+    /**
+     * Construct a new Balanced Persistent Dynamic Set holding the elements of a collection, as a single version
+     * @param c collection of elements
+     */
+    public BalancedPersistentDynamicSet(Collection<? extends E> c) {
+        this();
+        load(c);
+    }
+    
+    /**
+     * Construct a new Balanced Persistent Dynamic Set holding the elements of a sorted set, with the same ordering, as a single version
+     * @param s sorted set of elements
+     */
+    public BalancedPersistentDynamicSet(SortedSet<E> s) {
+        this(s.comparator());
+        loadSorted(s);
     }
     
     /**
@@ -26,258 +65,570 @@ public class BalancedPersistentDynamicSet<E> extends PersistentDynamicSet<E> {
     
     /**
      * Replace the root node
+     * The new root is always a node created for the current version, so it can be recoloured in place
      * @param newRootNode
      */
     @Override
     protected void replaceRootNode(BinaryTreeNode newRootNode) {
         RedBlackNode newRedBlackRoot = (RedBlackNode) newRootNode;
-        newRedBlackRoot.colour = Colour.BLACK;
+        if (newRedBlackRoot != null) {
+            newRedBlackRoot.colour = Colour.BLACK;
+        }
         super.replaceRootNode(newRedBlackRoot);
     }
     
     /**
      * Insert the new node
-     * Then, create a new tree version, using unchanged nodes from the old tree, and traversed nodes
+     * The path from the root to the new node is copied into the path array, then the red-black conditions are
+     * restored on the copies, so that only one new tree version is created
      * @param oldParent
      * @param direction
      * @param newNode 
      */
     @Override
     protected void insertNode(BinaryTreeNode oldParent, Direction direction, BinaryTreeNode newNode) {
+        //Copy the traversed nodes (root to oldParent) into the path, linking each copy to the copy above it
+        int depth = traversedNodes.size();
+        ensurePathCapacity(depth+1);
+        for (int i = 0; i < depth; i++) {
+            RedBlackNode oldNode = (RedBlackNode) traversedNodes.get(i);
+            path[i] = copyOfNode(oldNode);
+            path[i].size++; //every node on the path gains the inserted node
+            if (i > 0) {
+                replaceChild(path[i-1], oldNode, path[i]);
+            }
+        }
+        traversedNodes.clear();
+        
         //Handle the inserted node
-        BinaryTreeNode newParent = oldParent.clone();
         if (direction == Direction.RIGHT_NODE) {
-            newParent.rightChild = newNode;
+            path[depth-1].rightChild = newNode;
         } else if (direction == Direction.LEFT_NODE) {
-            newParent.leftChild = newNode;
+            path[depth-1].leftChild = newNode;
         }
+        path[depth] = (RedBlackNode) newNode;
         
-        //Remove the insertion node from the stack 
-        popTraversalStack();
-
-        //Create the new tree
-        createTreeFromLeaf(newParent, oldParent);
-        
-        HashMap<RedBlackNode, RedBlackNode> map = new HashMap<>();
-        map.put((RedBlackNode) newNode, (RedBlackNode) newParent);
-        RedBlackNode currentNode = (RedBlackNode) newParent;
-        for (int i = traversedNodes.size(); i > 0; i--) {
-            RedBlackNode currentParent = (RedBlackNode)traversedNodes.get(i-1);
-            map.put(currentNode, currentParent);
-            currentNode = currentParent;
-        }
-        map.put(currentNode, null);
-        traversedNodes.clear();
-        insertFixup(map, (RedBlackNode) newNode);   
+        insertFixup(depth);
+        replaceRootNode(path[0]);
+        Arrays.fill(path, 0, depth+1, null);
     }
     
-    
     /**
-     * Traverse up from a new leaf node (created by add or remove hooks) to build the new tree
-     * Uses unchanged parts of the previous tree, and traversed nodes for the path to the leaf
-     * @param newChild
-     * @param oldChild 
+     * Make sure the path array can hold a path with the given number of nodes
+     * @param length number of nodes on the path
      */
-    @Override
-    protected void createTreeFromLeaf(BinaryTreeNode newChild, BinaryTreeNode oldChild) {
-        //Handle parent(s) of the inserted node
-        for (int i = traversedNodes.size(); i > 0; i--) {
-            
-            BinaryTreeNode currentNode = traversedNodes.get(i-1);
-            
-            BinaryTreeNode clonedCurrentNode = currentNode.clone();
-            
-            
-            if (currentNode.leftChild == oldChild) {
-                clonedCurrentNode.leftChild = newChild;
-            } else if (currentNode.rightChild == oldChild) {
-                clonedCurrentNode.rightChild = newChild;
-            }  else {
-                throw new RuntimeException("Neither right or left");
-            }
-            newChild = clonedCurrentNode;
-            oldChild = currentNode;
-            traversedNodes.set(i-1, clonedCurrentNode);
+    private void ensurePathCapacity(int length) {
+        if (path.length < length) {
+            path = Arrays.copyOf(path, Math.max(length, path.length*2));
         }
-        
-        replaceRootNode(newChild);
     }
     
     /**
-     * Get the parent of a node by accessing the traversed nodes list
-     * @return parent of the currentNode
-     * @param parentsMap map of parents
-     * @param currentNode node to get the parent for
+     * Replace the child of a node that is oldChild with newChild
+     * @param parent node whose child changes
+     * @param oldChild current child
+     * @param newChild replacement child
      */
-    protected RedBlackNode getParent(HashMap parentsMap, RedBlackNode currentNode) {
-       return (RedBlackNode) parentsMap.get(currentNode);
-    }
-    
-    /**
-     * Get the grandparent of a node by accessing the traversed nodes list
-     * @return parent of the parent the currentNode
-     * @param parentsMap map of parents
-     * @param currentNode node to get the parent for
-     */
-    protected RedBlackNode getGrandparent(HashMap parentsMap, RedBlackNode currentNode) {
-       return (RedBlackNode) parentsMap.get(parentsMap.get(currentNode));
+    private void replaceChild(RedBlackNode parent, BinaryTreeNode oldChild, BinaryTreeNode newChild) {
+        if (parent.leftChild == oldChild) {
+            parent.leftChild = newChild;
+        } else if (parent.rightChild == oldChild) {
+            parent.rightChild = newChild;
+        } else {
+            throw new RuntimeException("Neither right or left");
+        }
     }
     
     /**
      * Restores the red-black conditions of the tree after inserting a node.
+     * Every node on the path is a copy made for this insert, so it is changed in place.
+     * An uncle that gets recoloured is not on the path, so it is copied first.
      *
-     * @param parentsMap map of parents
-     * @param insertedNode The node inserted.
+     * @param index index in the path of the inserted node
      */
-    protected void insertFixup(HashMap parentsMap, RedBlackNode insertedNode) {
-        RedBlackNode y = null;
-
-        while (getParent(parentsMap, insertedNode).colour == Colour.RED) {
-            if (getParent(parentsMap, insertedNode) == getGrandparent(parentsMap, insertedNode).leftChild) {
-                y = (RedBlackNode)((RedBlackNode) parentsMap.get(parentsMap.get(insertedNode))).rightChild;
-                if (y != null && y.colour == Colour.RED) {
-                    getParent(parentsMap, insertedNode).colour = Colour.BLACK;
-                    y = y.clone();
-                    y.colour = Colour.BLACK;
-                    RedBlackNode clonedParent = getGrandparent(parentsMap, insertedNode);
-                    clonedParent.rightChild = y;
-                    clonedParent.colour = Colour.RED;
-                    insertedNode = getGrandparent(parentsMap, insertedNode);
-                } else { //If BLACK
-                    if (insertedNode == getParent(parentsMap, insertedNode).rightChild) {
-                        insertedNode = getParent(parentsMap, insertedNode);
-                        leftRotate(parentsMap, getParent(parentsMap, insertedNode));
+    protected void insertFixup(int index) {
+        while (index > 0 && path[index-1].colour == Colour.RED) {
+            //The parent is red, so it is not the root and the grandparent is on the path
+            RedBlackNode parent = path[index-1];
+            RedBlackNode grandparent = path[index-2];
+            if (parent == grandparent.leftChild) {
+                RedBlackNode uncle = (RedBlackNode) grandparent.rightChild;
+                if (uncle != null && uncle.colour == Colour.RED) {
+                    uncle = copyOfNode(uncle);
+                    uncle.colour = Colour.BLACK;
+                    grandparent.rightChild = uncle;
+                    parent.colour = Colour.BLACK;
+                    grandparent.colour = Colour.RED;
+                    index -= 2;
+                    if (metrics != null) {
+                        metrics.recoloured();
                     }
-
-                    getParent(parentsMap, insertedNode).colour = Colour.BLACK;
-                    RedBlackNode parentParent = getGrandparent(parentsMap, insertedNode);
-                    if (parentParent != null) {
-                        parentParent.colour = Colour.RED;
-                        rightRotate(parentsMap, parentParent);
+                } else { //If BLACK
+                    if (path[index] == parent.rightChild) {
+                        leftRotate(index-1);
                     }
+                    path[index-1].colour = Colour.BLACK;
+                    grandparent.colour = Colour.RED;
+                    rightRotate(index-2);
+                    index = 0;
                 }
             } else {
-                y = (RedBlackNode) getGrandparent(parentsMap, insertedNode).leftChild;
-                if (y != null && y.colour == Colour.RED) {
-                    getParent(parentsMap, insertedNode).colour = Colour.BLACK;
-                    y = y.clone();
-                    y.colour = Colour.BLACK;
-                    RedBlackNode clonedParent = getGrandparent(parentsMap, insertedNode);
-                    clonedParent.leftChild = y;
-                    clonedParent.colour = Colour.RED;
-                    insertedNode = getGrandparent(parentsMap, insertedNode);
-                } else { //If BLACK
-                    if (insertedNode == getParent(parentsMap, insertedNode).leftChild) {
-                        insertedNode = getParent(parentsMap, insertedNode);
-                        rightRotate(parentsMap, getParent(parentsMap, insertedNode));
+                RedBlackNode uncle = (RedBlackNode) grandparent.leftChild;
+                if (uncle != null && uncle.colour == Colour.RED) {
+                    uncle = copyOfNode(uncle);
+                    uncle.colour = Colour.BLACK;
+                    grandparent.leftChild = uncle;
+                    parent.colour = Colour.BLACK;
+                    grandparent.colour = Colour.RED;
+                    index -= 2;
+                    if (metrics != null) {
+                        metrics.recoloured();
                     }
-
-                    getParent(parentsMap, insertedNode).colour = Colour.BLACK;
-                    getGrandparent(parentsMap, insertedNode).colour = Colour.RED;
-                    
-                    
-                    RedBlackNode parentParent = getGrandparent(parentsMap, insertedNode);
-                    if (parentParent != null) {
-                        parentParent.colour = Colour.RED;
-                        leftRotate(parentsMap, parentParent);
+                } else { //If BLACK
+                    if (path[index] == parent.leftChild) {
+                        rightRotate(index-1);
                     }
-                    
+                    path[index-1].colour = Colour.BLACK;
+                    grandparent.colour = Colour.RED;
+                    leftRotate(index-2);
+                    index = 0;
                 }
             }
         }
     }
     
     /**
-     * Performs a left rotation on a node, making the node's right child its parent.
+     * Performs a left rotation on a node of the path, making the node's right child its parent.
+     * The right child must already be a copy made for this version. The child takes the node's place in the path,
+     * and the node moves down to the next place.
      *
-     * @param parentsMap the map of parents
-     * @param x The node to rotate
+     * @param index index in the path of the node to rotate
      */
-    protected void leftRotate(HashMap parentsMap, RedBlackNode x) {
+    protected void leftRotate(int index) {
+        ensurePathCapacity(index+2);
+        if (metrics != null) {
+            metrics.rotated();
+        }
+        RedBlackNode x = path[index];
         RedBlackNode y = (RedBlackNode) x.rightChild;
-        if (y != null) {
-            y = y.clone();
-            // Swap the in-between subtree from y to x.
-            x.rightChild = y.leftChild;
-            if (y.leftChild != null) {
-                parentsMap.put(y.leftChild, x);
-            }
-            parentsMap.put(y, getParent(parentsMap, x));
-        } else {
-            x.rightChild = null;
-        } 
-
-        // If x is the root of the entire tree, make y the root.
-        // Otherwise, make y the correct child of the subtree's parent.
-        if (getParent(parentsMap, x) == null && y != null) {
-            replaceRootNode(y);
-        } else {
-            RedBlackNode xParent = getParent(parentsMap, x);
-            if (xParent != null) {
-                RedBlackNode xParentClone = xParent.clone();
-                if (x == xParentClone.leftChild) {
-                    xParentClone.leftChild = y;
-                } else {
-                    xParentClone.rightChild = y;
-                }
-
-                RedBlackNode xxParent = getParent(parentsMap, xParent);
-                if (xxParent != null) {
-                    parentsMap.put(xParentClone, xxParent);
-                }
-            }
-        } 
-
-        // Relink x and y
-        if (y != null) {
-            y.leftChild = x;
-        } 
-        parentsMap.put(x, y);
+        x.rightChild = y.leftChild;
+        y.leftChild = x;
+        updateSize(x);
+        updateSize(y);
+        if (index > 0) {
+            replaceChild(path[index-1], x, y);
+        }
+        path[index] = y;
+        path[index+1] = x;
     }
 
     /**
-     * Performs a right rotation on a node, making the node's left child its parent.
+     * Performs a right rotation on a node of the path, making the node's left child its parent.
+     * The left child must already be a copy made for this version. The child takes the node's place in the path,
+     * and the node moves down to the next place.
      *
-     * @param parentsMap
-     * @param x The node to rotate
+     * @param index index in the path of the node to rotate
      */
-    protected void rightRotate(HashMap parentsMap, RedBlackNode x) {
+    protected void rightRotate(int index) {
+        ensurePathCapacity(index+2);
+        if (metrics != null) {
+            metrics.rotated();
+        }
+        RedBlackNode x = path[index];
         RedBlackNode y = (RedBlackNode) x.leftChild;
+        x.leftChild = y.rightChild;
+        y.rightChild = x;
+        updateSize(x);
+        updateSize(y);
+        if (index > 0) {
+            replaceChild(path[index-1], x, y);
+        }
+        path[index] = y;
+        path[index+1] = x;
+    }
+ 
+    /**
+     * Remove a node that has been found in the tree, then restore the red-black conditions
+     * The traversed nodes (root to parentNode) are copied into the path array. When the removal node has two children,
+     * its copy takes the element of its in-order successor, and the path continues down to the successor's parent.
+     * Only the path and the siblings recoloured or rotated by the fixup are copied, and one new tree version is created
+     * @param parentNode parent of the node to remove, or null if the node to remove is the root
+     * @param removalNode the node to remove
+     */
+    @Override
+    protected void removeNode(BinaryTreeNode parentNode, BinaryTreeNode removalNode) {
+        //Copy the traversed nodes (root to parentNode) into the path, linking each copy to the copy above it
+        int depth = traversedNodes.size();
+        ensurePathCapacity(depth+1);
+        for (int i = 0; i < depth; i++) {
+            RedBlackNode oldNode = (RedBlackNode) traversedNodes.get(i);
+            path[i] = copyOfNode(oldNode);
+            if (i > 0) {
+                replaceChild(path[i-1], oldNode, path[i]);
+            }
+        }
+        traversedNodes.clear();
         
-        if (y != null) {
-            y = y.clone();
-             x.leftChild = y.rightChild;
-            if (x.leftChild != null) {
-                parentsMap.put(y.rightChild, x);
+        RedBlackNode oldRemovalNode = (RedBlackNode) removalNode;
+        boolean twoChildren = oldRemovalNode.leftChild != null && oldRemovalNode.rightChild != null;
+        BinaryTreeNode childNode; //the node that moves up into the place of the removed node
+        int parentIndex; //index in the path of the parent of childNode, -1 if childNode becomes the root
+        boolean leftChild; //whether childNode is the left child of its parent
+        Colour removedColour;
+        RedBlackNode newRoot = null;
+        if (!twoChildren) {
+            //Splice out the removal node, replacing it with its only child
+            childNode = oldRemovalNode.leftChild != null ? oldRemovalNode.leftChild : oldRemovalNode.rightChild;
+            removedColour = oldRemovalNode.colour;
+            parentIndex = depth-1;
+            if (parentIndex >= 0) {
+                leftChild = path[parentIndex].leftChild == oldRemovalNode;
+                replaceChild(path[parentIndex], oldRemovalNode, childNode);
+            } else {
+                leftChild = false;
+                newRoot = (RedBlackNode) childNode;
             }
-            parentsMap.put(y, getParent(parentsMap, x));
-
-            y.rightChild = x;
         } else {
-            x.leftChild = null;
+            //Copy the removal node and move the in-order successor's element into it
+            RedBlackNode newRemovalNode = copyOfNode(oldRemovalNode);
+            if (depth > 0) {
+                replaceChild(path[depth-1], oldRemovalNode, newRemovalNode);
+            }
+            path[depth] = newRemovalNode;
+            parentIndex = depth;
+            BinaryTreeNode successor = oldRemovalNode.rightChild;
+            while (successor.leftChild != null) {
+                RedBlackNode copy = copyOfNode(successor);
+                replaceChild(path[parentIndex], successor, copy);
+                ensurePathCapacity(parentIndex+2);
+                path[++parentIndex] = copy;
+                successor = successor.leftChild;
+            }
+            newRemovalNode.element = successor.element;
+            newRemovalNode.prefix = successor.prefix;
+            
+            //Splice out the successor, replacing it with its right child
+            childNode = successor.rightChild;
+            removedColour = ((RedBlackNode) successor).colour;
+            leftChild = parentIndex != depth;
+            replaceChild(path[parentIndex], successor, childNode);
         }
-        parentsMap.put(x, y);
-
-        if (rootNode == x && y != null) {
-            replaceRootNode(y);
-        } else {
-            RedBlackNode yParent = getParent(parentsMap, y);
-            if (yParent != null) {
-                 RedBlackNode yParentClone = yParent.clone();
-                if (yParent.leftChild == x) {
-                    yParent.leftChild = y;
+        for (int i = 0; i <= parentIndex; i++) {
+            path[i].size--; //every node on the path loses the spliced node
+        }
+        
+        if (removedColour == Colour.BLACK) {
+            if (colourOf(childNode) == Colour.RED) {
+                //A red child absorbs the missing black
+                RedBlackNode blackChild = copyOfNode(childNode);
+                blackChild.colour = Colour.BLACK;
+                if (metrics != null) {
+                    metrics.recoloured();
+                }
+                if (parentIndex >= 0) {
+                    replaceChild(path[parentIndex], childNode, blackChild);
                 } else {
-                    yParent.rightChild = y;
+                    newRoot = blackChild;
                 }
-
-                RedBlackNode yyParent = getParent(parentsMap, yParent);
-                if (yyParent != null) {
-                    parentsMap.put(yParentClone, yyParent);
+            } else if (parentIndex >= 0) {
+                deleteFixup(parentIndex, leftChild);
+            }
+        }
+        
+        if (depth > 0 || twoChildren) {
+            newRoot = path[0];
+        }
+        replaceRootNode(newRoot);
+        Arrays.fill(path, null);
+    }
+    
+    /**
+     * Restores the red-black conditions of the tree after removing a black node.
+     * The child that replaced the removed node is one black short. Every node on the path is a copy made for this
+     * remove, so it is changed in place; the sibling and its children are copied before they are recoloured or rotated.
+     *
+     * @param parentIndex index in the path of the parent of the node that is one black short
+     * @param leftChild whether that node is the left child of its parent
+     */
+    protected void deleteFixup(int parentIndex, boolean leftChild) {
+        boolean done = false;
+        while (!done) {
+            RedBlackNode parent = path[parentIndex];
+            if (leftChild) {
+                RedBlackNode sibling = copyOfNode(parent.rightChild);
+                parent.rightChild = sibling;
+                if (sibling.colour == Colour.RED) {
+                    sibling.colour = Colour.BLACK;
+                    parent.colour = Colour.RED;
+                    leftRotate(parentIndex);
+                    parentIndex++;
+                    sibling = copyOfNode(parent.rightChild);
+                    parent.rightChild = sibling;
+                }
+                if (colourOf(sibling.leftChild) == Colour.BLACK && colourOf(sibling.rightChild) == Colour.BLACK) {
+                    sibling.colour = Colour.RED;
+                    if (metrics != null) {
+                        metrics.recoloured();
+                    }
+                    if (parent.colour == Colour.RED || parentIndex == 0) {
+                        parent.colour = Colour.BLACK;
+                        done = true;
+                    } else {
+                        parentIndex--;
+                        leftChild = path[parentIndex].leftChild == parent;
+                    }
+                } else {
+                    if (colourOf(sibling.rightChild) == Colour.BLACK) {
+                        RedBlackNode nephew = copyOfNode(sibling.leftChild);
+                        nephew.colour = Colour.BLACK;
+                        sibling.colour = Colour.RED;
+                        sibling.leftChild = nephew.rightChild;
+                        nephew.rightChild = sibling;
+                        updateSize(sibling);
+                        updateSize(nephew);
+                        parent.rightChild = nephew;
+                        if (metrics != null) {
+                            metrics.rotated();
+                        }
+                        sibling = nephew;
+                    }
+                    RedBlackNode nephew = copyOfNode(sibling.rightChild);
+                    nephew.colour = Colour.BLACK;
+                    sibling.rightChild = nephew;
+                    sibling.colour = parent.colour;
+                    parent.colour = Colour.BLACK;
+                    leftRotate(parentIndex);
+                    done = true;
+                }
+            } else {
+                RedBlackNode sibling = copyOfNode(parent.leftChild);
+                parent.leftChild = sibling;
+                if (sibling.colour == Colour.RED) {
+                    sibling.colour = Colour.BLACK;
+                    parent.colour = Colour.RED;
+                    rightRotate(parentIndex);
+                    parentIndex++;
+                    sibling = copyOfNode(parent.leftChild);
+                    parent.leftChild = sibling;
+                }
+                if (colourOf(sibling.leftChild) == Colour.BLACK && colourOf(sibling.rightChild) == Colour.BLACK) {
+                    sibling.colour = Colour.RED;
+                    if (metrics != null) {
+                        metrics.recoloured();
+                    }
+                    if (parent.colour == Colour.RED || parentIndex == 0) {
+                        parent.colour = Colour.BLACK;
+                        done = true;
+                    } else {
+                        parentIndex--;
+                        leftChild = path[parentIndex].leftChild == parent;
+                    }
+                } else {
+                    if (colourOf(sibling.leftChild) == Colour.BLACK) {
+                        RedBlackNode nephew = copyOfNode(sibling.rightChild);
+                        nephew.colour = Colour.BLACK;
+                        sibling.colour = Colour.RED;
+                        sibling.rightChild = nephew.leftChild;
+                        nephew.leftChild = sibling;
+                        updateSize(sibling);
+                        updateSize(nephew);
+                        parent.leftChild = nephew;
+                        if (metrics != null) {
+                            metrics.rotated();
+                        }
+                        sibling = nephew;
+                    }
+                    RedBlackNode nephew = copyOfNode(sibling.leftChild);
+                    nephew.colour = Colour.BLACK;
+                    sibling.leftChild = nephew;
+                    sibling.colour = parent.colour;
+                    parent.colour = Colour.BLACK;
+                    rightRotate(parentIndex);
+                    done = true;
                 }
             }
         }
     }
+    
+    /**
+     * Get a copy of a red-black node that may be changed for the current version
+     * @param node node to copy
+     * @return the copy, or the node itself if it was created by the open batch
+     */
+    private RedBlackNode copyOfNode(BinaryTreeNode node) {
+        return (RedBlackNode) copyOf(node);
+    }
+    
+    /**
+     * Make an empty balanced set with the same ordering and key codec
+     * @return empty set
+     */
+    @Override
+    protected PersistentDynamicSet<E> newEmptySet() {
+        return new BalancedPersistentDynamicSet<>(comparator(), keyCodec());
+    }
+    
+    /**
+     * Check whether the tree is kept balanced, so that split and join recurse only O(log n) deep
+     * @return true, as a red-black tree has height at most 2 log(n+1)
+     */
+    @Override
+    protected boolean isBalanced() {
+        return true;
+    }
+    
+    /**
+     * Check whether the nodes of another tree can become part of this tree, which needs red-black nodes
+     * @param root root of the other tree
+     * @return whether the other tree is a red-black tree
+     */
+    @Override
+    protected boolean canShare(BinaryTreeNode root) {
+        return root instanceof BalancedPersistentDynamicSet.RedBlackNode;
+    }
+    
+    /**
+     * Make the result of a set operation a valid root by making sure it is black
+     * @param node root of the result
+     * @return the node, or a black copy of it if it is red
+     */
+    @Override
+    protected BinaryTreeNode toRoot(BinaryTreeNode node) {
+        return blackened(node);
+    }
+    
+    /**
+     * Join two red-black trees and a middle node, where every element of left is less than the middle element
+     * and every element of right is greater. The middle node goes down the spine of the taller tree to the
+     * first black node with the black height of the shorter tree, and the red-black conditions are restored
+     * on the way back up; only nodes on that spine are copied, so this takes O(difference in black height)
+     * once the black heights are known
+     * @param left left tree, may be null
+     * @param middle node whose element goes between the trees (only its element is used)
+     * @param right right tree, may be null
+     * @return root of the joined tree, which may be red
+     */
+    @Override
+    protected BinaryTreeNode join(BinaryTreeNode left, BinaryTreeNode middle, BinaryTreeNode right) {
+        RedBlackNode blackLeft = blackened(left);
+        RedBlackNode blackRight = blackened(right);
+        int leftHeight = blackHeight(blackLeft);
+        int rightHeight = blackHeight(blackRight);
+        RedBlackNode joined;
+        if (leftHeight > rightHeight) {
+            joined = joinRight(blackLeft, leftHeight, middle, blackRight, rightHeight);
+            if (joined.colour == Colour.RED && colourOf(joined.rightChild) == Colour.RED) {
+                joined.colour = Colour.BLACK;
+            }
+        } else if (rightHeight > leftHeight) {
+            joined = joinLeft(blackLeft, leftHeight, middle, blackRight, rightHeight);
+            if (joined.colour == Colour.RED && colourOf(joined.leftChild) == Colour.RED) {
+                joined.colour = Colour.BLACK;
+            }
+        } else {
+            joined = (RedBlackNode) joinedNode(middle, blackLeft, blackRight);
+            joined.colour = Colour.RED;
+        }
+        return joined;
+    }
+    
+    // helper method that joins a shorter tree onto the right spine of a taller one
+    // the returned node is new and may be red with a red right child, which the caller above it fixes
+    private RedBlackNode joinRight(RedBlackNode left, int leftHeight, BinaryTreeNode middle, RedBlackNode right, int rightHeight) {
+        if (colourOf(left) == Colour.BLACK && leftHeight == rightHeight) {
+            RedBlackNode joined = (RedBlackNode) joinedNode(middle, left, right);
+            joined.colour = Colour.RED;
+            return joined;
+        }
+        int childHeight = left.colour == Colour.BLACK ? leftHeight-1 : leftHeight;
+        RedBlackNode joinedChild = joinRight((RedBlackNode) left.rightChild, childHeight, middle, right, rightHeight);
+        RedBlackNode copy = (RedBlackNode) joinedNode(left, left.leftChild, joinedChild);
+        if (copy.colour == Colour.BLACK && joinedChild.colour == Colour.RED && colourOf(joinedChild.rightChild) == Colour.RED) {
+            ((RedBlackNode) joinedChild.rightChild).colour = Colour.BLACK; //a red node returned by joinRight is always new
+            copy.rightChild = joinedChild.leftChild;
+            joinedChild.leftChild = copy;
+            updateSize(copy);
+            updateSize(joinedChild);
+            return joinedChild;
+        }
+        return copy;
+    }
+    
+    // helper method that joins a shorter tree onto the left spine of a taller one, mirroring joinRight
+    private RedBlackNode joinLeft(RedBlackNode left, int leftHeight, BinaryTreeNode middle, RedBlackNode right, int rightHeight) {
+        if (colourOf(right) == Colour.BLACK && leftHeight == rightHeight) {
+            RedBlackNode joined = (RedBlackNode) joinedNode(middle, left, right);
+            joined.colour = Colour.RED;
+            return joined;
+        }
+        int childHeight = right.colour == Colour.BLACK ? rightHeight-1 : rightHeight;
+        RedBlackNode joinedChild = joinLeft(left, leftHeight, middle, (RedBlackNode) right.leftChild, childHeight);
+        RedBlackNode copy = (RedBlackNode) joinedNode(right, joinedChild, right.rightChild);
+        if (copy.colour == Colour.BLACK && joinedChild.colour == Colour.RED && colourOf(joinedChild.leftChild) == Colour.RED) {
+            ((RedBlackNode) joinedChild.leftChild).colour = Colour.BLACK;
+            copy.leftChild = joinedChild.rightChild;
+            joinedChild.rightChild = copy;
+            updateSize(copy);
+            updateSize(joinedChild);
+            return joinedChild;
+        }
+        return copy;
+    }
+    
+    // helper method that returns a tree with a black root: the tree itself, or a black copy of a red root
+    private RedBlackNode blackened(BinaryTreeNode node) {
+        if (colourOf(node) == Colour.BLACK) {
+            return (RedBlackNode) node;
+        }
+        RedBlackNode copy = (RedBlackNode) joinedNode(node, node.leftChild, node.rightChild);
+        copy.colour = Colour.BLACK;
+        return copy;
+    }
+    
+    // helper method that counts the black nodes on the path from a node down to an empty child
+    private int blackHeight(BinaryTreeNode node) {
+        int height = 0;
+        for (; node != null; node = node.leftChild) {
+            if (((RedBlackNode) node).colour == Colour.BLACK) {
+                height++;
+            }
+        }
+        return height;
+    }
+    
+    /**
+     * Estimate the heap bytes of one red-black node, which adds a colour reference to a BinaryTreeNode
+     * @return estimated bytes per node
+     */
+    @Override
+    protected int estimatedNodeBytes() {
+        return 56;
+    }
+    
+    /**
+     * Get the colour of a node, treating empty children as black
+     * @param node node to check, may be null
+     * @return colour of the node
+     */
+    private Colour colourOf(BinaryTreeNode node) {
+        return node == null ? Colour.BLACK : ((RedBlackNode) node).colour;
+    }
  
+    /**
+     * Make a node for a tree that is being built by loadSorted
+     * The nodes on the incomplete deepest level are red and all others are black, so every path has the same black height
+     * @param element element of the node
+     * @param bottomLevel whether the node is on the deepest level of a tree whose deepest level is not full
+     * @return new RedBlackNode
+     */
+    @Override
+    protected BinaryTreeNode makeBulkNode(E element, boolean bottomLevel) {
+        RedBlackNode node = new RedBlackNode(element);
+        node.colour = bottomLevel ? Colour.RED : Colour.BLACK;
+        node.batch = openBatch;
+        return node;
+    }
+    
     /**
      * Make a new Red Black Node
      *
@@ -285,7 +636,9 @@ public class BalancedPersistentDynamicSet<E> extends PersistentDynamicSet<E> {
      * @return new RedBlackNode
      */
     protected BinaryTreeNode makeNode(E element) {
-        return new RedBlackNode(element);
+        RedBlackNode node = new RedBlackNode(element);
+        node.batch = openBatch;
+        return node;
     }
 
     /**
@@ -303,43 +656,39 @@ public class BalancedPersistentDynamicSet<E> extends PersistentDynamicSet<E> {
             super(element);
             colour = Colour.RED;
         }
+
+        /**
+         * Construct a RedBlackNode whose key prefix is already known
+         *
+         * @param element
+         * @param prefix key prefix of the element
+         */
+        public RedBlackNode(E element, long prefix) {
+            super(element, prefix);
+            colour = Colour.RED;
+        }
         
         /**
          * Clone the red black node
          * @return clone
          */
         public RedBlackNode clone() {
-            RedBlackNode newNode = new RedBlackNode(element);
+            RedBlackNode newNode = new RedBlackNode(element, prefix);
             newNode.leftChild = leftChild;
             newNode.rightChild = rightChild;
             newNode.colour = colour;
             newNode.version = version+1;
+            newNode.size = size;
             return newNode;
         }
         
         /**
-         * Return a visualization of the tree that clearly shows children using in-order traversal
-         * Different levels of the tree are differentiated by the amount of horizontal space
-         * @param level level of the tree
-         * @return the tree in text form
+         * Return the text that shows this node in a visualization of the tree
+         * @return the element, colour and version of the node
          */
         @Override
-        public String toString(int level) {
-            String tree = "";
-            for (int i = 0; i < level; i++) {
-                tree += "     ";
-            }
-            
-            tree += element+" "+colour+" (v"+version+")\n";
-            if (leftChild != null) {
-                tree += "L: "+leftChild.toString(level+1);
-            }   
-            if (rightChild != null) {
-                tree += "R: "+rightChild.toString(level+1);
-            }
-                
-            level--;
-            return tree;
+        public String label() {
+            return element+" "+colour+" (v"+version+")";
         }
     } 
 }
@@ -4,7 +4,7 @@ package dynamicsetproblem;
  * A class that implements a sorted set collection using a binary search tree (BST).
  * Note this implementation of a binary tree does not have duplicate (equal)
  * elements. This class allows a restricted view of the tree, between
- * fromElement (inclusive) and toElement (exclusive)
+ * fromElement (inclusive by default) and toElement (exclusive by default)
  *
  * @author Andrew Ensor
  *
@@ -12,13 +12,20 @@ package dynamicsetproblem;
  * been extended & sub-classed for this assignment Source:
  * https://canvas.aut.ac.nz/courses/10962/discussion_topics/181813)
  */
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 /**
  * For this assignment, this class was adapted to better suit the problem:
@@ -31,19 +38,28 @@ import java.util.SortedSet;
  * @author Tamati Rudd 18045626
  * @param <E> 
  */
-public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E> {
-    private int numElements;
+public class BinarySearchTree<E> extends AbstractSet<E> implements NavigableSet<E> {
     protected BinaryTreeNode rootNode;
     private Comparator<? super E> comparator;//null for natural ordering
+    private Comparator<? super E> ordering; // comparator resolved once, so that compare makes no checks
+    private KeyCodec<? super E> keyCodec; // prefixes cached in the nodes, null if prefixes are not used
+    private boolean exactPrefix; // whether equal prefixes mean equal elements
     private E fromElement, toElement; // bounds for visible view of tree
+    private boolean fromInclusive, toInclusive; // whether the bounds themselves are in the view
+    private boolean readOnly; // true for views of a fixed version, which must never be changed
 
     public BinarySearchTree() {
         super();
-        numElements = 0;
         rootNode = null;
         comparator = null;
+        ordering = BinarySearchTree::compareNatural;
+        keyCodec = null;
+        exactPrefix = false;
         fromElement = null;
         toElement = null;
+        fromInclusive = true;
+        toInclusive = false;
+        readOnly = false;
     }
     
     public enum Direction {
@@ -53,55 +69,144 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
 
     public BinarySearchTree(Collection<? extends E> c) {
         this();
-        for (E element : c) {
-            add(element);
-        }
+        load(c);
     }
 
     public BinarySearchTree(Comparator<? super E> comparator) {
+        this(comparator, null);
+    }
+
+    /**
+     * Construct a tree whose nodes cache a prefix of their element, so most comparisons in a search are one
+     * primitive comparison
+     * @param comparator comparator used to order the tree (null for natural ordering)
+     * @param keyCodec codec giving prefixes that agree with the ordering (null to always use the comparator)
+     */
+    public BinarySearchTree(Comparator<? super E> comparator, KeyCodec<? super E> keyCodec) {
         this();
         this.comparator = comparator;
+        if (comparator != null) {
+            this.ordering = comparator;
+        }
+        this.keyCodec = keyCodec;
+        this.exactPrefix = keyCodec != null && keyCodec.exact();
     }
 
     public BinarySearchTree(SortedSet<E> s) {
-        this();
-        this.comparator = s.comparator();
-        for (E element : s) {
-            add(element);
-        }
+        this(s.comparator());
+        loadSorted(s);
     }
 
     // private constructor used to create a view of a portion of tree
-    private BinarySearchTree(BinaryTreeNode rootNode, Comparator<? super E> comparator, E fromElement, E toElement) {
-        this(comparator);
+    private BinarySearchTree(BinaryTreeNode rootNode, Comparator<? super E> comparator, KeyCodec<? super E> keyCodec,
+            E fromElement, boolean fromInclusive, E toElement, boolean toInclusive, boolean readOnly) {
+        this(comparator, keyCodec);
         this.rootNode = rootNode;
         this.fromElement = fromElement;
+        this.fromInclusive = fromInclusive;
         this.toElement = toElement;
-        // calculate the number of elements
-        this.numElements = countNodes(rootNode);
+        this.toInclusive = toInclusive;
+        this.readOnly = readOnly;
     }
 
-    // recursive helper method that counts number of descendants of node
-    private int countNodes(BinaryTreeNode node) {
-        if (node == null) {
-            return 0;
-        } else {
-            return countNodes(node.leftChild) + 1
-                    + countNodes(node.rightChild);
+    /**
+     * Create a read-only view of a whole tree
+     * Used by subclasses to expose fixed versions of the tree without walking it
+     * @param rootNode root of the tree to view
+     * @param comparator comparator used to order the tree (null for natural ordering)
+     */
+    protected BinarySearchTree(BinaryTreeNode rootNode, Comparator<? super E> comparator) {
+        this(rootNode, comparator, null);
+    }
+
+    /**
+     * Create a read-only view of a whole tree whose nodes cache key prefixes
+     * @param rootNode root of the tree to view
+     * @param comparator comparator used to order the tree (null for natural ordering)
+     * @param keyCodec codec the nodes' prefixes were made with (null if prefixes are not used)
+     */
+    protected BinarySearchTree(BinaryTreeNode rootNode, Comparator<? super E> comparator, KeyCodec<? super E> keyCodec) {
+        this(comparator, keyCodec);
+        this.rootNode = rootNode;
+        this.readOnly = true;
+    }
+
+    /**
+     * Get the number of nodes in a subtree
+     * @param node root of the subtree, may be null
+     * @return number of nodes in the subtree
+     */
+    protected int sizeOf(BinaryTreeNode node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Recalculate the subtree size of a node from the sizes of its children
+     * @param node node whose children have been changed
+     */
+    protected void updateSize(BinaryTreeNode node) {
+        node.size = sizeOf(node.leftChild) + 1 + sizeOf(node.rightChild);
+    }
+
+    // helper method that adds delta to the subtree size of every node on the path from
+    // the root down to (but not including) the node holding element
+    private void adjustPathSizes(E element, int delta) {
+        long prefix = prefixOf(element);
+        BinaryTreeNode currentNode = rootNode;
+        int comparison;
+        while (currentNode != null && (comparison = compareToNode(element, prefix, currentNode)) != 0) {
+            currentNode.size += delta;
+            currentNode = comparison < 0 ? currentNode.leftChild : currentNode.rightChild;
+        }
+    }
+
+    /**
+     * Check whether this is a read-only view of a whole fixed tree, whose nodes may be shared by another tree
+     * @return true for an unbounded read-only view
+     */
+    protected boolean isFixedWholeTree() {
+        return readOnly && fromElement == null && toElement == null;
+    }
+
+    // helper method that rejects changes to a read-only view
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Read-only view");
         }
     }
 
     // helper method that determines whether an element is within the
     // specified view
     private boolean withinView(E element) {
-        boolean inside = true;
-        if (fromElement != null && compare(element, fromElement) < 0) {
-            inside = false;
+        return !belowView(element) && !aboveView(element);
+    }
+
+    // helper methods that determine whether an element comes before the first
+    // possible element of the view, or after the last
+    private boolean belowView(E element) {
+        if (fromElement == null) {
+            return false;
         }
-        if (toElement != null && compare(element, toElement) >= 0) {
-            inside = false;
+        int comparison = compare(element, fromElement);
+        return comparison < 0 || (comparison == 0 && !fromInclusive);
+    }
+
+    private boolean aboveView(E element) {
+        if (toElement == null) {
+            return false;
         }
-        return inside;
+        int comparison = compare(element, toElement);
+        return comparison > 0 || (comparison == 0 && !toInclusive);
+    }
+
+    // helper method that determines whether a bound of a new view lies within this view, as TreeSet requires
+    // an exclusive bound may also equal an exclusive bound of this view, since the new view is still no wider
+    private boolean boundWithinView(E bound, boolean inclusive) {
+        if (inclusive) {
+            return withinView(bound);
+        }
+        return (fromElement == null || compare(bound, fromElement) >= 0)
+                && (toElement == null || compare(bound, toElement) <= 0);
     }
 
     /**
@@ -125,6 +230,7 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
         } else if (direction == Direction.LEFT_NODE) {
             insertionNode.leftChild = newNode;
         }
+        adjustPathSizes(newNode.element, 1);
     }
     
     /**
@@ -138,6 +244,7 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
      * @return whether the object was added into a new node
      */
     public boolean add(E o) {
+        checkWritable();
         if (!withinView(o)) {
             throw new IllegalArgumentException("Outside view");
         }
@@ -151,7 +258,7 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
             boolean done = false;
             while (!done) {
                 traverseHook(currentNode); //Assignment Extension: Record visting of a tree node
-                int comparison = compare(o, currentNode.element);
+                int comparison = compareToNode(o, newNode.prefix, currentNode);
                 if (comparison < 0) // newNode is less than currentNode
                 {
                     if (currentNode.leftChild == null) {  // add newNode as leftChild
@@ -176,24 +283,51 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
                 }
             }
         }
-        if (added) {
-            numElements++;
-        }
         return added;
     }
 
     // performs a comparison of the two elements, using the comparator
     // if not null, otherwise using the compareTo method
-    private int compare(E element1, E element2) {
-        if (comparator != null) {
-            return comparator.compare(element1, element2);
-        } else if (element1 != null && element1 instanceof Comparable) {
-            return ((Comparable) element1).compareTo(element2); //unchecked
-        } else if (element2 != null && element2 instanceof Comparable) {
-            return -((Comparable) element2).compareTo(element1);//unchecked
-        } else {
-            return 0;
+    // the choice is made once when the tree is constructed, so this is a single call
+    protected int compare(E element1, E element2) {
+        return ordering.compare(element1, element2);
+    }
+
+    // natural ordering, used as the ordering when there is no comparator (also by the other engines)
+    static int compareNatural(Object element1, Object element2) {
+        return ((Comparable) element1).compareTo(element2); //unchecked
+    }
+
+    /**
+     * Get the key prefix of an element, to compare against the prefixes cached in the nodes
+     * @param element element, not null
+     * @return prefix of the element, or 0 if prefixes are not used
+     */
+    protected long prefixOf(E element) {
+        return keyCodec == null ? 0 : keyCodec.prefix(element);
+    }
+
+    /**
+     * Compare an element with the element of a node, using the cached prefixes when they differ
+     * Without a key codec every prefix is 0, so this is just compare
+     * @param element element to compare
+     * @param prefix prefix of element (from prefixOf)
+     * @param node node to compare with
+     * @return negative, zero or positive as element is less than, equal to or greater than the node's element
+     */
+    protected int compareToNode(E element, long prefix, BinaryTreeNode node) {
+        if (prefix != node.prefix) {
+            return Long.compareUnsigned(prefix, node.prefix);
         }
+        return exactPrefix ? 0 : ordering.compare(element, node.element);
+    }
+
+    /**
+     * Get the codec whose prefixes the nodes cache
+     * @return key codec, or null if prefixes are not used
+     */
+    public KeyCodec<? super E> keyCodec() {
+        return keyCodec;
     }
     
     /**
@@ -211,6 +345,7 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
      * @param replacementNode the node to replace the removalNode
      */
     protected void replaceRemovalNode(BinaryTreeNode parentNode, BinaryTreeNode removalNode, BinaryTreeNode replacementNode) {
+        adjustPathSizes(removalNode.element, -1);
         if (removalNode == parentNode.leftChild) {
             parentNode.leftChild = replacementNode;
         } else // removalNode==parentNode.rightChild
@@ -229,29 +364,32 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
      * @return whether a node with element o was removed
      */
     public boolean remove(Object o) {
+        checkWritable();
         boolean removed = false;
         E element = (E) o; // unchecked, could throw exception
         if (!withinView(element)) {
             throw new IllegalArgumentException("Outside view");
         }
+        long prefix = prefixOf(element);
         if (rootNode != null) {  // check if root to be removed
-            if (compare(element, rootNode.element) == 0) {
-                replaceRootNode(makeReplacement(rootNode));
+            int rootComparison = compareToNode(element, prefix, rootNode);
+            if (rootComparison == 0) {
+                removeNode(null, rootNode);
                 removed = true;
             } else {  // Remove node in tree: search for the element o
                 BinaryTreeNode parentNode = rootNode;
                 BinaryTreeNode removalNode;
                 // determine whether to traverse to left or right of root
-                if (compare(element, rootNode.element) < 0) {
+                if (rootComparison < 0) {
                     removalNode = rootNode.leftChild;
                 } else { // compare(element, rootNode.element)>0
                     removalNode = rootNode.rightChild;
                 }
                 while (removalNode != null && !removed) {  // determine whether the removalNode has been found
                     traverseHook(parentNode); //Extension: call traverseHook
-                    int comparison = compare(element, removalNode.element);
+                    int comparison = compareToNode(element, prefix, removalNode);
                     if (comparison == 0) {
-                        replaceRemovalNode(parentNode, removalNode, makeReplacement(removalNode));
+                        removeNode(parentNode, removalNode);
                         removed = true;
                     } else // determine whether to traverse to left or right
                     {
@@ -266,12 +404,22 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
                 }
             }
         }
-        if (removed) {
-            numElements--;
-        }
         return removed;
     }
     
+    /**
+     * Remove a node that has been found in the tree, linking its replacement in its place
+     * @param parentNode parent of the node to remove, or null if the node to remove is the root
+     * @param removalNode the node to remove
+     */
+    protected void removeNode(BinaryTreeNode parentNode, BinaryTreeNode removalNode) {
+        if (parentNode == null) {
+            replaceRootNode(makeReplacement(removalNode));
+        } else {
+            replaceRemovalNode(parentNode, removalNode, makeReplacement(removalNode));
+        }
+    }
+    
     /**
      * When the removal node has two children, create a subtree on the replacement node, containing the removal node's children
      * @param removalNode the node to remove
@@ -284,8 +432,9 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
             replacementNode.leftChild = removalNode.leftChild;
         } else { //Move the right replacement child to the left
             BinaryTreeNode parentNode;
-            do { //find left-most descendant of right subtree of removalNode
+            do { //find left-most descendant of right subtree of removalNode, which loses that descendant
                 parentNode = replacementNode;
+                parentNode.size--;
                 replacementNode = replacementNode.leftChild;
             } while (replacementNode.leftChild != null);
 
@@ -295,6 +444,7 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
             replacementNode.leftChild = removalNode.leftChild;
             replacementNode.rightChild = removalNode.rightChild;
         }
+        replacementNode.size = removalNode.size - 1;
 
         return replacementNode;
     }
@@ -327,16 +477,113 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
         return new BinaryTreeIterator(rootNode);
     }
 
-    // returns the number of elements in the tree
+    // returns the number of elements in the view, using the subtree sizes
+    // so that this is O(log n) for a bounded view and O(1) otherwise
+    // (a view whose exclusive bounds are equal ranks its high bound below its low bound)
     public int size() {
-        return numElements;
+        return Math.max(0, highRank() - lowRank());
     }
 
     // removes all elements from the collection
     public void clear() {
+        checkWritable();
         replaceRootNode(null); // all nodes will be garbage collected as well
     }
 
+    // helper method that returns the number of elements in the full tree (not just
+    // the view) that are less than element
+    private int rankInTree(E element) {
+        return rankInTree(element, false);
+    }
+
+    // helper method that returns the number of elements in the full tree that are less than
+    // element, or no greater than element if inclusive
+    private int rankInTree(E element, boolean inclusive) {
+        int rank = 0;
+        long prefix = prefixOf(element);
+        BinaryTreeNode currentNode = rootNode;
+        while (currentNode != null) {
+            int comparison = compareToNode(element, prefix, currentNode);
+            if (comparison < 0 || (comparison == 0 && !inclusive)) {
+                currentNode = currentNode.leftChild;
+            } else {
+                rank += sizeOf(currentNode.leftChild) + 1;
+                currentNode = currentNode.rightChild;
+            }
+        }
+        return rank;
+    }
+
+    // helper methods that return the rank in the full tree of the first element
+    // of the view, and of the first element beyond the view
+    private int lowRank() {
+        return fromElement == null ? 0 : rankInTree(fromElement, !fromInclusive);
+    }
+
+    private int highRank() {
+        return toElement == null ? sizeOf(rootNode) : rankInTree(toElement, toInclusive);
+    }
+
+    /**
+     * Get the number of elements in the view that are less than the given element, in O(log n)
+     * @param element element to find the rank of
+     * @return the position the element has (or would have) in the view, starting from 0
+     */
+    public int rank(E element) {
+        int lowRank = lowRank();
+        return Math.max(0, Math.min(rankInTree(element), highRank()) - lowRank);
+    }
+
+    /**
+     * Get the element at a position of the view, in O(log n)
+     * @param index position of the element, starting from 0 for the first element
+     * @return the element at that position
+     */
+    public E select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No element at "+index);
+        }
+        index += lowRank();
+        BinaryTreeNode currentNode = rootNode;
+        while (true) {
+            int leftSize = sizeOf(currentNode.leftChild);
+            if (index < leftSize) {
+                currentNode = currentNode.leftChild;
+            } else if (index == leftSize) {
+                return currentNode.element;
+            } else {
+                index -= leftSize + 1;
+                currentNode = currentNode.rightChild;
+            }
+        }
+    }
+
+    /**
+     * Get a spliterator over the elements of the view that splits by rank, halving its range of ranks each time
+     * Splits are balanced whatever the shape of the tree and each takes O(log n), so a parallel stream over a large
+     * version is spread evenly across threads without copying it. The spliterator keeps the root it was created
+     * with, so it is IMMUTABLE over a fixed version
+     * @return spliterator over the view
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        int characteristics = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT
+                | Spliterator.SIZED | Spliterator.SUBSIZED;
+        if (isImmutable()) {
+            characteristics |= Spliterator.IMMUTABLE;
+        }
+        int lowRank = lowRank();
+        return new TreeSpliterator(rootNode, lowRank, Math.max(lowRank, highRank()), characteristics);
+    }
+
+    /**
+     * Check whether the nodes reachable from the root can never change
+     * @return true for a read-only view of a fixed version
+     */
+    protected boolean isImmutable() {
+        return readOnly;
+    }
+
     // overridden method with an efficient O(log n) search algorithm
     // rather than the superclasses O(n) linear search using iterator
     public boolean contains(Object o) {
@@ -345,14 +592,15 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
         if (!withinView(element)) {
             return false;
         }
+        long prefix = prefixOf(element);
         BinaryTreeNode currentNode = rootNode;
         while (!found && currentNode != null) {
-            int comparison = compare(currentNode.element, element);
+            int comparison = compareToNode(element, prefix, currentNode);
             if (comparison == 0) {
                 found = true;
-            } else if (comparison < 0) {
+            } else if (comparison > 0) {
                 currentNode = currentNode.rightChild;
-            } else // comparison>0
+            } else // comparison<0
             {
                 currentNode = currentNode.leftChild;
             }
@@ -366,86 +614,372 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
         return comparator;
     }
 
-    // returns the first (lowest) element currently in sorted set that
-    // is at least as big as fromElement, returns null if none found
+    // returns the first (lowest) element currently in the view,
+    // throws NoSuchElementException if the view is empty
     public E first() {
-        if (rootNode == null) {
-            throw new NoSuchElementException("empty tree");
+        E first = lowestInView();
+        if (first == null) {
+            throw new NoSuchElementException("empty view");
+        }
+        return first;
+    }
+
+    // returns the last (highest) element currently in the view,
+    // throws NoSuchElementException if the view is empty
+    public E last() {
+        E last = highestInView();
+        if (last == null) {
+            throw new NoSuchElementException("empty view");
+        }
+        return last;
+    }
+
+    /**
+     * Get the greatest element of the view that is no greater than an element, in one descent of the tree
+     * @param e element to search for
+     * @return the greatest such element, or null if there is none
+     */
+    public E floor(E e) {
+        return aboveView(e) ? highestInView() : inView(nodeBelow(e, true));
+    }
+
+    /**
+     * Get the greatest element of the view that is less than an element, in one descent of the tree
+     * @param e element to search for
+     * @return the greatest such element, or null if there is none
+     */
+    public E lower(E e) {
+        return aboveView(e) ? highestInView() : inView(nodeBelow(e, false));
+    }
+
+    /**
+     * Get the least element of the view that is no less than an element, in one descent of the tree
+     * @param e element to search for
+     * @return the least such element, or null if there is none
+     */
+    public E ceiling(E e) {
+        return belowView(e) ? lowestInView() : inView(nodeAbove(e, true));
+    }
+
+    /**
+     * Get the least element of the view that is greater than an element, in one descent of the tree
+     * @param e element to search for
+     * @return the least such element, or null if there is none
+     */
+    public E higher(E e) {
+        return belowView(e) ? lowestInView() : inView(nodeAbove(e, false));
+    }
+
+    /**
+     * Remove and return the first element of the view
+     * @return the first element, or null if the view is empty
+     */
+    public E pollFirst() {
+        checkWritable();
+        E first = lowestInView();
+        if (first != null) {
+            remove(first);
         }
-        // find the least descendant of rootNode that is at least
-        // as big as fromElement by traversing down tree from root
+        return first;
+    }
+
+    /**
+     * Remove and return the last element of the view
+     * @return the last element, or null if the view is empty
+     */
+    public E pollLast() {
+        checkWritable();
+        E last = highestInView();
+        if (last != null) {
+            remove(last);
+        }
+        return last;
+    }
+
+    // helper methods that return the first and last elements of the view, or null if it is empty
+    private E lowestInView() {
+        BinaryTreeNode node;
+        if (fromElement == null) {
+            node = rootNode;
+            while (node != null && node.leftChild != null) {
+                node = node.leftChild;
+            }
+        } else {
+            node = nodeAbove(fromElement, fromInclusive);
+        }
+        return node == null || aboveView(node.element) ? null : node.element;
+    }
+
+    private E highestInView() {
+        BinaryTreeNode node;
+        if (toElement == null) {
+            node = rootNode;
+            while (node != null && node.rightChild != null) {
+                node = node.rightChild;
+            }
+        } else {
+            node = nodeBelow(toElement, toInclusive);
+        }
+        return node == null || belowView(node.element) ? null : node.element;
+    }
+
+    // helper method that returns the element of a node found in the full tree if it is in the view, otherwise null
+    private E inView(BinaryTreeNode node) {
+        return node == null || !withinView(node.element) ? null : node.element;
+    }
+
+    // helper method that returns the node of the full tree with the least element that is greater than
+    // element (or equal to it if inclusive), or null if there is none
+    private BinaryTreeNode nodeAbove(E element, boolean inclusive) {
+        long prefix = prefixOf(element);
         BinaryTreeNode currentNode = rootNode;
         BinaryTreeNode leastYetNode = null; // smallest found so far
         while (currentNode != null) {
-            if (compare(currentNode.element, fromElement) >= 0) {
-                if (compare(currentNode.element, toElement) < 0) {
-                    leastYetNode = currentNode;
+            int comparison = compareToNode(element, prefix, currentNode);
+            if (comparison < 0 || (comparison == 0 && inclusive)) {
+                leastYetNode = currentNode;
+                if (comparison == 0) {
+                    break;
                 }
-                // move to the left child to see if a smaller element okay
-                // since all in right subtree will be larger
                 currentNode = currentNode.leftChild;
-            } else // compare(currentNode.element, fromElement)<0
-            {  // move to the right child since this element too small
-                // so all in left subtree will also be too small
+            } else {
                 currentNode = currentNode.rightChild;
             }
         }
-        if (leastYetNode == null) // no satisfactory node found
-        {
-            return null;
-        } else {
-            return leastYetNode.element;
-        }
+        return leastYetNode;
     }
 
-    public SortedSet<E> headSet(E toElement) {
-        return subSet(null, toElement);
-    }
-
-    // returns the last (highest) element currently in sorted set that
-    // is less than toElement, return null if none found
-    public E last() {
-        if (rootNode == null) {
-            throw new NoSuchElementException("empty tree");
-        }
-        // find the greatest descendant of rootNode that is less than
-        // toElement by traversing down tree from root
+    // helper method that returns the node of the full tree with the greatest element that is less than
+    // element (or equal to it if inclusive), or null if there is none
+    private BinaryTreeNode nodeBelow(E element, boolean inclusive) {
+        long prefix = prefixOf(element);
         BinaryTreeNode currentNode = rootNode;
         BinaryTreeNode greatestYetNode = null; // greatest found so far
         while (currentNode != null) {
-            if (compare(currentNode.element, toElement) < 0) {
-                if (compare(currentNode.element, fromElement) >= 0) {
-                    greatestYetNode = currentNode;
+            int comparison = compareToNode(element, prefix, currentNode);
+            if (comparison > 0 || (comparison == 0 && inclusive)) {
+                greatestYetNode = currentNode;
+                if (comparison == 0) {
+                    break;
                 }
-                // move to the right child to see if a greater element okay
-                // since all in left subtree will be smaller
                 currentNode = currentNode.rightChild;
-            } else // compare(currentNode.element, toElement)>=0
-            {  // move to the left child since this element too large
-                // so all in right subtree will also be too large
+            } else {
                 currentNode = currentNode.leftChild;
             }
         }
-        if (greatestYetNode == null) // no satisfactory node found
-        {
-            return null;
-        } else {
-            return greatestYetNode.element;
-        }
+        return greatestYetNode;
+    }
+
+    public SortedSet<E> headSet(E toElement) {
+        return headSet(toElement, false);
     }
 
     public SortedSet<E> subSet(E fromElement, E toElement) {
-        return new BinarySearchTree<E>(rootNode, comparator, fromElement,
-                toElement);
+        return subSet(fromElement, true, toElement, false);
     }
 
     public SortedSet<E> tailSet(E fromElement) {
-        return subSet(fromElement, null);
+        return tailSet(fromElement, true);
+    }
+
+    /**
+     * Get a view of the elements between two bounds
+     * @param fromElement low bound
+     * @param fromInclusive whether the low bound is in the view
+     * @param toElement high bound
+     * @param toInclusive whether the high bound is in the view
+     * @return view sharing the nodes of this tree
+     * @throws NullPointerException if either bound is null
+     * @throws IllegalArgumentException if fromElement is greater than toElement, or either lies outside this view
+     */
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        Objects.requireNonNull(fromElement);
+        Objects.requireNonNull(toElement);
+        return view(fromElement, fromInclusive, toElement, toInclusive);
+    }
+
+    // helper method that makes a view between two bounds, either of which may be null to keep the bound of this view
+    private NavigableSet<E> view(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (fromElement == null) {
+            fromElement = this.fromElement;
+            fromInclusive = this.fromInclusive;
+        } else if (!boundWithinView(fromElement, fromInclusive)) {
+            throw new IllegalArgumentException("fromElement out of range");
+        }
+        if (toElement == null) {
+            toElement = this.toElement;
+            toInclusive = this.toInclusive;
+        } else if (!boundWithinView(toElement, toInclusive)) {
+            throw new IllegalArgumentException("toElement out of range");
+        }
+        if (fromElement != null && toElement != null && compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        return new BinarySearchTree<E>(rootNode, comparator, keyCodec, fromElement, fromInclusive,
+                toElement, toInclusive, readOnly);
+    }
+
+    /**
+     * Get a view of the elements of this view below a bound
+     * @param toElement high bound
+     * @param inclusive whether the high bound is in the view
+     * @return view sharing the nodes of this tree
+     * @throws NullPointerException if the bound is null
+     */
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return view(null, false, Objects.requireNonNull(toElement), inclusive);
+    }
+
+    /**
+     * Get a view of the elements of this view above a bound
+     * @param fromElement low bound
+     * @param inclusive whether the low bound is in the view
+     * @return view sharing the nodes of this tree
+     * @throws NullPointerException if the bound is null
+     */
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return view(Objects.requireNonNull(fromElement), inclusive, null, false);
+    }
+
+    /**
+     * Get a view of the elements of this view in descending order
+     * @return descending view sharing the nodes of this tree
+     */
+    public NavigableSet<E> descendingSet() {
+        return new DescendingSet();
+    }
+
+    /**
+     * Get an iterator over the elements of the view in descending order
+     * @return descending iterator
+     */
+    public Iterator<E> descendingIterator() {
+        return new BinaryTreeIterator(rootNode, true);
     }
 
     // outputs the elements stored in the full binary tree (not just the view) using inorder traversal
     public String toString() {
-        return rootNode.toString(0);
+        return rootNode == null ? "" : rootNode.toString(0);
+    }
+
+    /**
+     * Write the full tree (not just the view) to out in the format of toString, without building it in memory
+     * @param out destination of the tree, such as a Writer or System.out
+     * @throws IOException if out cannot be written
+     */
+    public void render(Appendable out) throws IOException {
+        if (rootNode != null) {
+            rootNode.render(out, 0);
+        }
+    }
+
+    /**
+     * Replace the contents of the tree with elements that are already in strictly ascending order
+     * A perfectly balanced tree is built bottom-up in O(n) and becomes the root in one step,
+     * so a persistent set records it as a single version
+     * @param sortedElements iterator over the elements in ascending order
+     * @param count number of elements the iterator returns
+     */
+    public void loadSorted(Iterator<? extends E> sortedElements, int count) {
+        checkWritable();
+        int deepestLevel = 31 - Integer.numberOfLeadingZeros(count); // depth of the deepest nodes
+        boolean perfect = Integer.bitCount(count+1) == 1; // whether the deepest level is full
+        BulkBuilder builder = new BulkBuilder(sortedElements, perfect ? -1 : deepestLevel);
+        replaceRootNode(builder.build(count, 0));
+    }
+
+    /**
+     * Replace the contents of the tree with the elements of a collection that are already in strictly ascending order
+     * @param sortedElements collection whose iterator returns the elements in ascending order
+     */
+    public void loadSorted(Collection<? extends E> sortedElements) {
+        loadSorted(sortedElements.iterator(), sortedElements.size());
+    }
+
+    /**
+     * Replace the contents of the tree with the elements of an array that are already in strictly ascending order
+     * @param sortedElements array of the elements in ascending order
+     */
+    public void loadSorted(E[] sortedElements) {
+        loadSorted(Arrays.asList(sortedElements));
+    }
+
+    /**
+     * Replace the contents of the tree with the elements of any collection
+     * A sorted set with the same ordering is loaded directly, otherwise the elements are sorted and duplicates dropped first
+     * @param c collection of elements
+     */
+    protected void load(Collection<? extends E> c) {
+        if (c instanceof SortedSet && Objects.equals(((SortedSet<?>) c).comparator(), comparator)) {
+            loadSorted(c);
+        } else {
+            E[] elements = (E[]) c.toArray(); //unchecked
+            Arrays.sort(elements, this::compare);
+            int count = 0;
+            for (E element : elements) {
+                if (count == 0 || compare(elements[count-1], element) != 0) {
+                    elements[count++] = element;
+                }
+            }
+            loadSorted(Arrays.asList(elements).subList(0, count));
+        }
+    }
+
+    /**
+     * Make a node for a tree that is being built by loadSorted
+     * Subclasses can override this to set up extra node state that depends on the node's place in the tree
+     * @param element element of the node
+     * @param bottomLevel whether the node is on the deepest level of a tree whose deepest level is not full
+     * @return new node
+     */
+    protected BinaryTreeNode makeBulkNode(E element, boolean bottomLevel) {
+        return makeNode(element);
+    }
+
+    // inner class that builds a balanced tree from the elements of an iterator,
+    // taking them in order so that each node's left subtree is built before the node itself
+    private class BulkBuilder {
+        private Iterator<? extends E> elements;
+        private int bottomLevel; // depth of the incomplete deepest level, -1 if the tree is perfect
+        private E previous;
+
+        public BulkBuilder(Iterator<? extends E> elements, int bottomLevel) {
+            this.elements = elements;
+            this.bottomLevel = bottomLevel;
+            this.previous = null;
+        }
+
+        // recursive helper method that builds a subtree of count nodes whose root is at the given depth
+        // splitting the nodes evenly keeps every empty child within one level of the others
+        public BinaryTreeNode build(int count, int depth) {
+            if (count == 0) {
+                return null;
+            }
+            int leftCount = (count-1)/2;
+            BinaryTreeNode leftChild = build(leftCount, depth+1);
+            E element = next();
+            BinaryTreeNode node = makeBulkNode(element, depth == bottomLevel);
+            node.leftChild = leftChild;
+            node.rightChild = build(count-1-leftCount, depth+1);
+            node.size = count;
+            return node;
+        }
+
+        // returns the next element, checking that it is in ascending order and within the view
+        private E next() {
+            if (!elements.hasNext()) {
+                throw new IllegalArgumentException("Fewer elements than expected");
+            }
+            E element = elements.next();
+            if (previous != null && compare(previous, element) >= 0) {
+                throw new IllegalArgumentException("Elements are not in ascending order");
+            }
+            if (!withinView(element)) {
+                throw new IllegalArgumentException("Outside view");
+            }
+            previous = element;
+            return element;
+        }
     }
 
     /**
@@ -466,18 +1000,34 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
      * Additions:
      * - Clone method 
      * - Versioning implemented (not used in base BST, but used in subclasses)
-     * - toString overriden to print the tree more clearly
+     * - Subtree size, so that ranks and sizes of views are found in O(log n)
+     * - Batch marker (not used in base BST, but used in subclasses)
+     * - toString overriden to print the tree more clearly, streamed by render
      */
     public class BinaryTreeNode {
         public BinaryTreeNode leftChild, rightChild;
         public E element;
         public int version;
+        public long prefix; // key prefix of the element, 0 if the tree has no key codec
+        public int size; // number of nodes in the subtree rooted at this node
+        public Object batch; // batch of changes that created this node, used by persistent subclasses
 
         public BinaryTreeNode(E element) {
+            this(element, prefixOf(element));
+        }
+
+        /**
+         * Construct a node whose key prefix is already known, such as a copy of another node
+         * @param element element of the node
+         * @param prefix key prefix of the element
+         */
+        public BinaryTreeNode(E element, long prefix) {
             this.element = element;
+            this.prefix = prefix;
             leftChild = null;
             rightChild = null;
             version = 1;
+            size = 1;
         }
         
         /**
@@ -485,10 +1035,11 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
          * @return clone of this node
          */
         public BinaryTreeNode clone() {
-            BinaryTreeNode newNode = new BinaryTreeNode(element);
+            BinaryTreeNode newNode = new BinaryTreeNode(element, prefix); //the prefix is copied rather than encoded again
             newNode.leftChild = leftChild;
             newNode.rightChild = rightChild;
             newNode.version = version+1;
+            newNode.size = size;
             return newNode;
         }
         
@@ -499,52 +1050,315 @@ public class BinarySearchTree<E> extends AbstractSet<E> implements SortedSet<E>
          * @return the tree in text form
          */
         public String toString(int level) {
-            String tree = "";
-            for (int i = 0; i < level; i++) {
-                tree += "     ";
+            StringBuilder tree = new StringBuilder();
+            try {
+                render(tree, level);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); //never thrown by a StringBuilder
+            }
+            return tree.toString();
+        }
+
+        /**
+         * Write the visualization of toString(int) to out as it is produced, in time proportional to its length
+         * An explicit stack replaces the recursion, so a degenerate tree cannot overflow the call stack
+         * @param out destination of the tree
+         * @param level level of the tree
+         * @throws IOException if out cannot be written
+         */
+        public void render(Appendable out, int level) throws IOException {
+            BinaryTreeNode[] nodes = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[16]; //unchecked
+            int[] levels = new int[16]; // level of each node on the stack
+            String[] sides = new String[16]; // prefix of each node on the stack, showing which child it is
+            int top = 0;
+            nodes[top] = this;
+            levels[top] = level;
+            sides[top++] = "";
+            while (top > 0) {
+                BinaryTreeNode node = nodes[--top];
+                nodes[top] = null;
+                int nodeLevel = levels[top];
+                out.append(sides[top]);
+                for (int i = 0; i < nodeLevel; i++) {
+                    out.append("     ");
+                }
+                out.append(node.label()).append('\n');
+                if (top+2 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length*2);
+                    levels = Arrays.copyOf(levels, levels.length*2);
+                    sides = Arrays.copyOf(sides, sides.length*2);
+                }
+                if (node.rightChild != null) { // pushed first so that the left subtree is written first
+                    nodes[top] = node.rightChild;
+                    levels[top] = nodeLevel+1;
+                    sides[top++] = "R: ";
+                }
+                if (node.leftChild != null) {
+                    nodes[top] = node.leftChild;
+                    levels[top] = nodeLevel+1;
+                    sides[top++] = "L: ";
+                }
+            }
+        }
+
+        /**
+         * Return the text that shows this node in a visualization of the tree
+         * @return the element and version of the node
+         */
+        public String label() {
+            return element+" (v"+version+")";
+        }
+    }
+
+    // inner class that represents a Spliterator over the elements of a tree with ranks from low (inclusive) to
+    // high (exclusive), which hands the lower half of its ranks to the spliterator returned by trySplit
+    private class TreeSpliterator implements Spliterator<E> {
+        private final BinaryTreeNode rootNode;
+        private int low, high;
+        private final int characteristics;
+        private BinaryTreeIterator iterator; // created on the first traversal, after which the spliterator no longer splits
+
+        public TreeSpliterator(BinaryTreeNode rootNode, int low, int high, int characteristics) {
+            this.rootNode = rootNode;
+            this.low = low;
+            this.high = high;
+            this.characteristics = characteristics;
+        }
+
+        public Spliterator<E> trySplit() {
+            if (iterator != null || high-low < 2) {
+                return null;
+            }
+            int middle = (low+high) >>> 1;
+            TreeSpliterator prefix = new TreeSpliterator(rootNode, low, middle, characteristics);
+            low = middle;
+            return prefix;
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (low >= high) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = new BinaryTreeIterator(rootNode, low);
+            }
+            low++;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super E> action) {
+            if (low >= high) {
+                return;
             }
-            tree += element+" (v"+version+")\n";
-            if (leftChild != null) {
-                tree += "L: "+leftChild.toString(level+1);
-            }   
-            if (rightChild != null) {
-                tree += "R: "+rightChild.toString(level+1);
+            if (iterator == null) {
+                iterator = new BinaryTreeIterator(rootNode, low);
             }
-                
-            level--;
-            return tree;
+            int remaining = high-low;
+            low = high;
+            for (int i = 0; i < remaining; i++) {
+                action.accept(iterator.next());
+            }
+        }
+
+        public long estimateSize() {
+            return high-low;
+        }
+
+        public int characteristics() {
+            return characteristics;
+        }
+
+        public Comparator<? super E> getComparator() {
+            return comparator;
+        }
+    }
+
+    /**
+     * View of the tree's view in descending order, which passes each operation on to the tree with
+     * its bounds and directions swapped
+     */
+    private class DescendingSet extends AbstractSet<E> implements NavigableSet<E> {
+
+        public Comparator<? super E> comparator() {
+            return Collections.reverseOrder(ordering);
+        }
+
+        public int size() {
+            return BinarySearchTree.this.size();
+        }
+
+        public boolean contains(Object o) {
+            return BinarySearchTree.this.contains(o);
+        }
+
+        public boolean add(E o) {
+            return BinarySearchTree.this.add(o);
+        }
+
+        public boolean remove(Object o) {
+            return BinarySearchTree.this.remove(o);
+        }
+
+        public void clear() {
+            BinarySearchTree.this.clear();
+        }
+
+        public Iterator<E> iterator() {
+            return BinarySearchTree.this.descendingIterator();
+        }
+
+        public Iterator<E> descendingIterator() {
+            return BinarySearchTree.this.iterator();
+        }
+
+        public NavigableSet<E> descendingSet() {
+            return BinarySearchTree.this;
+        }
+
+        public E first() {
+            return BinarySearchTree.this.last();
+        }
+
+        public E last() {
+            return BinarySearchTree.this.first();
+        }
+
+        public E floor(E e) {
+            return BinarySearchTree.this.ceiling(e);
+        }
+
+        public E lower(E e) {
+            return BinarySearchTree.this.higher(e);
+        }
+
+        public E ceiling(E e) {
+            return BinarySearchTree.this.floor(e);
+        }
+
+        public E higher(E e) {
+            return BinarySearchTree.this.lower(e);
+        }
+
+        public E pollFirst() {
+            return BinarySearchTree.this.pollLast();
+        }
+
+        public E pollLast() {
+            return BinarySearchTree.this.pollFirst();
+        }
+
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            return BinarySearchTree.this.subSet(toElement, toInclusive, fromElement, fromInclusive).descendingSet();
+        }
+
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return BinarySearchTree.this.tailSet(toElement, inclusive).descendingSet();
+        }
+
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return BinarySearchTree.this.headSet(fromElement, inclusive).descendingSet();
+        }
+
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
         }
     }
 
     // inner class that represents an Iterator for a binary tree
+    // The nodes still to be visited are kept on an explicit stack, so each element is found
+    // lazily, subtrees outside the view are never entered, and nothing is allocated per element
     private class BinaryTreeIterator implements Iterator<E> {
-        private LinkedList<E> list;
-        private Iterator<E> iterator;
-
-        public BinaryTreeIterator(BinaryTreeNode rootNode) {  // puts the elements in a linked list using inorder traversal
-            list = new LinkedList<E>();
-            traverseInOrder(rootNode);
-            iterator = list.iterator();
-        }
-
-        // recursive helper method that traverses the subtree from node
-        // adding the elements to the list collection
-        private void traverseInOrder(BinaryTreeNode node) {
-            if (node != null) {
-                traverseInOrder(node.leftChild);
-                if (withinView(node.element)) {
-                    list.add(node.element);
+        private BinaryTreeNode[] stack; // nodes whose element and right subtree are still to be visited
+        private int top; // number of nodes on the stack
+        private BinaryTreeNode nextNode; // node holding the next element, null when finished
+        private final boolean descending; // whether the view is walked from its last element to its first
+
+        public BinaryTreeIterator(BinaryTreeNode rootNode) {  // seeks directly to the first element of the view
+            this(rootNode, false);
+        }
+
+        public BinaryTreeIterator(BinaryTreeNode rootNode, boolean descending) {  // seeks directly to the first or last element of the view
+            this.descending = descending;
+            stack = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[16]; //unchecked
+            top = 0;
+            pushLeft(rootNode, descending ? toElement != null : fromElement != null);
+            nextNode = advance();
+        }
+
+        public BinaryTreeIterator(BinaryTreeNode rootNode, int rank) {  // seeks to the element with a rank in the whole tree
+            descending = false;
+            stack = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[16]; //unchecked
+            top = 0;
+            BinaryTreeNode node = rootNode;
+            while (node != null) {  // push the nodes on the path whose element is not before the rank
+                int leftSize = sizeOf(node.leftChild);
+                if (rank <= leftSize) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top*2);
+                    }
+                    stack[top++] = node;
+                    node = rank == leftSize ? null : node.leftChild;
+                } else {
+                    rank -= leftSize + 1;
+                    node = node.rightChild;
                 }
-                traverseInOrder(node.rightChild);
             }
+            nextNode = advance();
+        }
+
+        // pushes node and its chain of left descendants onto the stack (right descendants when descending)
+        // when seeking, nodes before the start of the view are skipped along with their subtree on that side
+        private void pushLeft(BinaryTreeNode node, boolean seeking) {
+            while (node != null) {
+                if (seeking && (descending ? aboveView(node.element) : belowView(node.element))) {
+                    node = descending ? node.leftChild : node.rightChild;
+                } else {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top*2);
+                    }
+                    stack[top++] = node;
+                    node = descending ? node.rightChild : node.leftChild;
+                }
+            }
+        }
+
+        // pops the node holding the next element, returning null once the view is exhausted
+        private BinaryTreeNode advance() {
+            if (top == 0) {
+                return null;
+            }
+            BinaryTreeNode node = stack[--top];
+            stack[top] = null;
+            if (descending ? belowView(node.element) : aboveView(node.element)) {
+                // every remaining node is past the end of the view
+                Arrays.fill(stack, 0, top, null);
+                top = 0;
+                return null;
+            }
+            pushLeft(descending ? node.leftChild : node.rightChild, false);
+            return node;
         }
 
         public boolean hasNext() {
-            return iterator.hasNext();
+            return nextNode != null;
         }
 
         public E next() {
-            return iterator.next();
+            if (nextNode == null) {
+                throw new NoSuchElementException();
+            }
+            E element = nextNode.element;
+            nextNode = advance();
+            return element;
         }
 
         public void remove() {
@@ -0,0 +1,230 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A persistent dynamic set that any number of threads can change at the same time
+ * Each writer path-copies against a snapshot of the current root using its own persistent dynamic set (so the
+ * traversal stack and other scratch state are per thread), then installs the new root with compare-and-set.
+ * If another writer installed a root first, the change is retried against the new snapshot.
+ * Reads are answered by an immutable snapshot of the current root, without locking
+ * @author Tamati Rudd 18045626
+ * @param <E> 
+ */
+public class ConcurrentPersistentDynamicSet<E> extends AbstractSet<E> implements SortedSet<E> {
+    private final AtomicReference<Head> head;
+    private final ThreadLocal<PersistentDynamicSet<E>> writers;
+    private final Comparator<? super E> comparator;
+    private final KeyCodec<? super E> keyCodec; //codec of the writers' nodes, null if they cache no prefixes
+    private final LongAdder operations; //changes attempted
+    private final LongAdder retries; //compare-and-set failures
+
+    /**
+     * Construct a concurrent set whose writers use balanced persistent dynamic sets
+     */
+    public ConcurrentPersistentDynamicSet() {
+        this(BalancedPersistentDynamicSet::new);
+    }
+    
+    /**
+     * Construct a concurrent set whose writers use sets made by a factory
+     * Every set made by the factory must be empty and use the same ordering and key codec
+     * @param writerFactory makes the persistent dynamic set used by each writer thread
+     */
+    public ConcurrentPersistentDynamicSet(Supplier<? extends PersistentDynamicSet<E>> writerFactory) {
+        PersistentDynamicSet<E> firstWriter = writerFactory.get();
+        this.comparator = firstWriter.comparator();
+        this.keyCodec = firstWriter.keyCodec();
+        this.head = new AtomicReference<>(new Head(0, null));
+        this.writers = ThreadLocal.withInitial(writerFactory);
+        this.operations = new LongAdder();
+        this.retries = new LongAdder();
+    }
+    
+    /**
+     * Kinds of change a writer can make
+     */
+    private enum Change {
+        ADD,
+        REMOVE,
+        CLEAR
+    }
+    
+    /**
+     * Make a change against the current root, retrying until the new root is installed
+     * The writer's batch marks the nodes it creates, and is rolled back afterwards so that its set keeps no history
+     * @param change kind of change
+     * @param element element to add or remove
+     * @return whether the set was changed
+     */
+    private boolean change(Change change, Object element) {
+        PersistentDynamicSet<E> writer = writers.get();
+        operations.increment();
+        while (true) {
+            Head snapshot = head.get();
+            BinarySearchTree<E>.BinaryTreeNode newRoot;
+            writer.beginBatch();
+            try {
+                writer.rootNode = snapshot.root;
+                boolean changed;
+                if (change == Change.ADD) {
+                    changed = writer.add((E) element); //unchecked
+                } else if (change == Change.REMOVE) {
+                    changed = writer.remove(element);
+                } else {
+                    writer.clear();
+                    changed = snapshot.root != null;
+                }
+                if (!changed) {
+                    return false;
+                }
+                newRoot = writer.rootNode;
+            } finally {
+                writer.rollback();
+            }
+            if (head.compareAndSet(snapshot, new Head(snapshot.number+1, newRoot))) {
+                return true;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Add an element, retrying if another writer changes the set first
+     * @param o element to add
+     * @return whether the element was added
+     */
+    @Override
+    public boolean add(E o) {
+        return change(Change.ADD, o);
+    }
+
+    /**
+     * Remove an element, retrying if another writer changes the set first
+     * @param o element to remove
+     * @return whether the element was removed
+     */
+    @Override
+    public boolean remove(Object o) {
+        return change(Change.REMOVE, o);
+    }
+
+    @Override
+    public void clear() {
+        change(Change.CLEAR, null);
+    }
+    
+    /**
+     * Get an immutable view of the current version
+     * @return read-only navigable set containing the elements of the current version
+     */
+    public NavigableSet<E> snapshot() {
+        return new BinarySearchTree<E>(head.get().root, comparator, keyCodec);
+    }
+    
+    /**
+     * Get the number of the current version, which counts the changes installed so far
+     * @return current version number
+     */
+    public int currentVersion() {
+        return head.get().number;
+    }
+    
+    /**
+     * Get the number of changes attempted since the metrics were reset
+     * @return number of changes attempted
+     */
+    public long operationCount() {
+        return operations.sum();
+    }
+    
+    /**
+     * Get the number of times a writer had to retry because another writer installed a root first
+     * @return number of retries
+     */
+    public long retryCount() {
+        return retries.sum();
+    }
+    
+    /**
+     * Get the average number of retries per change since the metrics were reset
+     * @return retries per change
+     */
+    public double retriesPerOperation() {
+        long operationCount = operations.sum();
+        return operationCount == 0 ? 0 : (double) retries.sum()/operationCount;
+    }
+    
+    /**
+     * Reset the contention metrics
+     */
+    public void resetContentionMetrics() {
+        operations.reset();
+        retries.reset();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return snapshot().contains(o);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public int size() {
+        return snapshot().size();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return snapshot().subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return snapshot().headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return snapshot().tailSet(fromElement);
+    }
+
+    @Override
+    public E first() {
+        return snapshot().first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot().last();
+    }
+    
+    /**
+     * The installed root and the number of its version, swapped as one by compare-and-set
+     */
+    private class Head {
+        private final int number;
+        private final BinarySearchTree<E>.BinaryTreeNode root;
+
+        public Head(int number, BinarySearchTree<E>.BinaryTreeNode root) {
+            this.number = number;
+            this.root = root;
+        }
+    }
+}
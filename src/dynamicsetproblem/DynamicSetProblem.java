@@ -1,6 +1,6 @@
 package dynamicsetproblem;
 
-import dynamicsetproblem.BinarySearchTree.BinaryTreeNode;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.SortedSet;
@@ -13,7 +13,7 @@ public class DynamicSetProblem {
     /**
      * @param args the command line arguments
      */
-    public static void main(String[] args) {  
+    public static void main(String[] args) throws IOException {  
         //Create a tree for testing. Comment in the tree type that is to be tested
 //        BinarySearchTree<String> tree = new BinarySearchTree<String>();
 //        PersistentDynamicSet<String> tree = new PersistentDynamicSet<String>();
@@ -31,12 +31,12 @@ public class DynamicSetProblem {
         tree.add("dog");
         tree.remove("fox");
         
-        //Print the tree information
-        for (BinaryTreeNode oldTree : tree.previousVersions) {
-            System.out.println("Old Tree Version: \n"+oldTree.toString(0));
-        }
-        System.out.println("Current Tree: \n" + tree);
+        //Print the tree information, with every version as one DOT graph so that the nodes they share are shown once
+        System.out.println("Current Tree: ");
+        tree.render(System.out);
         System.out.println("Total Versions: "+(tree.previousVersions.size()+1));
+        System.out.println("All Versions (Graphviz DOT): ");
+        tree.exportDot(0, tree.currentVersion(), System.out);
         
         //Binary Search Tree Stuff (ignore)
 //        SortedSet<String> subtree = tree.subSet("cat", "fox");
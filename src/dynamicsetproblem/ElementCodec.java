@@ -0,0 +1,109 @@
+package dynamicsetproblem;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes elements into fixed-width slots of a byte buffer, so that a snapshot file can be searched in place
+ * Encoding and decoding use absolute positions and must not change the position of the buffer
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public interface ElementCodec<E> {
+
+    /**
+     * Codec for Integer elements, in 4 bytes
+     */
+    ElementCodec<Integer> INTEGER = new ElementCodec<Integer>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void encode(Integer element, ByteBuffer buffer, int offset) {
+            buffer.putInt(offset, element);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+    };
+
+    /**
+     * Codec for Long elements, in 8 bytes
+     */
+    ElementCodec<Long> LONG = new ElementCodec<Long>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long element, ByteBuffer buffer, int offset) {
+            buffer.putLong(offset, element);
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+    };
+
+    /**
+     * Get a codec for String elements of at most maxBytes bytes in UTF-8, stored as a length followed by the bytes
+     * @param maxBytes largest encoded length, at most 65535
+     * @return codec whose slots are maxBytes+2 bytes wide
+     */
+    static ElementCodec<String> utf8(int maxBytes) {
+        if (maxBytes < 0 || maxBytes > 0xFFFF) {
+            throw new IllegalArgumentException("maxBytes must be between 0 and 65535");
+        }
+        return new ElementCodec<String>() {
+            @Override
+            public int width() {
+                return 2+maxBytes;
+            }
+
+            @Override
+            public void encode(String element, ByteBuffer buffer, int offset) {
+                byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("Element is longer than "+maxBytes+" bytes: "+element);
+                }
+                buffer.putShort(offset, (short) bytes.length);
+                buffer.put(offset+2, bytes);
+            }
+
+            @Override
+            public String decode(ByteBuffer buffer, int offset) {
+                byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+                buffer.get(offset+2, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Get the number of bytes in each slot
+     * @return slot width in bytes
+     */
+    int width();
+
+    /**
+     * Write an element into a slot
+     * @param element element to write
+     * @param buffer buffer holding the slot
+     * @param offset position of the slot in the buffer
+     */
+    void encode(E element, ByteBuffer buffer, int offset);
+
+    /**
+     * Read the element in a slot
+     * @param buffer buffer holding the slot
+     * @param offset position of the slot in the buffer
+     * @return element in the slot
+     */
+    E decode(ByteBuffer buffer, int offset);
+}
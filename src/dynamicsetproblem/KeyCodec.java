@@ -0,0 +1,77 @@
+package dynamicsetproblem;
+
+/**
+ * Maps elements to a fixed-width prefix of their ordering, which each tree node caches beside its element
+ * A search compares the prefixes first, as one unsigned long comparison, and only calls the comparator when
+ * the prefixes are equal. For any elements a and b where the set orders a before b, prefix(a) must be no
+ * greater than prefix(b) as unsigned longs
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public interface KeyCodec<E> {
+
+    /**
+     * Codec for Integer elements in natural ordering, whose prefix is the whole element
+     */
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        @Override
+        public long prefix(Integer element) {
+            return element^Long.MIN_VALUE; //flipping the sign bit makes unsigned order match signed order
+        }
+
+        @Override
+        public boolean exact() {
+            return true;
+        }
+    };
+
+    /**
+     * Codec for Long elements in natural ordering, whose prefix is the whole element
+     */
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public long prefix(Long element) {
+            return element^Long.MIN_VALUE;
+        }
+
+        @Override
+        public boolean exact() {
+            return true;
+        }
+    };
+
+    /**
+     * Codec for String elements in natural ordering, whose prefix is the first 8 characters as one byte each
+     * A character above 0xFF ends the prefix, padded with 0xFF so that it sorts after every Latin-1 character
+     */
+    KeyCodec<String> STRING = new KeyCodec<String>() {
+        @Override
+        public long prefix(String element) {
+            long prefix = 0;
+            int length = Math.min(element.length(), 8);
+            for (int i = 0; i < length; i++) {
+                char c = element.charAt(i);
+                if (c > 0xFF) {
+                    return prefix<<(8*(8-i)) | (-1L>>>(8*i));
+                }
+                prefix = prefix<<8 | c;
+            }
+            return prefix<<(8*(8-length)); //shorter strings are padded with zeros, so they sort first
+        }
+    };
+
+    /**
+     * Get the prefix of an element
+     * @param element element, not null
+     * @return prefix, compared as an unsigned long
+     */
+    long prefix(E element);
+
+    /**
+     * Whether elements with equal prefixes are always equal, so the comparator never needs to be called
+     * @return true if the prefix holds the whole ordering of an element
+     */
+    default boolean exact() {
+        return false;
+    }
+}
@@ -0,0 +1,223 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A read-only sorted set backed by a memory-mapped snapshot file (see SnapshotFile)
+ * Searches run directly against the mapped slots, decoding only the slots they visit. To make the snapshot
+ * writable again, pass it to a persistent dynamic set constructor, which bulk loads it in O(n)
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public class MappedSnapshotSet<E> extends AbstractSet<E> implements SortedSet<E> {
+    private final SnapshotFile.Slots slots;
+    private final ElementCodec<E> codec;
+    private final Comparator<? super E> comparator;
+    private final Comparator<? super E> ordering; //comparator resolved once, so that compare makes no checks
+    private final int sourceVersion;
+    private final E fromElement, toElement; //bounds of the view (null for unbounded)
+
+    MappedSnapshotSet(SnapshotFile.Slots slots, ElementCodec<E> codec, Comparator<? super E> comparator, int sourceVersion) {
+        this(slots, codec, comparator, sourceVersion, null, null);
+    }
+
+    private MappedSnapshotSet(SnapshotFile.Slots slots, ElementCodec<E> codec, Comparator<? super E> comparator,
+            int sourceVersion, E fromElement, E toElement) {
+        this.slots = slots;
+        this.codec = codec;
+        this.comparator = comparator;
+        this.ordering = comparator != null ? comparator : BinarySearchTree::compareNatural;
+        this.sourceVersion = sourceVersion;
+        this.fromElement = fromElement;
+        this.toElement = toElement;
+    }
+
+    /**
+     * Get the number of the version that was written to the snapshot file
+     * @return version number, or -1 if the file was written from a set without versions
+     */
+    public int sourceVersion() {
+        return sourceVersion;
+    }
+
+    // helper method that compares two elements using the comparator or natural ordering
+    // the choice is made once when the set is constructed, so this is a single call
+    private int compare(E element1, E element2) {
+        return ordering.compare(element1, element2);
+    }
+
+    private E element(long slot) {
+        return codec.decode(slots.buffer(slot), slots.offset(slot));
+    }
+
+    private boolean inRange(E element) {
+        return (fromElement == null || compare(element, fromElement) >= 0)
+                && (toElement == null || compare(element, toElement) < 0);
+    }
+
+    // helper method that returns the slot of the smallest element not less than element, or 0 if there is none
+    private long lowerBound(E element) {
+        long slot = 1;
+        while (slot <= slots.count) {
+            slot = 2*slot+(compare(element(slot), element) < 0 ? 1 : 0);
+        }
+        //the path went left at the answer and right ever since, so strip the trailing right turns and that left turn
+        return slot>>>(Long.numberOfTrailingZeros(~slot)+1);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        E element = (E) o; //unchecked
+        if (o == null || !inRange(element)) {
+            return false;
+        }
+        long slot = 1;
+        while (slot <= slots.count) {
+            int comparison = compare(element, element(slot));
+            if (comparison == 0) {
+                return true;
+            }
+            slot = 2*slot+(comparison > 0 ? 1 : 0);
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of elements in the view
+     * This is constant time for the whole snapshot, and counts the elements of a bounded view
+     * @return number of elements
+     */
+    @Override
+    public int size() {
+        if (fromElement == null && toElement == null) {
+            return (int) Math.min(slots.count, Integer.MAX_VALUE);
+        }
+        int count = 0;
+        for (Iterator<E> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private long slot = firstSlot();
+
+            @Override
+            public boolean hasNext() {
+                return slot != 0;
+            }
+
+            @Override
+            public E next() {
+                if (slot == 0) {
+                    throw new NoSuchElementException();
+                }
+                E element = element(slot);
+                slot = SnapshotFile.successor(slot, slots.count);
+                if (slot != 0 && toElement != null && compare(element(slot), toElement) >= 0) {
+                    slot = 0;
+                }
+                return element;
+            }
+        };
+    }
+
+    // helper method that returns the slot of the first element in the view, or 0 if the view is empty
+    private long firstSlot() {
+        long slot;
+        if (fromElement != null) {
+            slot = lowerBound(fromElement);
+        } else {
+            slot = slots.count == 0 ? 0 : 1;
+            while (slot != 0 && 2*slot <= slots.count) {
+                slot = 2*slot;
+            }
+        }
+        if (slot != 0 && toElement != null && compare(element(slot), toElement) >= 0) {
+            return 0;
+        }
+        return slot;
+    }
+
+    // helper method that returns the slot of the last element in the view, or 0 if the view is empty
+    private long lastSlot() {
+        long slot;
+        if (toElement != null) {
+            slot = lowerBound(toElement);
+            slot = slot == 0 ? lastSlotOfFile() : SnapshotFile.predecessor(slot, slots.count);
+        } else {
+            slot = lastSlotOfFile();
+        }
+        if (slot != 0 && fromElement != null && compare(element(slot), fromElement) < 0) {
+            return 0;
+        }
+        return slot;
+    }
+
+    private long lastSlotOfFile() {
+        long slot = slots.count == 0 ? 0 : 1;
+        while (slot != 0 && 2*slot+1 <= slots.count) {
+            slot = 2*slot+1;
+        }
+        return slot;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return new MappedSnapshotSet<>(slots, codec, comparator, sourceVersion, fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return subSet(fromElement, toElement);
+    }
+
+    @Override
+    public E first() {
+        long slot = firstSlot();
+        if (slot == 0) {
+            throw new NoSuchElementException();
+        }
+        return element(slot);
+    }
+
+    @Override
+    public E last() {
+        long slot = lastSlot();
+        if (slot == 0) {
+            throw new NoSuchElementException();
+        }
+        return element(slot);
+    }
+
+    @Override
+    public boolean add(E o) {
+        throw new UnsupportedOperationException("Read-only view");
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Read-only view");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Read-only view");
+    }
+}
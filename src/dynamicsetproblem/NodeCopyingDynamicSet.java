@@ -0,0 +1,532 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A persistent dynamic set using the node-copying method of Driscoll, Sarnak, Sleator and Tarjan
+ * ("Making data structures persistent", 1989) instead of path copying
+ *
+ * Each node has one modification slot as well as its left and right child. A change to a child is recorded in
+ * the slot, stamped with the version that made it, and readers of earlier versions ignore it. Only when the slot
+ * is already used is the node copied, and then the parent is changed the same way (through a back pointer that
+ * is kept for the latest version only). As each node has one parent, an update costs O(1) amortized new nodes
+ * and modifications rather than a copy of the whole path, while every version stays queryable.
+ *
+ * Like PersistentDynamicSet the tree is not balanced, so an update takes time proportional to the depth of the
+ * tree. There is a single writer thread; views of committed versions may be read from other threads
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public class NodeCopyingDynamicSet<E> extends AbstractSet<E> implements VersionedSortedSet<E> {
+    private static final int NO_MODIFICATION = -1;
+
+    private final Comparator<? super E> comparator;
+    private final Comparator<? super E> ordering; //comparator resolved once, so that compare makes no checks
+    private final ArrayList<Version> previousVersions;
+    private volatile Version current; //the last committed version, published for reader threads
+    private Node root; //root of the version being built
+    private int building; //number of the version being built
+    private int nodeCount; //nodes created, including copies
+
+    /**
+     * Construct a node-copying persistent dynamic set
+     */
+    public NodeCopyingDynamicSet() {
+        this(null);
+    }
+
+    /**
+     * Construct a node-copying persistent dynamic set ordered by a comparator
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public NodeCopyingDynamicSet(Comparator<? super E> comparator) {
+        this.comparator = comparator;
+        this.ordering = comparator != null ? comparator : BinarySearchTree::compareNatural;
+        this.previousVersions = new ArrayList<>();
+        this.current = new Version(0, null, 0);
+    }
+
+    @Override
+    public int versionCount() {
+        return previousVersions.size()+1;
+    }
+
+    @Override
+    public int currentVersion() {
+        return current.number;
+    }
+
+    @Override
+    public SortedSet<E> version(int number) {
+        Version version = current;
+        if (number != version.number) {
+            if (number < 0 || number > version.number) {
+                throw new IndexOutOfBoundsException("No version "+number);
+            }
+            version = previousVersions.get(number); //version numbers are list indexes as no version is discarded
+        }
+        return new VersionView(version, null, null);
+    }
+
+    @Override
+    public SortedSet<E> snapshot() {
+        return new VersionView(current, null, null);
+    }
+
+    /**
+     * Get the number of nodes created across all versions, including copies made when a modification slot was full
+     * @return number of nodes
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    // helper method that starts building the version after the current one
+    private void beginChange() {
+        Version version = current;
+        root = version.root;
+        building = version.number+1;
+    }
+
+    // helper method that records the current version and publishes the one that was built
+    private void commit(int size) {
+        previousVersions.add(current); //kept even if empty, so that a number always refers to the same contents
+        current = new Version(building, root, size);
+        root = null;
+    }
+
+    @Override
+    public boolean add(E o) {
+        beginChange();
+        Node parent = null;
+        Node node = root;
+        boolean left = false;
+        while (node != null) {
+            int comparison = compare(o, node.element);
+            if (comparison == 0) {
+                return false;
+            }
+            parent = node;
+            left = comparison < 0;
+            node = latestChild(node, left);
+        }
+        Node leaf = new Node(o, building);
+        nodeCount++;
+        if (parent == null) {
+            root = leaf;
+        } else {
+            leaf.parent = setChild(parent, left, leaf);
+        }
+        commit(current.size+1);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        E element = (E) o; //unchecked
+        if (o == null) {
+            return false;
+        }
+        beginChange();
+        Node node = root;
+        while (node != null) {
+            int comparison = compare(element, node.element);
+            if (comparison == 0) {
+                break;
+            }
+            node = latestChild(node, comparison < 0);
+        }
+        if (node == null) {
+            return false;
+        }
+        Node leftChild = latestChild(node, true);
+        Node rightChild = latestChild(node, false);
+        if (leftChild == null || rightChild == null) {
+            replaceInParent(node, leftChild != null ? leftChild : rightChild);
+        } else {
+            Node successor = rightChild;
+            while (latestChild(successor, true) != null) {
+                successor = latestChild(successor, true);
+            }
+            if (successor != rightChild) {
+                //splice the successor out, then give it the right subtree of the removed node
+                Node successorParent = successor.parent;
+                Node successorRight = latestChild(successor, false);
+                successorParent = setChild(successorParent, true, successorRight);
+                if (successorRight != null) {
+                    successorRight.parent = successorParent;
+                }
+                successor.parent = null; //detached, so copying it changes no parent
+                successor = setChild(successor, false, live(rightChild));
+                live(rightChild).parent = successor;
+            }
+            successor = setChild(successor, true, live(leftChild));
+            live(leftChild).parent = successor;
+            replaceInParent(live(node), successor);
+        }
+        commit(current.size-1);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (current.root != null) {
+            beginChange();
+            root = null;
+            commit(0);
+        }
+    }
+
+    // helper method that puts a replacement (possibly null) in place of a node in the version being built
+    private void replaceInParent(Node node, Node replacement) {
+        if (node == root) {
+            root = replacement;
+            if (replacement != null) {
+                replacement.parent = null;
+            }
+        } else {
+            Node parent = node.parent;
+            parent = setChild(parent, latestChild(parent, true) == node, replacement);
+            if (replacement != null) {
+                replacement.parent = parent;
+            }
+        }
+    }
+
+    // helper method that follows the copies of a node to the copy in the version being built
+    private Node live(Node node) {
+        while (node.copy != null) {
+            node = node.copy;
+        }
+        return node;
+    }
+
+    // helper method that returns the latest child of a node
+    private Node latestChild(Node node, boolean left) {
+        if (node.modificationVersion != NO_MODIFICATION && node.modificationLeft == left) {
+            return node.modification;
+        }
+        return left ? node.leftChild : node.rightChild;
+    }
+
+    /**
+     * Set a child of a node in the version being built
+     * A node created by this version is changed directly. Otherwise the change goes in the modification slot, or
+     * if the slot is used the node is copied and its parent is changed to point to the copy
+     * @param node live node to change
+     * @param left whether to set the left child (otherwise the right)
+     * @param child new child
+     * @return the live node, which is a copy if the node had to be copied
+     */
+    private Node setChild(Node node, boolean left, Node child) {
+        if (node.version == building) {
+            if (left) {
+                node.leftChild = child;
+            } else {
+                node.rightChild = child;
+            }
+            return node;
+        }
+        if (node.modificationVersion == NO_MODIFICATION
+                || (node.modificationVersion == building && node.modificationLeft == left)) {
+            node.modification = child;
+            node.modificationLeft = left;
+            node.modificationVersion = building; //readers of earlier versions ignore the slot whatever they see here
+            return node;
+        }
+        Node copy = new Node(node.element, building);
+        nodeCount++;
+        copy.leftChild = left ? child : latestChild(node, true);
+        copy.rightChild = left ? latestChild(node, false) : child;
+        node.copy = copy;
+        if (copy.leftChild != null) {
+            copy.leftChild.parent = copy;
+        }
+        if (copy.rightChild != null) {
+            copy.rightChild.parent = copy;
+        }
+        if (node == root) {
+            root = copy;
+        } else if (node.parent != null) {
+            Node parent = node.parent;
+            copy.parent = setChild(parent, latestChild(parent, true) == node, copy);
+        }
+        return copy;
+    }
+
+    // helper method that compares two elements using the comparator or natural ordering
+    // the choice is made once when the set is constructed, so this is a single call
+    private int compare(E element1, E element2) {
+        return ordering.compare(element1, element2);
+    }
+
+    // helper method that returns the child of a node as it was in a version
+    private Node child(Node node, boolean left, int version) {
+        int modificationVersion = node.modificationVersion;
+        if (modificationVersion != NO_MODIFICATION && modificationVersion <= version && node.modificationLeft == left) {
+            return node.modification;
+        }
+        return left ? node.leftChild : node.rightChild;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return snapshot().contains(o);
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return snapshot().subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return snapshot().headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return snapshot().tailSet(fromElement);
+    }
+
+    @Override
+    public E first() {
+        return snapshot().first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot().last();
+    }
+
+    /**
+     * A committed version of the set, which is never changed once published
+     */
+    private class Version {
+        private final int number;
+        private final Node root;
+        private final int size;
+
+        public Version(int number, Node root, int size) {
+            this.number = number;
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A node with one modification slot
+     * The element, children and version of a node never change once its version is committed, apart from the
+     * modification slot, which is only read by versions at or after the one that filled it. Those versions are
+     * published after the slot was filled, so readers need no other synchronization
+     */
+    private class Node {
+        private final E element;
+        private Node leftChild, rightChild;
+        private final int version; //version that created this node
+        private int modificationVersion; //version that filled the modification slot, or NO_MODIFICATION
+        private boolean modificationLeft; //whether the modification is to the left child
+        private Node modification; //child set by the modification
+        private Node parent; //parent in the latest version, null for the root and detached nodes
+        private Node copy; //the copy that replaced this node in the latest version, if any
+
+        public Node(E element, int version) {
+            this.element = element;
+            this.version = version;
+            this.modificationVersion = NO_MODIFICATION;
+        }
+    }
+
+    /**
+     * A read-only view of the elements of one version between fromElement (inclusive) and toElement (exclusive)
+     * A null bound means the view is not bounded on that side, as in BinarySearchTree
+     */
+    private class VersionView extends AbstractSet<E> implements SortedSet<E> {
+        private final Version version;
+        private final E fromElement, toElement;
+
+        public VersionView(Version version, E fromElement, E toElement) {
+            this.version = version;
+            this.fromElement = fromElement;
+            this.toElement = toElement;
+        }
+
+        private boolean inRange(E element) {
+            return (fromElement == null || compare(element, fromElement) >= 0)
+                    && (toElement == null || compare(element, toElement) < 0);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            E element = (E) o; //unchecked
+            if (o == null || !inRange(element)) {
+                return false;
+            }
+            Node node = version.root;
+            while (node != null) {
+                int comparison = compare(element, node.element);
+                if (comparison == 0) {
+                    return true;
+                }
+                node = child(node, comparison < 0, version.number);
+            }
+            return false;
+        }
+
+        /**
+         * Get the number of elements in the view
+         * This is constant time for a whole version, and counts the elements of a bounded view
+         * @return number of elements
+         */
+        @Override
+        public int size() {
+            if (fromElement == null && toElement == null) {
+                return version.size;
+            }
+            int count = 0;
+            for (Iterator<E> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new VersionIterator(version, fromElement, toElement);
+        }
+
+        @Override
+        public boolean add(E o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return new VersionView(version, fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public E first() {
+            Iterator<E> iterator = iterator();
+            if (!iterator.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public E last() {
+            E greatest = null;
+            Node node = version.root;
+            while (node != null) {
+                if (toElement == null || compare(node.element, toElement) < 0) {
+                    greatest = node.element;
+                    node = child(node, false, version.number);
+                } else {
+                    node = child(node, true, version.number);
+                }
+            }
+            if (greatest == null || (fromElement != null && compare(greatest, fromElement) < 0)) {
+                throw new NoSuchElementException();
+            }
+            return greatest;
+        }
+    }
+
+    /**
+     * Iterator over a range of one version, using an explicit stack of the nodes still to be visited
+     */
+    private class VersionIterator implements Iterator<E> {
+        private final int version;
+        private final E toElement;
+        private Node[] stack;
+        private int depth;
+
+        public VersionIterator(Version version, E fromElement, E toElement) {
+            this.version = version.number;
+            this.toElement = toElement;
+            this.stack = (Node[]) new NodeCopyingDynamicSet.Node[16]; //unchecked
+            this.depth = 0;
+            Node node = version.root;
+            while (node != null) { //push the path to the first element not below fromElement
+                if (fromElement != null && compare(node.element, fromElement) < 0) {
+                    node = child(node, false, this.version);
+                } else {
+                    push(node);
+                    node = child(node, true, this.version);
+                }
+            }
+        }
+
+        private void push(Node node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, 2*depth);
+            }
+            stack[depth++] = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth > 0 && (toElement == null || compare(stack[depth-1].element, toElement) < 0);
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack[--depth];
+            stack[depth] = null;
+            for (Node child = child(node, false, version); child != null; child = child(child, true, version)) {
+                push(child);
+            }
+            return node.element;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package dynamicsetproblem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append-only log of the versions of a persistent dynamic set
+ *
+ * Each committed version is appended as one frame holding only the nodes that version created, followed by
+ * its root offset. Nodes that are shared with earlier versions are referred to by the offset they were first
+ * written at, so the cost of a commit is proportional to the path that was copied rather than the size of the
+ * set, and every version stays addressable by its root offset.
+ *
+ * File: magic "DSPLOG01" then frames. Frame: payload length (int), CRC32 of the payload (int), payload.
+ * Payload: version number (int), node count (int), node records, root offset (long, 0 for an empty set).
+ * Node record: left child offset (long), right child offset (long), flags (byte, 1 if red), element slot.
+ * Children are written before their parents, so every offset in a frame points backwards.
+ *
+ * Opening a log scans the frames and checks their CRCs. A torn or corrupt frame at the tail, left by a crash
+ * during an append, is truncated, so the log re-opens at the latest version that was completely written
+ *
+ * Version numbers in the log never go backwards. A set restored after a restart numbers its versions from 0
+ * again, so when it is attached its versions are logged under numbers that continue after the latest version
+ * in the log, rather than over the history
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public class NodeLogStore<E> implements Closeable {
+    private static final long MAGIC = 0x4453504C4F473031L; //"DSPLOG01"
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int FRAME_HEADER_SIZE = 8;
+    private static final int LINKS_SIZE = 17; //two child offsets and the flags
+    private static final long NULL_OFFSET = 0; //the file header is at offset 0, so no node is
+
+    private final FileChannel channel;
+    private final ElementCodec<E> codec;
+    private final Comparator<? super E> ordering; //comparator resolved once, so that contains makes no checks
+    private final int recordSize;
+    private final NavigableMap<Integer, Long> roots; //root offset of each version in the log
+    private final IdentityHashMap<BinarySearchTree<E>.BinaryTreeNode, Long> written; //offsets of the nodes reachable from lastRoot
+    private BinarySearchTree<E>.BinaryTreeNode lastRoot; //root of the last version appended in this session
+    private boolean syncOnCommit;
+    private long end; //end of the last complete frame
+    private PersistentDynamicSet<E> attachedSet;
+    private int numberOffset; //added to the version numbers of the attached set to give their numbers in the log
+    private Consumer<PersistentDynamicSet<E>.Version> listener;
+
+    private NodeLogStore(FileChannel channel, ElementCodec<E> codec, Comparator<? super E> comparator) {
+        this.channel = channel;
+        this.codec = codec;
+        this.ordering = comparator != null ? comparator : BinarySearchTree::compareNatural;
+        this.recordSize = LINKS_SIZE+codec.width();
+        this.roots = new TreeMap<>();
+        this.written = new IdentityHashMap<>();
+        this.syncOnCommit = true;
+    }
+
+    /**
+     * Open a log file, creating it if it does not exist and recovering the latest complete version if it does
+     * @param file log file
+     * @param codec codec for the elements
+     * @param comparator ordering of the sets written to the log (null for natural ordering)
+     * @return open store
+     * @throws IOException if the file cannot be opened or is not a node log
+     */
+    public static <E> NodeLogStore<E> open(Path file, ElementCodec<E> codec, Comparator<? super E> comparator) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        NodeLogStore<E> store = new NodeLogStore<>(channel, codec, comparator);
+        try {
+            store.recover();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    // helper method that indexes the complete frames and truncates anything after them
+    private void recover() throws IOException {
+        if (channel.size() < FILE_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putLong(0, MAGIC);
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+            end = FILE_HEADER_SIZE;
+            return;
+        }
+        if (readFully(0, FILE_HEADER_SIZE).getLong(0) != MAGIC) {
+            throw new IOException("Not a node log");
+        }
+        long position = FILE_HEADER_SIZE;
+        long size = channel.size();
+        while (position+FRAME_HEADER_SIZE <= size) {
+            ByteBuffer frameHeader = readFully(position, FRAME_HEADER_SIZE);
+            int length = frameHeader.getInt(0);
+            if (length < 16 || position+FRAME_HEADER_SIZE+length > size) {
+                break; //torn frame
+            }
+            ByteBuffer payload = readFully(position+FRAME_HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != frameHeader.getInt(4)) {
+                break; //corrupt frame
+            }
+            roots.put(payload.getInt(0), payload.getLong(length-Long.BYTES));
+            position += FRAME_HEADER_SIZE+length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+            channel.force(true);
+        }
+        end = position;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position+buffer.position()) < 0) {
+                throw new IOException("Unexpected end of node log");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Choose whether each append is forced to the storage device before it returns (true by default)
+     * @param syncOnCommit whether to force each append
+     */
+    public void setSyncOnCommit(boolean syncOnCommit) {
+        this.syncOnCommit = syncOnCommit;
+    }
+
+    /**
+     * Append the current version of a set, and every version it commits until the store is closed
+     * Versions committed before attaching are not written. An append that fails after the version was
+     * committed in memory throws an UncheckedIOException from the change that committed it.
+     * If the set's current version number is not after the latest version in the log, as for a set just restored
+     * from the log, its versions are logged under their numbers plus an offset that continues the log's numbering.
+     * The nodes of a set are only known to the store once it has written them, so the first append after the
+     * log is reopened writes the whole tree; later appends write only the copied paths again
+     * @param set set to persist
+     * @throws IOException if the current version cannot be appended
+     */
+    public synchronized void attach(PersistentDynamicSet<E> set) throws IOException {
+        if (attachedSet != null) {
+            throw new IllegalStateException("A set is already attached to this log");
+        }
+        numberOffset = Math.max(0, latestVersion()+1-set.published().number);
+        append(set.published());
+        listener = version -> {
+            try {
+                append(version);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        set.addCommitListener(listener);
+        attachedSet = set;
+    }
+
+    /**
+     * Append a version, writing only the nodes that have not been written since the store was opened
+     * Versions must be appended in the order they were committed. A version is logged under its number plus
+     * the offset chosen by attach (0 if no set has been attached), which must be after the latest version in the log
+     * @param version version to append
+     * @return offset of the root of the version
+     * @throws IllegalArgumentException if the version would not be logged after the latest version in the log
+     * @throws IOException if the version cannot be written
+     */
+    public synchronized long append(PersistentDynamicSet<E>.Version version) throws IOException {
+        int number = version.number+numberOffset;
+        if (number <= latestVersion()) {
+            throw new IllegalArgumentException("Version "+number+" is not after the latest version "+latestVersion()+" in the log");
+        }
+        if (channel.size() > end) {
+            channel.truncate(end); //discard a frame left incomplete by a failed append
+        }
+        long frameStart = end;
+        long firstRecord = frameStart+FRAME_HEADER_SIZE+8;
+        ArrayList<BinarySearchTree<E>.BinaryTreeNode> newNodes = new ArrayList<>();
+        Set<BinarySearchTree<E>.BinaryTreeNode> sharedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        IdentityHashMap<BinarySearchTree<E>.BinaryTreeNode, Long> newOffsets = new IdentityHashMap<>();
+        //visit the new nodes in postorder, stopping at nodes already written, so children get offsets first
+        ArrayDeque<BinarySearchTree<E>.BinaryTreeNode> stack = new ArrayDeque<>();
+        ArrayDeque<Boolean> expanded = new ArrayDeque<>();
+        if (version.root != null) {
+            stack.push(version.root);
+            expanded.push(false);
+        }
+        while (!stack.isEmpty()) {
+            BinarySearchTree<E>.BinaryTreeNode node = stack.pop();
+            boolean childrenDone = expanded.pop();
+            if (written.containsKey(node)) {
+                sharedNodes.add(node);
+            } else if (childrenDone) {
+                newOffsets.put(node, firstRecord+(long) newNodes.size()*recordSize);
+                newNodes.add(node);
+            } else {
+                stack.push(node);
+                expanded.push(true);
+                if (node.rightChild != null) {
+                    stack.push(node.rightChild);
+                    expanded.push(false);
+                }
+                if (node.leftChild != null) {
+                    stack.push(node.leftChild);
+                    expanded.push(false);
+                }
+            }
+        }
+        ByteBuffer payload = ByteBuffer.allocate(8+newNodes.size()*recordSize+Long.BYTES);
+        payload.putInt(0, number);
+        payload.putInt(4, newNodes.size());
+        int position = 8;
+        for (BinarySearchTree<E>.BinaryTreeNode node : newNodes) {
+            payload.putLong(position, offsetOf(node.leftChild, newOffsets));
+            payload.putLong(position+8, offsetOf(node.rightChild, newOffsets));
+            boolean red = node instanceof BalancedPersistentDynamicSet.RedBlackNode
+                    && ((BalancedPersistentDynamicSet.RedBlackNode) node).colour == BalancedPersistentDynamicSet.Colour.RED;
+            payload.put(position+16, (byte) (red ? 1 : 0));
+            codec.encode(node.element, payload, position+LINKS_SIZE);
+            position += recordSize;
+        }
+        long rootOffset = offsetOf(version.root, newOffsets);
+        payload.putLong(position, rootOffset);
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        frameHeader.putInt(0, payload.capacity());
+        frameHeader.putInt(4, (int) crc.getValue());
+        long writePosition = frameStart;
+        for (ByteBuffer buffer : new ByteBuffer[] {frameHeader, payload}) {
+            while (buffer.hasRemaining()) {
+                writePosition += channel.write(buffer, writePosition);
+            }
+        }
+        if (syncOnCommit) {
+            channel.force(false);
+        }
+        end = writePosition;
+        roots.put(number, rootOffset);
+        forgetUnreachable(sharedNodes);
+        written.putAll(newOffsets);
+        lastRoot = version.root;
+        return rootOffset;
+    }
+
+    private long offsetOf(BinarySearchTree<E>.BinaryTreeNode node, IdentityHashMap<BinarySearchTree<E>.BinaryTreeNode, Long> newOffsets) {
+        if (node == null) {
+            return NULL_OFFSET;
+        }
+        Long offset = newOffsets.get(node);
+        return offset != null ? offset : written.get(node);
+    }
+
+    // helper method that drops the offsets of nodes only reachable from the previous root, so that the
+    // identity map stays bounded by the latest version. A node of the previous version is still reachable
+    // exactly when it is a shared node or below one, so the walk stops at shared nodes
+    private void forgetUnreachable(Set<BinarySearchTree<E>.BinaryTreeNode> sharedNodes) {
+        ArrayDeque<BinarySearchTree<E>.BinaryTreeNode> stack = new ArrayDeque<>();
+        if (lastRoot != null) {
+            stack.push(lastRoot);
+        }
+        while (!stack.isEmpty()) {
+            BinarySearchTree<E>.BinaryTreeNode node = stack.pop();
+            if (sharedNodes.contains(node) || written.remove(node) == null) {
+                continue;
+            }
+            if (node.leftChild != null) {
+                stack.push(node.leftChild);
+            }
+            if (node.rightChild != null) {
+                stack.push(node.rightChild);
+            }
+        }
+    }
+
+    /**
+     * Get the numbers of the versions in the log, in ascending order
+     * @return version numbers
+     */
+    public synchronized Set<Integer> versionNumbers() {
+        return Collections.unmodifiableSet(new TreeSet<>(roots.keySet()));
+    }
+
+    /**
+     * Get the number of the latest version in the log
+     * @return latest version number, or -1 if the log is empty
+     */
+    public synchronized int latestVersion() {
+        return roots.isEmpty() ? -1 : roots.lastKey();
+    }
+
+    /**
+     * Get the offset of the root node of a version
+     * @param number version number
+     * @return root offset (0 for an empty version)
+     */
+    public synchronized long rootOffset(int number) {
+        Long offset = roots.get(number);
+        if (offset == null) {
+            throw new IndexOutOfBoundsException("No version "+number+" in the log");
+        }
+        return offset;
+    }
+
+    /**
+     * Check whether an element is in a version, searching the nodes on disk
+     * @param rootOffset root offset of the version
+     * @param element element to find
+     * @return whether the element is in the version
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized boolean contains(long rootOffset, E element) throws IOException {
+        long offset = rootOffset;
+        while (offset != NULL_OFFSET) {
+            ByteBuffer record = readFully(offset, recordSize);
+            E nodeElement = codec.decode(record, LINKS_SIZE);
+            int comparison = ordering.compare(element, nodeElement);
+            if (comparison == 0) {
+                return true;
+            }
+            offset = record.getLong(comparison < 0 ? 0 : 8);
+        }
+        return false;
+    }
+
+    /**
+     * Restore a version from the log into an empty set, which bulk loads it in O(n)
+     * The set numbers its versions from 0; attaching it to this store continues the log's numbering (see attach)
+     * @param number version number
+     * @param set empty set to load, such as a new BalancedPersistentDynamicSet
+     * @return the loaded set
+     * @throws IOException if the log cannot be read
+     */
+    public synchronized <S extends BinarySearchTree<E>> S restore(int number, S set) throws IOException {
+        ArrayList<E> elements = new ArrayList<>();
+        ArrayDeque<ByteBuffer> stack = new ArrayDeque<>(); //inorder traversal of the records on disk
+        long offset = rootOffset(number);
+        while (offset != NULL_OFFSET || !stack.isEmpty()) {
+            while (offset != NULL_OFFSET) {
+                ByteBuffer record = readFully(offset, recordSize);
+                stack.push(record);
+                offset = record.getLong(0);
+            }
+            ByteBuffer record = stack.pop();
+            elements.add(codec.decode(record, LINKS_SIZE));
+            offset = record.getLong(8);
+        }
+        set.loadSorted(elements);
+        return set;
+    }
+
+    /**
+     * Close the log, detaching any attached set
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (attachedSet != null) {
+            attachedSet.removeCommitListener(listener);
+            attachedSet = null;
+        }
+        channel.close();
+    }
+}
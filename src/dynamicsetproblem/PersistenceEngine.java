@@ -0,0 +1,70 @@
+package dynamicsetproblem;
+
+import java.util.Comparator;
+
+/**
+ * The persistence engines that a versioned sorted set can be created with
+ * @author Tamati Rudd 18045626
+ */
+public enum PersistenceEngine {
+    /**
+     * Unbalanced path copying (PersistentDynamicSet): O(depth) new nodes per update
+     */
+    PATH_COPYING {
+        @Override
+        public <E> VersionedSortedSet<E> create(Comparator<? super E> comparator) {
+            return new PersistentDynamicSet<>(comparator);
+        }
+    },
+    /**
+     * Red-black path copying (BalancedPersistentDynamicSet): O(log n) new nodes per update
+     */
+    BALANCED_PATH_COPYING {
+        @Override
+        public <E> VersionedSortedSet<E> create(Comparator<? super E> comparator) {
+            return new BalancedPersistentDynamicSet<>(comparator);
+        }
+    },
+    /**
+     * Left-leaning red-black path copying with nodes in an arena of arrays (ArenaPersistentDynamicSet)
+     */
+    ARENA {
+        @Override
+        public <E> VersionedSortedSet<E> create(Comparator<? super E> comparator) {
+            return new ArenaPersistentDynamicSet<>(comparator);
+        }
+    },
+    /**
+     * Unbalanced node copying (NodeCopyingDynamicSet): O(1) amortized new nodes per update
+     */
+    NODE_COPYING {
+        @Override
+        public <E> VersionedSortedSet<E> create(Comparator<? super E> comparator) {
+            return new NodeCopyingDynamicSet<>(comparator);
+        }
+    },
+    /**
+     * B+-tree path copying with wide nodes (PersistentBTreeSet): O(log n / log fan-out) new nodes per update
+     */
+    B_TREE {
+        @Override
+        public <E> VersionedSortedSet<E> create(Comparator<? super E> comparator) {
+            return new PersistentBTreeSet<>(comparator);
+        }
+    };
+
+    /**
+     * Create an empty set using this engine
+     * @param comparator comparator used to order the set (null for natural ordering)
+     * @return empty versioned sorted set
+     */
+    public abstract <E> VersionedSortedSet<E> create(Comparator<? super E> comparator);
+
+    /**
+     * Create an empty set using this engine, ordered by the natural ordering of its elements
+     * @return empty versioned sorted set
+     */
+    public <E> VersionedSortedSet<E> create() {
+        return create(null);
+    }
+}
@@ -0,0 +1,602 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * A persistent dynamic set stored as a B+-tree with wide nodes
+ * Each node keeps its keys in an array, so a lookup in a set of n elements visits about log(n)/log(fanOut) nodes
+ * and a binary search within each, rather than one node per comparison. An update path-copies the few nodes from
+ * the root to a leaf, sharing every other node with earlier versions, so each version stays readable as it was.
+ * Leaves hold the elements; internal nodes hold separators, where separator i is no greater than any element of
+ * child i+1 and greater than every element of child i
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public class PersistentBTreeSet<E> extends AbstractSet<E> implements VersionedSortedSet<E> {
+    public static final int DEFAULT_FAN_OUT = 32;
+
+    private final Comparator<? super E> comparator;
+    private final Comparator<? super E> ordering; //comparator resolved once, so that compare makes no checks
+    private final int maxSize; //most keys in a leaf, and most children of an internal node
+    private final int minSize; //fewest keys in a leaf or children of an internal node, apart from the root
+    private final ArrayList<Version> previousVersions;
+    private volatile Version current; //the last committed version, published for reader threads
+
+    /**
+     * Construct a persistent B-tree set with the default fan-out
+     */
+    public PersistentBTreeSet() {
+        this(DEFAULT_FAN_OUT, null);
+    }
+
+    /**
+     * Construct a persistent B-tree set with the default fan-out, ordered by a comparator
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public PersistentBTreeSet(Comparator<? super E> comparator) {
+        this(DEFAULT_FAN_OUT, comparator);
+    }
+
+    /**
+     * Construct a persistent B-tree set
+     * @param fanOut most children of an internal node and most elements of a leaf, at least 4 (16 to 64 suits most caches)
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public PersistentBTreeSet(int fanOut, Comparator<? super E> comparator) {
+        if (fanOut < 4) {
+            throw new IllegalArgumentException("Fan-out must be at least 4");
+        }
+        this.comparator = comparator;
+        this.ordering = comparator != null ? comparator : BinarySearchTree::compareNatural;
+        this.maxSize = fanOut;
+        this.minSize = fanOut/2;
+        this.previousVersions = new ArrayList<>();
+        this.current = new Version(0, null, 0);
+    }
+
+    @Override
+    public int versionCount() {
+        return previousVersions.size()+1;
+    }
+
+    @Override
+    public int currentVersion() {
+        return current.number;
+    }
+
+    @Override
+    public SortedSet<E> version(int number) {
+        Version version = current;
+        if (number != version.number) {
+            if (number < 0 || number > version.number) {
+                throw new IndexOutOfBoundsException("No version "+number);
+            }
+            version = previousVersions.get(number); //version numbers are list indexes as no version is discarded
+        }
+        return new VersionView(version, null, null);
+    }
+
+    @Override
+    public SortedSet<E> snapshot() {
+        return new VersionView(current, null, null);
+    }
+
+    // helper method that records the current version and publishes a new one
+    private void commit(Node root, int size) {
+        Version version = current;
+        previousVersions.add(version); //kept even if empty, so that a number always refers to the same contents
+        current = new Version(version.number+1, root, size);
+    }
+
+    @Override
+    public boolean add(E o) {
+        Version version = current;
+        if (version.root == null) {
+            commit(new Node(new Object[] {o}, null), 1);
+            return true;
+        }
+        Node[] split = new Node[1];
+        Object[] separator = new Object[1];
+        Node root = insert(version.root, o, split, separator);
+        if (root == version.root) {
+            return false;
+        }
+        if (split[0] != null) {
+            root = new Node(new Object[] {separator[0]}, new Node[] {root, split[0]});
+        }
+        commit(root, version.size+1);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Version version = current;
+        if (o == null || version.root == null) {
+            return false;
+        }
+        Node root = delete(version.root, (E) o); //unchecked
+        if (root == version.root) {
+            return false;
+        }
+        if (root.children != null && root.children.length == 1) {
+            root = root.children[0];
+        } else if (root.children == null && root.keys.length == 0) {
+            root = null;
+        }
+        commit(root, version.size-1);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (current.root != null) {
+            commit(null, 0);
+        }
+    }
+
+    // helper method that compares two elements using the comparator or natural ordering
+    // the choice is made once when the set is constructed, so this is a single call
+    private int compare(E element1, E element2) {
+        return ordering.compare(element1, element2);
+    }
+
+    // helper method that returns the position of element in the keys of a node, or -(insertion point)-1
+    private int search(Node node, E element) {
+        int low = 0;
+        int high = node.keys.length-1;
+        while (low <= high) {
+            int middle = (low+high) >>> 1;
+            int comparison = compare((E) node.keys[middle], element); //unchecked
+            if (comparison < 0) {
+                low = middle+1;
+            } else if (comparison > 0) {
+                high = middle-1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low+1);
+    }
+
+    // helper method that returns the child of an internal node whose range holds element
+    private int childIndex(Node node, E element) {
+        int position = search(node, element);
+        return position >= 0 ? position+1 : -(position+1);
+    }
+
+    /**
+     * Insert an element below a node
+     * @param node node to insert below
+     * @param element element to insert
+     * @param split receives the new right sibling if the copied node had to be split, otherwise null
+     * @param separator receives the separator between the copied node and its new right sibling
+     * @return the copied node, or node itself if the element is already present
+     */
+    private Node insert(Node node, E element, Node[] split, Object[] separator) {
+        if (node.children == null) {
+            int position = search(node, element);
+            if (position >= 0) {
+                return node;
+            }
+            position = -(position+1);
+            Object[] keys = insertAt(node.keys, position, element);
+            if (keys.length <= maxSize) {
+                return new Node(keys, null);
+            }
+            int half = keys.length/2;
+            split[0] = new Node(Arrays.copyOfRange(keys, half, keys.length), null);
+            separator[0] = keys[half];
+            return new Node(Arrays.copyOf(keys, half), null);
+        }
+        int index = childIndex(node, element);
+        Node child = node.children[index];
+        Node newChild = insert(child, element, split, separator);
+        if (newChild == child) {
+            return node;
+        }
+        Node[] children = node.children.clone();
+        children[index] = newChild;
+        if (split[0] == null) {
+            return new Node(node.keys, children);
+        }
+        Object[] keys = insertAt(node.keys, index, separator[0]);
+        children = insertAt(children, index+1, split[0]);
+        if (children.length <= maxSize) {
+            split[0] = null;
+            return new Node(keys, children);
+        }
+        int half = children.length/2; //children [0, half) stay, keys[half-1] moves up
+        separator[0] = keys[half-1];
+        split[0] = new Node(Arrays.copyOfRange(keys, half, keys.length), Arrays.copyOfRange(children, half, children.length));
+        return new Node(Arrays.copyOf(keys, half-1), Arrays.copyOf(children, half));
+    }
+
+    /**
+     * Delete an element below a node, leaving the copied node possibly below the minimum size for its parent to fix
+     * @param node node to delete below
+     * @param element element to delete
+     * @return the copied node, or node itself if the element is not present
+     */
+    private Node delete(Node node, E element) {
+        if (node.children == null) {
+            int position = search(node, element);
+            if (position < 0) {
+                return node;
+            }
+            return new Node(removeAt(node.keys, position), null);
+        }
+        int index = childIndex(node, element);
+        Node child = node.children[index];
+        Node newChild = delete(child, element);
+        if (newChild == child) {
+            return node;
+        }
+        Object[] keys = node.keys;
+        Node[] children = node.children.clone();
+        children[index] = newChild;
+        if (newChild.size() >= minSize) {
+            return new Node(keys, children);
+        }
+        //the child is too small: borrow from a sibling that can spare an entry, otherwise merge with one
+        if (index > 0 && children[index-1].size() > minSize) {
+            Node left = children[index-1];
+            if (newChild.children == null) {
+                Object borrowed = left.keys[left.keys.length-1];
+                children[index-1] = new Node(removeAt(left.keys, left.keys.length-1), null);
+                children[index] = new Node(insertAt(newChild.keys, 0, borrowed), null);
+                keys = replaceAt(keys, index-1, borrowed);
+            } else {
+                Node borrowed = left.children[left.children.length-1];
+                children[index-1] = new Node(removeAt(left.keys, left.keys.length-1), removeAt(left.children, left.children.length-1));
+                children[index] = new Node(insertAt(newChild.keys, 0, keys[index-1]), insertAt(newChild.children, 0, borrowed));
+                keys = replaceAt(keys, index-1, left.keys[left.keys.length-1]);
+            }
+            return new Node(keys, children);
+        }
+        if (index < children.length-1 && children[index+1].size() > minSize) {
+            Node right = children[index+1];
+            if (newChild.children == null) {
+                children[index] = new Node(insertAt(newChild.keys, newChild.keys.length, right.keys[0]), null);
+                children[index+1] = new Node(removeAt(right.keys, 0), null);
+                keys = replaceAt(keys, index, right.keys[1]);
+            } else {
+                children[index] = new Node(insertAt(newChild.keys, newChild.keys.length, keys[index]),
+                        insertAt(newChild.children, newChild.children.length, right.children[0]));
+                children[index+1] = new Node(removeAt(right.keys, 0), removeAt(right.children, 0));
+                keys = replaceAt(keys, index, right.keys[0]);
+            }
+            return new Node(keys, children);
+        }
+        int leftIndex = index > 0 ? index-1 : index; //merge children leftIndex and leftIndex+1
+        Node left = children[leftIndex];
+        Node right = children[leftIndex+1];
+        Node merged;
+        if (left.children == null) {
+            merged = new Node(concat(left.keys, right.keys), null);
+        } else {
+            merged = new Node(concat(insertAt(left.keys, left.keys.length, keys[leftIndex]), right.keys),
+                    concat(left.children, right.children));
+        }
+        children = removeAt(children, leftIndex+1);
+        children[leftIndex] = merged;
+        return new Node(removeAt(keys, leftIndex), children);
+    }
+
+    // array helpers that return new arrays, leaving their arguments unchanged
+
+    private static <T> T[] insertAt(T[] array, int index, T value) {
+        T[] result = Arrays.copyOf(array, array.length+1);
+        System.arraycopy(array, index, result, index+1, array.length-index);
+        result[index] = value;
+        return result;
+    }
+
+    private static <T> T[] removeAt(T[] array, int index) {
+        T[] result = Arrays.copyOf(array, array.length-1);
+        System.arraycopy(array, index+1, result, index, array.length-index-1);
+        return result;
+    }
+
+    private static <T> T[] replaceAt(T[] array, int index, T value) {
+        T[] result = array.clone();
+        result[index] = value;
+        return result;
+    }
+
+    private static <T> T[] concat(T[] first, T[] second) {
+        T[] result = Arrays.copyOf(first, first.length+second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return snapshot().contains(o);
+    }
+
+    @Override
+    public int size() {
+        return current.size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot().iterator();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return snapshot().subSet(fromElement, toElement);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return snapshot().headSet(toElement);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return snapshot().tailSet(fromElement);
+    }
+
+    @Override
+    public E first() {
+        return snapshot().first();
+    }
+
+    @Override
+    public E last() {
+        return snapshot().last();
+    }
+
+    /**
+     * A committed version of the set, which is never changed once published
+     */
+    private class Version {
+        private final int number;
+        private final Node root;
+        private final int size;
+
+        public Version(int number, Node root, int size) {
+            this.number = number;
+            this.root = root;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A node of the tree, which is never changed once created
+     * A leaf has elements as its keys and no children; an internal node has separators as its keys and one
+     * more child than keys
+     */
+    private static class Node {
+        private final Object[] keys;
+        private final Node[] children; //null for a leaf
+
+        public Node(Object[] keys, Node[] children) {
+            this.keys = keys;
+            this.children = children;
+        }
+
+        // returns the number of entries counted against the minimum and maximum size
+        public int size() {
+            return children == null ? keys.length : children.length;
+        }
+    }
+
+    /**
+     * A read-only view of the elements of one version between fromElement (inclusive) and toElement (exclusive)
+     * A null bound means the view is not bounded on that side, as in BinarySearchTree
+     */
+    private class VersionView extends AbstractSet<E> implements SortedSet<E> {
+        private final Version version;
+        private final E fromElement, toElement;
+
+        public VersionView(Version version, E fromElement, E toElement) {
+            this.version = version;
+            this.fromElement = fromElement;
+            this.toElement = toElement;
+        }
+
+        private boolean inRange(E element) {
+            return (fromElement == null || compare(element, fromElement) >= 0)
+                    && (toElement == null || compare(element, toElement) < 0);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            E element = (E) o; //unchecked
+            if (o == null || version.root == null || !inRange(element)) {
+                return false;
+            }
+            Node node = version.root;
+            while (node.children != null) {
+                node = node.children[childIndex(node, element)];
+            }
+            return search(node, element) >= 0;
+        }
+
+        /**
+         * Get the number of elements in the view
+         * This is constant time for a whole version, and counts the elements of a bounded view
+         * @return number of elements
+         */
+        @Override
+        public int size() {
+            if (fromElement == null && toElement == null) {
+                return version.size;
+            }
+            int count = 0;
+            for (Iterator<E> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new BTreeIterator(version.root, fromElement, toElement);
+        }
+
+        @Override
+        public boolean add(E o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return new VersionView(version, fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return subSet(fromElement, toElement);
+        }
+
+        @Override
+        public E first() {
+            Iterator<E> iterator = iterator();
+            if (!iterator.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        @Override
+        public E last() {
+            E greatest = version.root == null ? null : lastBelow(version.root);
+            if (greatest == null || (fromElement != null && compare(greatest, fromElement) < 0)) {
+                throw new NoSuchElementException();
+            }
+            return greatest;
+        }
+
+        // returns the greatest element below node that is less than toElement, or null if there is none
+        private E lastBelow(Node node) {
+            if (node.children == null) {
+                int end = node.keys.length;
+                if (toElement != null) {
+                    int position = search(node, toElement);
+                    end = position >= 0 ? position : -(position+1);
+                }
+                return end == 0 ? null : (E) node.keys[end-1]; //unchecked
+            }
+            int index = toElement == null ? node.children.length-1 : childIndex(node, toElement);
+            for (int i = index; i >= 0; i--) {
+                E greatest = lastBelow(node.children[i]);
+                if (greatest != null) {
+                    return greatest;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Iterator over a range of one version, keeping the path from the root to the current leaf
+     */
+    private class BTreeIterator implements Iterator<E> {
+        private Node[] path; //internal nodes on the path to the current leaf
+        private int[] nextChild; //index of the child to visit next at each internal node on the path
+        private int depth;
+        private Node leaf;
+        private int position; //index of the next key in leaf
+        private final E toElement;
+
+        public BTreeIterator(Node root, E fromElement, E toElement) {
+            this.path = new Node[8];
+            this.nextChild = new int[8];
+            this.toElement = toElement;
+            Node node = root;
+            if (node == null) {
+                return;
+            }
+            while (node.children != null) { //descend to the leaf that would hold fromElement
+                int index = fromElement == null ? 0 : childIndex(node, fromElement);
+                push(node, index+1);
+                node = node.children[index];
+            }
+            leaf = node;
+            if (fromElement != null) {
+                int found = search(node, fromElement);
+                position = found >= 0 ? found : -(found+1);
+            }
+            skipExhaustedLeaves();
+        }
+
+        private void push(Node node, int next) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, 2*depth);
+                nextChild = Arrays.copyOf(nextChild, 2*depth);
+            }
+            path[depth] = node;
+            nextChild[depth++] = next;
+        }
+
+        // moves to the first leaf with a key left to visit, or sets leaf to null at the end of the version
+        private void skipExhaustedLeaves() {
+            while (leaf != null && position == leaf.keys.length) {
+                while (depth > 0 && nextChild[depth-1] == path[depth-1].children.length) {
+                    depth--;
+                }
+                if (depth == 0) {
+                    leaf = null;
+                    return;
+                }
+                Node node = path[depth-1].children[nextChild[depth-1]++];
+                while (node.children != null) {
+                    push(node, 1);
+                    node = node.children[0];
+                }
+                leaf = node;
+                position = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && (toElement == null || compare((E) leaf.keys[position], toElement) < 0); //unchecked
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E element = (E) leaf.keys[position++]; //unchecked
+            skipExhaustedLeaves();
+            return element;
+        }
+    }
+}
@@ -1,22 +1,591 @@
 package dynamicsetproblem;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This subclass of Binary Search Tree (BST) implements tree versioning, using hook methods and template design pattern
+ * 
+ * The set has a single writer thread, which may call any method. Each committed version is published atomically,
+ * so any number of other threads can call snapshot(), published() or version(int) and query the result without
+ * locking, because the nodes of a committed version are never changed
  * @author Tamati Rudd 18045626
  */
-public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
-    public ArrayList<BinaryTreeNode> previousVersions;
+public class PersistentDynamicSet<E> extends BinarySearchTree<E> implements VersionedSortedSet<E> {
+    public ArrayList<Version> previousVersions; //changed only by the writer thread, which republishes it at the next commit
     public ArrayList<BinaryTreeNode> traversedNodes;
+    protected Object openBatch; //token marking the nodes created by the open batch, null when no batch is open
+    private volatile Version current; //the last committed version, published for reader threads
+    private volatile VersionHistory history; //the previous versions, published for reader threads before current
+    private RetentionPolicy retentionPolicy;
+    private final ArrayList<Consumer<? super Version>> commitListeners;
+    protected SetMetrics metrics; //null while metrics are disabled
+    private ForkJoinPool setOperationPool; //runs the subtrees of union, intersection and difference in parallel
+    private static final int PARALLEL_THRESHOLD = 4096; //smallest pair of subtrees (in nodes) worth forking
 
     /**
      * Construct a persistent dynamic set
      */
     public PersistentDynamicSet() {
-        super();
+        this((Comparator<? super E>) null);
+    }
+    
+    /**
+     * Construct a persistent dynamic set ordered by a comparator
+     * @param comparator comparator used to order the set (null for natural ordering)
+     */
+    public PersistentDynamicSet(Comparator<? super E> comparator) {
+        this(comparator, null);
+    }
+    
+    /**
+     * Construct a persistent dynamic set whose nodes cache a prefix of their element
+     * @param comparator comparator used to order the set (null for natural ordering)
+     * @param keyCodec codec giving prefixes that agree with the ordering (null to always use the comparator)
+     */
+    public PersistentDynamicSet(Comparator<? super E> comparator, KeyCodec<? super E> keyCodec) {
+        super(comparator, keyCodec);
         previousVersions = new ArrayList<>();
         traversedNodes = new ArrayList<>();
+        current = new Version(0, null, System.nanoTime(), null);
+        history = new VersionHistory(previousVersions);
+        retentionPolicy = RetentionPolicy.KEEP_ALL;
+        commitListeners = new ArrayList<>();
+        setOperationPool = ForkJoinPool.commonPool();
+    }
+    
+    /**
+     * Construct a persistent dynamic set holding the elements of a collection, as a single version
+     * @param c collection of elements
+     */
+    public PersistentDynamicSet(Collection<? extends E> c) {
+        this();
+        load(c);
+    }
+    
+    /**
+     * Construct a persistent dynamic set holding the elements of a sorted set, with the same ordering, as a single version
+     * @param s sorted set of elements
+     */
+    public PersistentDynamicSet(SortedSet<E> s) {
+        this(s.comparator());
+        loadSorted(s);
+    }
+    
+    /**
+     * Get the number of versions of the set that are retained, including the current version
+     * Until a compaction discards versions, this is also one more than the number of the current version
+     * @return number of retained versions
+     */
+    public int versionCount() {
+        return previousVersions.size()+1;
+    }
+    
+    /**
+     * Get the number of the current version
+     * @return current version number
+     */
+    public int currentVersion() {
+        return current.number;
+    }
+    
+    /**
+     * Get the last committed version
+     * This may be called from any thread: the returned version is never changed
+     * @return record of the current version
+     */
+    public Version published() {
+        return current;
+    }
+    
+    /**
+     * Start recording operation metrics (see SetMetrics)
+     * The metrics are recorded by the writer thread and may be read from any thread
+     * @return the metrics, which are kept if metrics were already enabled
+     */
+    public SetMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new SetMetrics(this::publishedVersionCount);
+        }
+        return metrics;
+    }
+    
+    // returns the number of versions retained as of the last commit or compaction, reading only the published history
+    // so that the metrics may be read from any thread
+    private int publishedVersionCount() {
+        return history.size+1;
+    }
+    
+    /**
+     * Stop recording operation metrics, so operations no longer pay for them
+     * A SetMetrics that was returned earlier keeps its values, but stays registered with JMX until it is unregistered
+     */
+    public void disableMetrics() {
+        metrics = null;
+    }
+    
+    /**
+     * Get the operation metrics
+     * @return the metrics, or null if metrics are disabled
+     */
+    public SetMetrics metrics() {
+        return metrics;
+    }
+    
+    /**
+     * Get an immutable view of the last committed version
+     * This may be called from any thread, and the view may be queried without locking while the writer continues
+     * @return read-only navigable set containing the elements of the current version
+     */
+    public NavigableSet<E> snapshot() {
+        return current.view();
+    }
+    
+    /**
+     * Get an immutable view of a version of the set
+     * Queries on the view run directly on the nodes shared by that version, so they take O(log n) like the current set.
+     * This may be called from any thread
+     * @param number version number, from 0 (oldest) to currentVersion()
+     * @return read-only navigable set containing the elements of that version
+     */
+    public NavigableSet<E> version(int number) {
+        return findVersion(number).view();
+    }
+    
+    /**
+     * Find the record of a retained version, using binary search as the records are in version order
+     * Only the published history is read, so this may be called from any thread
+     * @param number version number
+     * @return record of the version
+     */
+    private Version findVersion(int number) {
+        Version latest = current; //read before the history, which is published first, so it holds every earlier version
+        if (number == latest.number) {
+            return latest;
+        }
+        VersionHistory published = history;
+        int low = 0;
+        int high = published.size-1;
+        while (low <= high) {
+            int middle = (low+high) >>> 1;
+            int middleNumber = published.versions[middle].number;
+            if (middleNumber < number) {
+                low = middle+1;
+            } else if (middleNumber > number) {
+                high = middle-1;
+            } else {
+                return published.versions[middle];
+            }
+        }
+        if (number < 0 || number > latest.number) {
+            throw new IndexOutOfBoundsException("No version "+number);
+        }
+        throw new NoSuchElementException("Version "+number+" is no longer retained");
+    }
+    
+    /**
+     * Get the elements added and removed between two versions, in ascending order of element
+     * Both versions are walked together, and any subtree whose node is shared by both versions is skipped
+     * without being visited, so the cost is proportional to the region that changed rather than the size of the set
+     * @param from number of the earlier version
+     * @param to number of the later version
+     * @return lazy stream of changes that turn version from into version to
+     */
+    public Stream<Change<E>> diff(int from, int to) {
+        DiffIterator iterator = new DiffIterator(findVersion(from).root, findVersion(to).root);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED|Spliterator.NONNULL), false);
+    }
+    
+    /**
+     * Pin a version with a tag, so that compaction always retains it
+     * @param number version number
+     * @param tag tag for the version
+     */
+    public void tag(int number, String tag) {
+        findVersion(number).tag = tag;
+    }
+    
+    /**
+     * Remove the tag from a version, so that compaction may discard it
+     * @param number version number
+     */
+    public void untag(int number) {
+        tag(number, null);
+    }
+    
+    /**
+     * Find the most recent version pinned with a tag
+     * @param tag tag of the version
+     * @return version number
+     */
+    public int taggedVersion(String tag) {
+        if (tag.equals(current.tag)) {
+            return current.number;
+        }
+        for (int i = previousVersions.size()-1; i >= 0; i--) {
+            if (tag.equals(previousVersions.get(i).tag)) {
+                return previousVersions.get(i).number;
+            }
+        }
+        throw new NoSuchElementException("No version tagged "+tag);
+    }
+    
+    /**
+     * Set the policy deciding which previous versions are retained by compact()
+     * @param retentionPolicy retention policy
+     */
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+    
+    /**
+     * Get the policy deciding which previous versions are retained by compact()
+     * @return retention policy
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+    
+    /**
+     * Discard the previous versions that the retention policy does not keep, so that nodes no longer shared
+     * with a retained version can be garbage collected. The current version is always retained
+     * @return report of the versions and distinct nodes retained after the compaction
+     */
+    public CompactionReport compact() {
+        long now = System.nanoTime();
+        ArrayList<Version> retained = new ArrayList<>();
+        int newerVersions = previousVersions.size();
+        for (Version previousVersion : previousVersions) {
+            newerVersions--;
+            if (retentionPolicy.retains(newerVersions, now-previousVersion.commitTime, previousVersion.tag != null)) {
+                retained.add(previousVersion);
+            }
+        }
+        int discarded = previousVersions.size()-retained.size();
+        previousVersions = retained;
+        history = new VersionHistory(retained);
+        return new CompactionReport(versionCount(), discarded, countRetainedNodes());
+    }
+    
+    /**
+     * Count the distinct nodes reachable from the retained versions
+     * A subtree that has already been counted is shared as a whole, so it is skipped
+     * @return number of distinct nodes
+     */
+    private int countRetainedNodes() {
+        Set<BinaryTreeNode> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<BinaryTreeNode> stack = new ArrayDeque<>();
+        if (rootNode != null) {
+            stack.push(rootNode);
+        }
+        for (Version previousVersion : previousVersions) {
+            if (previousVersion.root != null) {
+                stack.push(previousVersion.root);
+            }
+        }
+        while (!stack.isEmpty()) {
+            BinaryTreeNode node = stack.pop();
+            if (counted.add(node)) {
+                if (node.leftChild != null) {
+                    stack.push(node.leftChild);
+                }
+                if (node.rightChild != null) {
+                    stack.push(node.rightChild);
+                }
+            }
+        }
+        return counted.size();
+    }
+    
+    /**
+     * Measure the memory held by the retained versions, counting each shared node once
+     * Every retained root is walked once. A node first reached from one version belongs to that version until another
+     * version reaches it, which marks it and its subtree as shared; a shared subtree is never entered again, so the
+     * walk is proportional to the distinct nodes rather than to the sum of the version sizes
+     * @return report of the distinct, shared and unique nodes of the retained versions
+     */
+    public MemoryReport analyzeMemory() {
+        ArrayList<Version> versions = new ArrayList<>(previousVersions);
+        versions.add(current);
+        IdentityHashMap<BinaryTreeNode, Integer> owners = new IdentityHashMap<>(); //index of the only version reaching each node, or -1 if shared
+        ArrayDeque<BinaryTreeNode> stack = new ArrayDeque<>();
+        long naiveNodes = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            BinaryTreeNode root = versions.get(i).root;
+            if (root == null) {
+                continue;
+            }
+            naiveNodes += sizeOf(root);
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                BinaryTreeNode node = stack.pop();
+                Integer owner = owners.putIfAbsent(node, i);
+                if (owner == null) {
+                    pushChildren(stack, node);
+                } else if (owner != -1) {
+                    markShared(node, owners);
+                }
+            }
+        }
+        int[] numbers = new int[versions.size()];
+        int[] uniqueNodes = new int[versions.size()];
+        for (int i = 0; i < versions.size(); i++) {
+            numbers[i] = versions.get(i).number;
+        }
+        for (int owner : owners.values()) {
+            if (owner != -1) {
+                uniqueNodes[owner]++;
+            }
+        }
+        return new MemoryReport(numbers, uniqueNodes, owners.size(), naiveNodes, estimatedNodeBytes());
+    }
+    
+    // helper method that marks a node and every node below it that is not already shared as shared
+    // the subtree of a shared node is always shared, so the marking stops there
+    private void markShared(BinaryTreeNode node, IdentityHashMap<BinaryTreeNode, Integer> owners) {
+        ArrayDeque<BinaryTreeNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            BinaryTreeNode sharedNode = stack.pop();
+            Integer owner = owners.put(sharedNode, -1);
+            if (owner == null || owner != -1) {
+                pushChildren(stack, sharedNode);
+            }
+        }
+    }
+    
+    private void pushChildren(ArrayDeque<BinaryTreeNode> stack, BinaryTreeNode node) {
+        if (node.leftChild != null) {
+            stack.push(node.leftChild);
+        }
+        if (node.rightChild != null) {
+            stack.push(node.rightChild);
+        }
+    }
+    
+    /**
+     * Write the retained versions numbered from one number to another as a Graphviz DOT graph, in which each physical
+     * node appears once however many versions share it
+     * Every version is a box with an edge to its root, so a node with edges from several parents is shared between
+     * versions. The graph is streamed to out as the nodes are reached, holding only an id for each node already written
+     * @param from number of the earliest version to include
+     * @param to number of the latest version to include
+     * @param out destination of the graph, such as a Writer
+     * @throws IOException if out cannot be written
+     */
+    public void exportDot(int from, int to, Appendable out) throws IOException {
+        ArrayList<Version> versions = new ArrayList<>(previousVersions);
+        versions.add(current);
+        IdentityHashMap<BinaryTreeNode, Integer> ids = new IdentityHashMap<>();
+        ArrayDeque<BinaryTreeNode> stack = new ArrayDeque<>();
+        out.append("digraph versions {\n");
+        for (Version version : versions) {
+            if (version.number < from || version.number > to) {
+                continue;
+            }
+            String label = version.tag == null ? "v"+version.number : "v"+version.number+" "+version.tag;
+            out.append("  v").append(String.valueOf(version.number)).append(" [shape=box, label=")
+                    .append(dotString(label)).append("];\n");
+            if (version.root == null) {
+                continue;
+            }
+            Integer rootId = ids.get(version.root);
+            if (rootId == null) {
+                rootId = ids.size();
+                ids.put(version.root, rootId);
+                stack.push(version.root);
+            }
+            out.append("  v").append(String.valueOf(version.number)).append(" -> n").append(String.valueOf(rootId))
+                    .append(";\n");
+            while (!stack.isEmpty()) { // writes each node reached for the first time, with the edges to its children
+                BinaryTreeNode node = stack.pop();
+                int id = ids.get(node);
+                out.append("  n").append(String.valueOf(id)).append(" [label=").append(dotString(node.label()))
+                        .append("];\n");
+                writeDotEdge(node.leftChild, id, "L", ids, stack, out);
+                writeDotEdge(node.rightChild, id, "R", ids, stack, out);
+            }
+        }
+        out.append("}\n");
+    }
+    
+    // helper method that writes the edge from a node to a child, stacking the child if it has not been reached before
+    private void writeDotEdge(BinaryTreeNode child, int parentId, String side, IdentityHashMap<BinaryTreeNode, Integer> ids,
+            ArrayDeque<BinaryTreeNode> stack, Appendable out) throws IOException {
+        if (child == null) {
+            return;
+        }
+        Integer childId = ids.get(child);
+        if (childId == null) {
+            childId = ids.size();
+            ids.put(child, childId);
+            stack.push(child);
+        }
+        out.append("  n").append(String.valueOf(parentId)).append(" -> n").append(String.valueOf(childId))
+                .append(" [label=").append(side).append("];\n");
+    }
+    
+    // helper method that quotes text as a DOT string
+    private static String dotString(String text) {
+        return "\""+text.replace("\\", "\\\\").replace("\"", "\\\"")+"\"";
+    }
+    
+    /**
+     * Estimate the heap bytes of one node, not counting its element
+     * Assumes a 64-bit JVM with compressed references: a 12 byte header, 4 bytes per reference and int, 8 bytes for
+     * the key prefix, rounded up to a multiple of 8
+     * @return estimated bytes per node
+     */
+    protected int estimatedNodeBytes() {
+        return 48;
+    }
+    
+    /**
+     * Commit the tree under rootNode as the new current version, publishing it to reader threads
+     * The version being replaced is kept as a previous version, even if it was empty, so that a version number
+     * always refers to the same contents
+     */
+    private void publish() {
+        Version oldVersion = current;
+        previousVersions.add(oldVersion);
+        VersionHistory published = history;
+        history = published.size == previousVersions.size()-1 ? published.append(oldVersion)
+                : new VersionHistory(previousVersions); //previousVersions was changed directly
+        current = new Version(oldVersion.number+1, rootNode, System.nanoTime(), null);
+        for (Consumer<? super Version> listener : commitListeners) {
+            listener.accept(current);
+        }
+    }
+    
+    /**
+     * Register a listener that is called by the writer thread with each version as it is committed
+     * @param listener listener to call
+     */
+    public void addCommitListener(Consumer<? super Version> listener) {
+        commitListeners.add(listener);
+    }
+    
+    /**
+     * Stop calling a commit listener
+     * @param listener listener to remove
+     */
+    public void removeCommitListener(Consumer<? super Version> listener) {
+        commitListeners.remove(listener);
+    }
+    
+    /**
+     * Begin a batch of changes that will be committed as a single version
+     * Nodes created inside the batch are not part of any committed version, so later changes in the same batch
+     * update them in place instead of copying them again. Until the batch is committed, version(), published() and
+     * snapshot() still return the last committed version
+     */
+    public void beginBatch() {
+        if (openBatch != null) {
+            throw new IllegalStateException("A batch is already open");
+        }
+        openBatch = new Object();
+    }
+    
+    /**
+     * Commit the open batch, recording the version it started from once
+     */
+    public void commit() {
+        if (openBatch == null) {
+            throw new IllegalStateException("No batch is open");
+        }
+        openBatch = null;
+        if (rootNode != current.root) {
+            publish();
+        }
+    }
+    
+    /**
+     * Discard the changes made by the open batch, returning to the version it started from
+     */
+    public void rollback() {
+        if (openBatch == null) {
+            throw new IllegalStateException("No batch is open");
+        }
+        openBatch = null;
+        rootNode = current.root;
+    }
+    
+    /**
+     * Check whether a batch is open
+     * @return whether beginBatch has been called without a matching commit or rollback
+     */
+    public boolean isBatchOpen() {
+        return openBatch != null;
+    }
+    
+    /**
+     * Apply a group of changes as a single version
+     * The changes are committed if they complete, and rolled back if they throw an exception
+     * @param changes changes to make to this set
+     */
+    public void apply(Consumer<? super PersistentDynamicSet<E>> changes) {
+        beginBatch();
+        boolean completed = false;
+        try {
+            changes.accept(this);
+            completed = true;
+        } finally {
+            if (completed) {
+                commit();
+            } else {
+                rollback();
+            }
+        }
+    }
+    
+    /**
+     * Get a copy of a node that may be changed for the current version
+     * @param node node to copy
+     * @return a clone of the node, or the node itself if it was created by the open batch
+     */
+    protected BinaryTreeNode copyOf(BinaryTreeNode node) {
+        if (openBatch != null && node.batch == openBatch) {
+            return node;
+        }
+        if (metrics != null) {
+            metrics.cloned();
+        }
+        BinaryTreeNode copy = node.clone();
+        copy.batch = openBatch;
+        return copy;
+    }
+    
+    /**
+     * Make a new node, marking it as created by the open batch (if any)
+     * @param element element of the node
+     * @return new node
+     */
+    @Override
+    protected BinaryTreeNode makeNode(E element) {
+        BinaryTreeNode node = super.makeNode(element);
+        node.batch = openBatch;
+        return node;
     }
     
     /**
@@ -37,6 +606,9 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
     @Override
     protected void traverseHook(BinaryTreeNode visitedNode) {
         traversedNodes.add(visitedNode);
+        if (metrics != null) {
+            metrics.visited();
+        }
     }
     
     /**
@@ -50,7 +622,7 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
         while (!traversedNodes.isEmpty()) {
             BinaryTreeNode currentNode = popTraversalStack();
             
-            BinaryTreeNode clonedCurrentNode = currentNode.clone();
+            BinaryTreeNode clonedCurrentNode = copyOf(currentNode);
 
             if (currentNode.leftChild == oldChild) {
                 clonedCurrentNode.leftChild = newChild;
@@ -59,6 +631,7 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
             }  else {
                 throw new RuntimeException("Neither right or left");
             }
+            updateSize(clonedCurrentNode);
             newChild = clonedCurrentNode;
             oldChild = currentNode;
         }
@@ -76,12 +649,13 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
     @Override
     protected void insertNode(BinaryTreeNode oldParent, Direction direction, BinaryTreeNode newNode) {
         //Handle the inserted node
-        BinaryTreeNode newParent = oldParent.clone();
+        BinaryTreeNode newParent = copyOf(oldParent);
         if (direction == Direction.RIGHT_NODE) {
             newParent.rightChild = newNode;
         } else if (direction == Direction.LEFT_NODE) {
             newParent.leftChild = newNode;
         }
+        updateSize(newParent);
         
         //Remove the insertion node from the stack 
         popTraversalStack();
@@ -99,18 +673,407 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
     @Override
     public boolean add(E o) {
         traversedNodes.clear();
-        return super.add(o);
+        SetMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return super.add(o);
+        }
+        long start = metrics.beginOperation();
+        boolean added = super.add(o);
+        metrics.endOperation(true, added, start);
+        return added;
+    }
+       
+    /**
+     * Clear the ArrayList before doing a new remove operation
+     * @param o element to remove
+     * @return whether a node containing o was removed from the tree
+     */
+    @Override
+    public boolean remove(Object o) {
+        traversedNodes.clear();
+        SetMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return super.remove(o);
+        }
+        long start = metrics.beginOperation();
+        boolean removed = super.remove(o);
+        metrics.endOperation(false, removed, start);
+        return removed;
     }
        
+    /**
+     * Check whether the nodes of the tree can never change, which holds while no batch is open
+     * Every change outside a batch copies the nodes it touches, so a spliterator created now keeps seeing this version
+     * @return whether no batch is open
+     */
+    @Override
+    protected boolean isImmutable() {
+        return openBatch == null;
+    }
+    
+    /**
+     * Add the elements of a collection as a single version
+     * In a balanced set, a persistent dynamic set or version view with the same ordering is merged by union in
+     * O(m log(n/m+1)), reusing the subtrees the sets do not overlap in; any other collection is sorted into a tree
+     * first. An unbalanced set adds the elements one by one, as its tree may be too deep to split
+     * @param c elements to add
+     * @return whether the set changed
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (!isBalanced()) {
+            return inOneVersion(() -> {
+                boolean changed = false;
+                for (Object element : c.toArray()) { //c may be this set, whose nodes a batch changes in place
+                    changed |= add((E) element); //unchecked
+                }
+                return changed;
+            });
+        }
+        BinaryTreeNode other = shareableRoot(c);
+        if (other == null) {
+            if (c.isEmpty()) {
+                return false;
+            }
+            PersistentDynamicSet<E> sorted = newEmptySet();
+            sorted.load(c);
+            other = sorted.rootNode;
+        }
+        return replaceContents(combine(SetOperation.UNION, rootNode, other));
+    }
+    
+    /**
+     * Keep only the elements that are also in a collection, as a single version
+     * In a balanced set, a persistent dynamic set or version view with the same ordering is intersected in
+     * O(m log(n/m+1)); otherwise each element is checked with contains
+     * @param c elements to keep
+     * @return whether the set changed
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        BinaryTreeNode other = isBalanced() ? shareableRoot(c) : null;
+        if (other == null) {
+            return inOneVersion(() -> {
+                boolean changed = false;
+                for (Object element : toArray()) {
+                    if (!c.contains(element)) {
+                        changed |= remove(element);
+                    }
+                }
+                return changed;
+            });
+        }
+        return replaceContents(combine(SetOperation.INTERSECTION, rootNode, other));
+    }
+    
+    /**
+     * Remove the elements of a collection, as a single version
+     * In a balanced set, a persistent dynamic set or version view with the same ordering is subtracted in
+     * O(m log(n/m+1)); otherwise the elements are removed one by one
+     * @param c elements to remove
+     * @return whether the set changed
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        BinaryTreeNode other = isBalanced() ? shareableRoot(c) : null;
+        if (other == null) {
+            return inOneVersion(() -> {
+                boolean changed = false;
+                for (Object element : c.toArray()) { //c may be this set, whose nodes a batch changes in place
+                    changed |= remove(element);
+                }
+                return changed;
+            });
+        }
+        return replaceContents(combine(SetOperation.DIFFERENCE, rootNode, other));
+    }
+    
+    /**
+     * Set the pool that union, intersection and difference fork independent subtrees onto
+     * @param pool fork/join pool, the common pool by default
+     */
+    public void setSetOperationPool(ForkJoinPool pool) {
+        this.setOperationPool = Objects.requireNonNull(pool);
+    }
+    
+    // helper method that makes a change element by element, committing it as one version unless a batch is open
+    private boolean inOneVersion(BooleanSupplier change) {
+        if (openBatch != null) {
+            return change.getAsBoolean();
+        }
+        beginBatch();
+        boolean completed = false;
+        try {
+            boolean changed = change.getAsBoolean();
+            completed = true;
+            return changed;
+        } finally {
+            if (completed) {
+                commit();
+            } else {
+                rollback();
+            }
+        }
+    }
+    
+    // helper method that makes the result of a set operation the new root, if it changed the set
+    // union only adds and intersection and difference only remove, so an unchanged size means unchanged contents
+    private boolean replaceContents(BinaryTreeNode newRoot) {
+        if (sizeOf(newRoot) == sizeOf(rootNode)) {
+            return false;
+        }
+        replaceRootNode(newRoot == null ? null : toRoot(newRoot));
+        return true;
+    }
+    
+    /**
+     * Get the root of an immutable tree holding the elements of a collection, whose nodes this set can share
+     * @param c collection
+     * @return root of the collection's tree, or null if its nodes cannot be shared (or it is empty)
+     */
+    private BinaryTreeNode shareableRoot(Collection<?> c) {
+        if (!(c instanceof BinarySearchTree)) {
+            return null;
+        }
+        BinarySearchTree<E> tree = (BinarySearchTree<E>) c; //unchecked
+        if (!Objects.equals(tree.comparator(), comparator()) || tree.keyCodec() != keyCodec()) {
+            return null;
+        }
+        BinaryTreeNode root;
+        if (tree instanceof PersistentDynamicSet) {
+            root = ((PersistentDynamicSet<E>) tree).published().root; //committed nodes are never changed
+        } else if (tree.isFixedWholeTree()) {
+            root = tree.rootNode;
+        } else {
+            return null;
+        }
+        return root != null && canShare(root) ? root : null;
+    }
+    
+    /**
+     * Check whether the tree is kept balanced, so that split and join recurse only O(log n) deep
+     * @return false, as elements added in order make this tree a path
+     */
+    protected boolean isBalanced() {
+        return false;
+    }
+    
+    /**
+     * Check whether the nodes of another tree can become part of this tree
+     * @param root root of the other tree
+     * @return true, as an unbalanced tree can hold any nodes
+     */
+    protected boolean canShare(BinaryTreeNode root) {
+        return true;
+    }
+    
+    /**
+     * Make an empty set of the same kind, with the same ordering and key codec
+     * @return empty set
+     */
+    protected PersistentDynamicSet<E> newEmptySet() {
+        return new PersistentDynamicSet<>(comparator(), keyCodec());
+    }
+    
+    /**
+     * Prepare the result of a set operation to be the root of the tree
+     * @param node root of the result
+     * @return the node to use as the root
+     */
+    protected BinaryTreeNode toRoot(BinaryTreeNode node) {
+        return node;
+    }
+    
+    /**
+     * Join two trees and a middle node, where every element of left is less than the middle element and every
+     * element of right is greater. The trees are never changed; the returned tree may share their nodes
+     * This unbalanced version makes a copy of the middle node with left and right as its children
+     * @param left left tree, may be null
+     * @param middle node whose element goes between the trees (only its element is used)
+     * @param right right tree, may be null
+     * @return root of the joined tree
+     */
+    protected BinaryTreeNode join(BinaryTreeNode left, BinaryTreeNode middle, BinaryTreeNode right) {
+        return joinedNode(middle, left, right);
+    }
+    
+    /**
+     * Make a new node for the current version holding the element of a node, with the given children
+     * @param node node whose element to use
+     * @param left left child
+     * @param right right child
+     * @return new node
+     */
+    protected BinaryTreeNode joinedNode(BinaryTreeNode node, BinaryTreeNode left, BinaryTreeNode right) {
+        BinaryTreeNode copy = node.clone();
+        copy.batch = openBatch;
+        copy.leftChild = left;
+        copy.rightChild = right;
+        updateSize(copy);
+        return copy;
+    }
+    
+    /**
+     * The parts of a tree either side of a split element
+     */
+    private class Split {
+        private BinaryTreeNode left, right; //elements less than and greater than the split element
+        private boolean found; //whether the tree contained the split element
+    }
+    
+    // helper method that splits a tree around an element, in O(log n) joins
+    private Split split(BinaryTreeNode node, E element, long prefix) {
+        if (node == null) {
+            return new Split();
+        }
+        int comparison = compareToNode(element, prefix, node);
+        if (comparison == 0) {
+            Split split = new Split();
+            split.left = node.leftChild;
+            split.right = node.rightChild;
+            split.found = true;
+            return split;
+        }
+        if (comparison < 0) {
+            Split split = split(node.leftChild, element, prefix);
+            split.right = join(split.right, node, node.rightChild);
+            return split;
+        }
+        Split split = split(node.rightChild, element, prefix);
+        split.left = join(node.leftChild, node, split.left);
+        return split;
+    }
+    
+    // helper method that joins two trees whose elements are all in order, moving the last element of left to the middle
+    private BinaryTreeNode join2(BinaryTreeNode left, BinaryTreeNode right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        BinaryTreeNode[] last = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[1]; //unchecked
+        BinaryTreeNode rest = splitLast(left, last);
+        return join(rest, last[0], right);
+    }
+    
+    // helper method that removes the last node of a tree, returning the rest and putting the last node in last[0]
+    private BinaryTreeNode splitLast(BinaryTreeNode node, BinaryTreeNode[] last) {
+        if (node.rightChild == null) {
+            last[0] = node;
+            return node.leftChild;
+        }
+        BinaryTreeNode rest = splitLast(node.rightChild, last);
+        return join(node.leftChild, node, rest);
+    }
+    
+    /**
+     * Kinds of set operation computed by split and join
+     */
+    private enum SetOperation {
+        UNION,
+        INTERSECTION,
+        DIFFERENCE
+    }
+    
+    // helper method that computes a set operation on two trees, forking large subtrees onto the pool
+    private BinaryTreeNode combine(SetOperation operation, BinaryTreeNode first, BinaryTreeNode second) {
+        if (sizeOf(first)+sizeOf(second) < 2*PARALLEL_THRESHOLD) {
+            return combineSequential(operation, first, second);
+        }
+        return setOperationPool.invoke(new CombineTask(operation, first, second));
+    }
+    
+    // helper method that computes a set operation on two trees in the calling thread
+    private BinaryTreeNode combineSequential(SetOperation operation, BinaryTreeNode first, BinaryTreeNode second) {
+        if (first == null || second == null || first == second) {
+            return trivialResult(operation, first, second);
+        }
+        BinaryTreeNode pivot = operation == SetOperation.DIFFERENCE ? second : first;
+        BinaryTreeNode splitTree = operation == SetOperation.DIFFERENCE ? first : second;
+        Split split = split(splitTree, pivot.element, pivot.prefix);
+        BinaryTreeNode left, right;
+        if (operation == SetOperation.DIFFERENCE) {
+            left = combineSequential(operation, split.left, second.leftChild);
+            right = combineSequential(operation, split.right, second.rightChild);
+        } else {
+            left = combineSequential(operation, first.leftChild, split.left);
+            right = combineSequential(operation, first.rightChild, split.right);
+        }
+        return joinResult(operation, pivot, split.found, left, right);
+    }
+    
+    // helper method that returns the result of a set operation when a tree is empty, or both are the same tree
+    private BinaryTreeNode trivialResult(SetOperation operation, BinaryTreeNode first, BinaryTreeNode second) {
+        switch (operation) {
+            case UNION:
+                return first == null ? second : first;
+            case INTERSECTION:
+                return first == null || second == null ? null : first;
+            default:
+                return first == second ? null : first;
+        }
+    }
+    
+    // helper method that joins the results for the subtrees either side of the pivot
+    // union keeps the pivot, intersection keeps it if both trees hold it, and difference drops it
+    private BinaryTreeNode joinResult(SetOperation operation, BinaryTreeNode pivot, boolean found, BinaryTreeNode left, BinaryTreeNode right) {
+        boolean keepPivot = operation == SetOperation.UNION || (operation == SetOperation.INTERSECTION && found);
+        if (!keepPivot) {
+            return join2(left, right);
+        }
+        if (left == pivot.leftChild && right == pivot.rightChild) {
+            return pivot; //nothing changed below the pivot, so its subtree is reused as it is
+        }
+        return join(left, pivot, right);
+    }
+    
+    /**
+     * Task computing a set operation on two trees, which forks the pair of left subtrees while it computes the right
+     */
+    private class CombineTask extends RecursiveTask<BinaryTreeNode> {
+        private static final long serialVersionUID = 1L; //never serialized, declared as RecursiveTask is Serializable
+        private final SetOperation operation;
+        private final BinaryTreeNode first, second;
+
+        public CombineTask(SetOperation operation, BinaryTreeNode first, BinaryTreeNode second) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected BinaryTreeNode compute() {
+            if (sizeOf(first)+sizeOf(second) < 2*PARALLEL_THRESHOLD || first == null || second == null || first == second) {
+                return combineSequential(operation, first, second);
+            }
+            BinaryTreeNode pivot = operation == SetOperation.DIFFERENCE ? second : first;
+            BinaryTreeNode splitTree = operation == SetOperation.DIFFERENCE ? first : second;
+            Split split = split(splitTree, pivot.element, pivot.prefix);
+            CombineTask leftTask, rightTask;
+            if (operation == SetOperation.DIFFERENCE) {
+                leftTask = new CombineTask(operation, split.left, second.leftChild);
+                rightTask = new CombineTask(operation, split.right, second.rightChild);
+            } else {
+                leftTask = new CombineTask(operation, first.leftChild, split.left);
+                rightTask = new CombineTask(operation, first.rightChild, split.right);
+            }
+            leftTask.fork();
+            BinaryTreeNode right = rightTask.compute();
+            BinaryTreeNode left = leftTask.join();
+            return joinResult(operation, pivot, split.found, left, right);
+        }
+    }
+    
     /**
      * Replace the root node
      */
     @Override
     protected void replaceRootNode(BinaryTreeNode newRootNode) {
-        if (rootNode != null) {
-            previousVersions.add(rootNode);
-        } 
         rootNode = newRootNode;
+        if (openBatch == null) {
+            publish();
+        }
     }
     
     /**
@@ -121,13 +1084,14 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
      */
     protected void replaceRemovalNode(BinaryTreeNode oldParent, BinaryTreeNode removalNode, BinaryTreeNode replacementNode) {
         //Handle the first parent node
-        BinaryTreeNode newParent = oldParent.clone();
+        BinaryTreeNode newParent = copyOf(oldParent);
         if (removalNode == oldParent.leftChild) {
             newParent.leftChild = replacementNode;
         } else // removalNode==parentNode.rightChild
         {
             newParent.rightChild = replacementNode;
         }
+        updateSize(newParent);
         
         //Remove the first parent node from the stack 
         popTraversalStack();
@@ -144,7 +1108,7 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
     @Override
     protected BinaryTreeNode handleRightReplacement(BinaryTreeNode removalNode) {
         BinaryTreeNode oldReplacementNode = removalNode.rightChild;
-        BinaryTreeNode newReplacementNode = oldReplacementNode.clone();
+        BinaryTreeNode newReplacementNode = copyOf(oldReplacementNode);
         
         // replacementNode can be pushed up one level to replace removalNode, move the left child of removalNode to be the left child of replacementNode
         if (oldReplacementNode.leftChild == null) { //Insert removal left child into replacement node (left child)
@@ -155,7 +1119,8 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
             do { //find left-most descendant of right subtree of removalNode. Traverse left down both trees, copying each level of the tree
                 oldReplacementNode = oldReplacementNode.leftChild; //traverse down the old tree
                 newParentNode = newReplacementNode; //clone result of line above
-                newReplacementNode = oldReplacementNode.clone(); //traverse down the new tree
+                newParentNode.size--; //the parent loses the left-most descendant
+                newReplacementNode = copyOf(oldReplacementNode); //traverse down the new tree
                 newParentNode.leftChild = newReplacementNode; //link previous and new clone
             } while (oldReplacementNode.leftChild != null);
 
@@ -165,7 +1130,346 @@ public class PersistentDynamicSet<E> extends BinarySearchTree<E> {
             newReplacementNode.leftChild = removalNode.leftChild;
             newReplacementNode.rightChild = newRemovalNodeRightChild;
         }
+        updateSize(newReplacementNode);
 
         return newReplacementNode;
     }   
+    
+    /**
+     * The previous versions as published to reader threads
+     * A version is appended into the spare capacity of the array, beyond the size that earlier readers see, so
+     * the slots a reader can see never change and the array is only copied when it is full
+     */
+    private class VersionHistory {
+        private final Version[] versions;
+        private final int size;
+
+        private VersionHistory(Version[] versions, int size) {
+            this.versions = versions;
+            this.size = size;
+        }
+
+        private VersionHistory(ArrayList<Version> versions) {
+            this(versions.toArray((Version[]) new PersistentDynamicSet.Version[versions.size()+8]), versions.size()); //unchecked
+        }
+
+        private VersionHistory append(Version version) {
+            Version[] array = versions;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size*2+8);
+            }
+            array[size] = version;
+            return new VersionHistory(array, size+1);
+        }
+    }
+    
+    /**
+     * A committed version of the set
+     * The number of elements in the version is the subtree size of its root
+     */
+    public class Version {
+        public final int number;
+        public final BinaryTreeNode root;
+        public final long commitTime; //System.nanoTime() when the version was committed
+        public String tag; //tag pinning the version, null if it is not pinned
+
+        /**
+         * Construct a record of a version
+         * @param number version number
+         * @param root root node of the version
+         * @param commitTime System.nanoTime() when the version was committed
+         * @param tag tag pinning the version, null if it is not pinned
+         */
+        public Version(int number, BinaryTreeNode root, long commitTime, String tag) {
+            this.number = number;
+            this.root = root;
+            this.commitTime = commitTime;
+            this.tag = tag;
+        }
+        
+        /**
+         * Get an immutable view of the version
+         * @return read-only navigable set containing the elements of the version
+         */
+        public NavigableSet<E> view() {
+            return new BinarySearchTree<E>(root, comparator(), keyCodec());
+        }
+    }
+    
+    /**
+     * An element that was added or removed between two versions
+     * @param <E> 
+     */
+    public static class Change<E> {
+        public final E element;
+        public final boolean added; //true if the element was added, false if it was removed
+
+        public Change(E element, boolean added) {
+            this.element = element;
+            this.added = added;
+        }
+
+        @Override
+        public String toString() {
+            return (added ? "+" : "-")+element;
+        }
+    }
+    
+    /**
+     * Walks two versions in order, using a stack for each that holds the elements and unvisited subtrees still to come
+     * The top of each stack holds the smallest elements remaining in that version
+     */
+    private class DiffIterator implements Iterator<Change<E>> {
+        private final DiffCursor from, to;
+        private Change<E> next;
+
+        public DiffIterator(BinaryTreeNode fromRoot, BinaryTreeNode toRoot) {
+            from = new DiffCursor(fromRoot);
+            to = new DiffCursor(toRoot);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Change<E> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Change<E> change = next;
+            next = null;
+            return change;
+        }
+
+        // helper method that walks both versions until the next change, returning null when there is none
+        private Change<E> advance() {
+            while (!from.isEmpty() || !to.isEmpty()) {
+                if (to.isEmpty()) {
+                    if (from.topIsSubtree()) {
+                        from.expand();
+                    } else {
+                        return new Change<>(from.pop(), false);
+                    }
+                } else if (from.isEmpty()) {
+                    if (to.topIsSubtree()) {
+                        to.expand();
+                    } else {
+                        return new Change<>(to.pop(), true);
+                    }
+                } else if (from.topIsSubtree() && to.topIsSubtree()) {
+                    if (from.top() == to.top()) { //shared subtree
+                        from.pop();
+                        to.pop();
+                    } else if (from.top().size >= to.top().size) {
+                        from.expand();
+                    } else {
+                        to.expand();
+                    }
+                } else if (from.topIsSubtree()) {
+                    if (compare(to.top().element, from.topMinimum()) < 0) {
+                        return new Change<>(to.pop(), true);
+                    }
+                    from.expand();
+                } else if (to.topIsSubtree()) {
+                    if (compare(from.top().element, to.topMinimum()) < 0) {
+                        return new Change<>(from.pop(), false);
+                    }
+                    to.expand();
+                } else {
+                    int comparison = compare(from.top().element, to.top().element);
+                    if (comparison < 0) {
+                        return new Change<>(from.pop(), false);
+                    } else if (comparison > 0) {
+                        return new Change<>(to.pop(), true);
+                    }
+                    from.pop();
+                    to.pop();
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Stack of the nodes still to be visited in one version, each either a whole subtree or just its element
+     * The node holding the minimum of each subtree is kept with it once found, and passed down to the left subtree
+     * when the subtree is expanded, so each node is descended through at most once to find a minimum
+     */
+    private class DiffCursor {
+        private BinaryTreeNode[] nodes;
+        private boolean[] subtree; //whether the node at each level stands for its whole subtree
+        private BinaryTreeNode[] minimums; //node holding the minimum of the subtree at each level, null until needed
+        private int depth;
+
+        public DiffCursor(BinaryTreeNode root) {
+            nodes = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[16]; //unchecked
+            subtree = new boolean[16];
+            minimums = (BinaryTreeNode[]) new BinarySearchTree.BinaryTreeNode[16]; //unchecked
+            depth = 0;
+            if (root != null) {
+                push(root, true, null);
+            }
+        }
+
+        private void push(BinaryTreeNode node, boolean whole, BinaryTreeNode minimum) {
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2*depth);
+                subtree = Arrays.copyOf(subtree, 2*depth);
+                minimums = Arrays.copyOf(minimums, 2*depth);
+            }
+            nodes[depth] = node;
+            minimums[depth] = minimum;
+            subtree[depth++] = whole;
+        }
+
+        public boolean isEmpty() {
+            return depth == 0;
+        }
+
+        public BinaryTreeNode top() {
+            return nodes[depth-1];
+        }
+
+        public boolean topIsSubtree() {
+            return subtree[depth-1];
+        }
+
+        // returns the smallest element of the subtree at the top, descending to it only if it is not yet known
+        public E topMinimum() {
+            BinaryTreeNode minimum = minimums[depth-1];
+            if (minimum == null) {
+                minimum = top();
+                while (minimum.leftChild != null) {
+                    minimum = minimum.leftChild;
+                }
+                minimums[depth-1] = minimum;
+            }
+            return minimum.element;
+        }
+
+        public E pop() {
+            BinaryTreeNode node = nodes[--depth];
+            nodes[depth] = null;
+            minimums[depth] = null;
+            return node.element;
+        }
+
+        // replaces the subtree at the top by its left subtree, its element and its right subtree
+        // the left subtree has the same minimum as the whole subtree, so a known minimum is kept
+        public void expand() {
+            BinaryTreeNode node = nodes[--depth];
+            BinaryTreeNode minimum = minimums[depth];
+            if (node.rightChild != null) {
+                push(node.rightChild, true, null);
+            }
+            push(node, false, node);
+            if (node.leftChild != null) {
+                push(node.leftChild, true, minimum);
+            }
+        }
+    }
+    
+    /**
+     * Memory held by the retained versions of a set (see analyzeMemory)
+     */
+    public static class MemoryReport {
+        public final int distinctNodes; //nodes reachable from any retained version, each counted once
+        public final long naiveNodes; //sum of the version sizes, counting shared nodes once per version
+        public final long estimatedBytes; //estimated heap bytes of the distinct nodes, not counting the elements
+        public final int bytesPerNode;
+        private final int[] versionNumbers;
+        private final int[] uniqueNodes;
+
+        /**
+         * Construct a memory report
+         * @param versionNumbers numbers of the retained versions, oldest first
+         * @param uniqueNodes number of nodes reachable only from each retained version
+         * @param distinctNodes number of distinct nodes reachable from the retained versions
+         * @param naiveNodes sum of the numbers of nodes of the retained versions
+         * @param bytesPerNode estimated heap bytes per node
+         */
+        public MemoryReport(int[] versionNumbers, int[] uniqueNodes, int distinctNodes, long naiveNodes, int bytesPerNode) {
+            this.versionNumbers = versionNumbers;
+            this.uniqueNodes = uniqueNodes;
+            this.distinctNodes = distinctNodes;
+            this.naiveNodes = naiveNodes;
+            this.bytesPerNode = bytesPerNode;
+            this.estimatedBytes = (long) distinctNodes*bytesPerNode;
+        }
+
+        /**
+         * Get the number of retained versions, including the current version
+         * @return number of versions in the report
+         */
+        public int versionCount() {
+            return versionNumbers.length;
+        }
+
+        /**
+         * Get the number of nodes that only a version reaches, which dropping that version alone would free
+         * @param number version number
+         * @return number of nodes unique to the version
+         */
+        public int uniqueNodes(int number) {
+            int index = Arrays.binarySearch(versionNumbers, number);
+            if (index < 0) {
+                throw new NoSuchElementException("Version "+number+" is not retained");
+            }
+            return uniqueNodes[index];
+        }
+
+        /**
+         * Get the estimated heap bytes that dropping a version alone would free
+         * @param number version number
+         * @return estimated bytes of the nodes unique to the version
+         */
+        public long bytesFreedByDropping(int number) {
+            return (long) uniqueNodes(number)*bytesPerNode;
+        }
+
+        /**
+         * Get how many versions share each node on average
+         * @return naive node count divided by distinct node count, 1 when nothing is shared
+         */
+        public double sharingRatio() {
+            return distinctNodes == 0 ? 1 : (double) naiveNodes/distinctNodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d versions share %d distinct nodes (%d bytes estimated), %d nodes counted per version, sharing ratio %.2f",
+                    versionCount(), distinctNodes, estimatedBytes, naiveNodes, sharingRatio());
+        }
+    }
+    
+    /**
+     * Report of what a compaction retained
+     */
+    public static class CompactionReport {
+        public final int retainedVersions; //including the current version
+        public final int discardedVersions;
+        public final int retainedNodes; //distinct nodes reachable from the retained versions
+
+        /**
+         * Construct a compaction report
+         * @param retainedVersions number of versions retained, including the current version
+         * @param discardedVersions number of versions discarded
+         * @param retainedNodes number of distinct nodes reachable from the retained versions
+         */
+        public CompactionReport(int retainedVersions, int discardedVersions, int retainedNodes) {
+            this.retainedVersions = retainedVersions;
+            this.discardedVersions = discardedVersions;
+            this.retainedNodes = retainedNodes;
+        }
+
+        @Override
+        public String toString() {
+            return "Retained "+retainedVersions+" versions ("+discardedVersions+" discarded) sharing "+retainedNodes+" nodes";
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package dynamicsetproblem;
+
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+
+/**
+ * A persistent dynamic set of int keys, balanced as a left-leaning red-black tree
+ * The keys are held inline in the nodes and compared with plain arithmetic, so there is no boxing and no
+ * comparator call on the search path when the int methods are used. Versioning follows PersistentDynamicSet:
+ * each add or remove that changes the set commits a new version (or joins the open batch), the nodes of committed
+ * versions are never changed, and retained versions can be read with version(number)
+ * @author Tamati Rudd 18045626
+ */
+public class PersistentIntSet extends PersistentPrimitiveSet<Integer> {
+
+    /**
+     * Construct an empty persistent int set
+     */
+    public PersistentIntSet() {
+        super();
+    }
+
+    @Override
+    Integer box(long key) {
+        return (int) key;
+    }
+
+    @Override
+    boolean isKey(Object o) {
+        return o instanceof Integer;
+    }
+
+    @Override
+    long unbox(Object key) {
+        return (Integer) key;
+    }
+
+    /**
+     * Add a key, committing a new version if the key was not already in the set
+     * @param key key to add
+     * @return whether the key was added
+     */
+    public boolean add(int key) {
+        return addKey(key);
+    }
+
+    /**
+     * Remove a key, committing a new version if the key was in the set
+     * @param key key to remove
+     * @return whether the key was removed
+     */
+    public boolean remove(int key) {
+        return removeKey(key);
+    }
+
+    /**
+     * Check whether a key is in the set
+     * @param key key to find
+     * @return whether the key is in the set
+     */
+    public boolean contains(int key) {
+        return containsKey(key);
+    }
+
+    /**
+     * Get the smallest key in the set
+     * @return smallest key
+     * @throws java.util.NoSuchElementException if the set is empty
+     */
+    public int firstInt() {
+        return (int) firstKey();
+    }
+
+    /**
+     * Get the largest key in the set
+     * @return largest key
+     * @throws java.util.NoSuchElementException if the set is empty
+     */
+    public int lastInt() {
+        return (int) lastKey();
+    }
+
+    /**
+     * Get the number of keys in the set that are less than a key, in O(log n)
+     * @param key key to find the rank of
+     * @return the position the key has (or would have) in the set, starting from 0
+     */
+    public int rank(int key) {
+        return rankOf(key);
+    }
+
+    /**
+     * Get the key at a position of the set, in O(log n)
+     * @param index position of the key, starting from 0 for the smallest key
+     * @return the key at that position
+     */
+    public int select(int index) {
+        return (int) keyAt(index);
+    }
+
+    /**
+     * Get the keys of the set in ascending order
+     * @return array of keys
+     */
+    public int[] toIntArray() {
+        int[] keys = new int[size()];
+        PrimitiveIterator.OfInt iterator = iterator();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = iterator.nextInt();
+        }
+        return keys;
+    }
+
+    /**
+     * Apply a group of changes as a single version
+     * The changes are committed if they complete, and rolled back if they throw an exception
+     * @param changes changes to make to this set
+     */
+    public void apply(Consumer<? super PersistentIntSet> changes) {
+        applyBatch(() -> changes.accept(this));
+    }
+
+    /**
+     * Get an iterator over the keys of the set as it was when the iterator was created, in ascending order
+     * Removing through the iterator removes from the set, without disturbing the iteration
+     * @return iterator that does not box the keys when nextInt is used
+     */
+    @Override
+    public PrimitiveIterator.OfInt iterator() {
+        KeyIterator iterator = keyIterator();
+        return new PrimitiveIterator.OfInt() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public int nextInt() {
+                return (int) iterator.nextKey();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,1006 @@
+package dynamicsetproblem;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * The persistent left-leaning red-black tree shared by PersistentIntSet and PersistentLongSet
+ * Keys are held inline in the nodes as longs and compared with plain arithmetic, so there is no boxing and no
+ * comparator call on the search path; the subclasses only convert their keys to and from long. Each node also
+ * holds the size of its subtree, so rank, select and the size of a view take O(log n).
+ * Versioning follows PersistentDynamicSet: each change that alters the set outside a batch commits a new version,
+ * the nodes of committed versions are never changed, and any thread may read the retained versions
+ * @author Tamati Rudd 18045626
+ * @param <K> boxed key type
+ */
+abstract class PersistentPrimitiveSet<K> extends AbstractSet<K> implements VersionedSortedSet<K> {
+    private ArrayList<Version> previousVersions; //changed only by the writer thread, which republishes it at the next commit
+    private volatile Version current; //the last committed version, published for reader threads
+    private volatile VersionHistory history; //the previous versions, published for reader threads before current
+    private Node root; //root of the set as changed so far, which is current.root unless a batch is open
+    private Object building; //token marking the nodes that the change or batch being built may write to
+    private boolean batchOpen;
+    private boolean inserted; //whether the last insert added a node, as a batch changes its own nodes in place
+    private RetentionPolicy retentionPolicy;
+
+    PersistentPrimitiveSet() {
+        previousVersions = new ArrayList<>();
+        history = new VersionHistory(new Version[8], 0);
+        current = new Version(0, null, System.nanoTime());
+        retentionPolicy = RetentionPolicy.KEEP_ALL;
+    }
+
+    // conversions between the boxed keys of the subclass and the long keys of the tree
+    abstract K box(long key);
+
+    abstract boolean isKey(Object o);
+
+    abstract long unbox(Object key);
+
+    /**
+     * Get the number of versions of the set that are retained, including the current version
+     * This reads the published history, so it may be called from any thread
+     * @return number of retained versions
+     */
+    @Override
+    public int versionCount() {
+        return history.size+1;
+    }
+
+    @Override
+    public int currentVersion() {
+        return current.number;
+    }
+
+    /**
+     * Get an immutable view of the last committed version
+     * This may be called from any thread, and the view may be queried without locking while the writer continues
+     * @return read-only set containing the keys of the current version
+     */
+    @Override
+    public SortedSet<K> snapshot() {
+        return new View(current.root, Long.MIN_VALUE, Long.MIN_VALUE, true);
+    }
+
+    /**
+     * Get an immutable view of a version of the set
+     * This may be called from any thread
+     * @param number version number, from 0 (oldest) to currentVersion()
+     * @return read-only set containing the keys of that version
+     */
+    @Override
+    public SortedSet<K> version(int number) {
+        return new View(findVersion(number).root, Long.MIN_VALUE, Long.MIN_VALUE, true);
+    }
+
+    // helper method that finds a retained version by binary search, reading only the published history
+    private Version findVersion(int number) {
+        Version latest = current; //read before the history, which is published first, so it holds every earlier version
+        if (number == latest.number) {
+            return latest;
+        }
+        VersionHistory published = history;
+        int low = 0;
+        int high = published.size-1;
+        while (low <= high) {
+            int middle = (low+high) >>> 1;
+            int middleNumber = published.versions[middle].number;
+            if (middleNumber < number) {
+                low = middle+1;
+            } else if (middleNumber > number) {
+                high = middle-1;
+            } else {
+                return published.versions[middle];
+            }
+        }
+        if (number < 0 || number > latest.number) {
+            throw new IndexOutOfBoundsException("No version "+number);
+        }
+        throw new NoSuchElementException("Version "+number+" is no longer retained");
+    }
+
+    /**
+     * Pin a version with a tag, so that compaction always retains it
+     * @param number version number
+     * @param tag tag for the version
+     */
+    public void tag(int number, String tag) {
+        findVersion(number).tag = tag;
+    }
+
+    /**
+     * Remove the tag from a version, so that compaction may discard it
+     * @param number version number
+     */
+    public void untag(int number) {
+        tag(number, null);
+    }
+
+    /**
+     * Find the most recent version pinned with a tag
+     * @param tag tag of the version
+     * @return version number
+     */
+    public int taggedVersion(String tag) {
+        if (tag.equals(current.tag)) {
+            return current.number;
+        }
+        for (int i = previousVersions.size()-1; i >= 0; i--) {
+            if (tag.equals(previousVersions.get(i).tag)) {
+                return previousVersions.get(i).number;
+            }
+        }
+        throw new NoSuchElementException("No version tagged "+tag);
+    }
+
+    /**
+     * Set the policy deciding which previous versions are retained by compact()
+     * @param retentionPolicy retention policy
+     */
+    public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+    }
+
+    /**
+     * Get the policy deciding which previous versions are retained by compact()
+     * @return retention policy
+     */
+    public RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Discard the previous versions that the retention policy does not keep, so that nodes no longer shared
+     * with a retained version can be garbage collected. The current version is always retained
+     * @return report of the versions and distinct nodes retained after the compaction
+     */
+    public PersistentDynamicSet.CompactionReport compact() {
+        long now = System.nanoTime();
+        ArrayList<Version> retained = new ArrayList<>();
+        int newerVersions = previousVersions.size();
+        for (Version previousVersion : previousVersions) {
+            newerVersions--;
+            if (retentionPolicy.retains(newerVersions, now-previousVersion.commitTime, previousVersion.tag != null)) {
+                retained.add(previousVersion);
+            }
+        }
+        int discarded = previousVersions.size()-retained.size();
+        previousVersions = retained;
+        history = new VersionHistory(retained);
+        return new PersistentDynamicSet.CompactionReport(versionCount(), discarded, countRetainedNodes());
+    }
+
+    // helper method that counts the distinct nodes reachable from the retained versions and the set being built
+    // a subtree that has already been counted is shared as a whole, so it is skipped
+    private int countRetainedNodes() {
+        Set<Node> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+        }
+        for (Version previousVersion : previousVersions) {
+            if (previousVersion.root != null) {
+                stack.push(previousVersion.root);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            if (counted.add(node)) {
+                if (node.leftChild != null) {
+                    stack.push(node.leftChild);
+                }
+                if (node.rightChild != null) {
+                    stack.push(node.rightChild);
+                }
+            }
+        }
+        return counted.size();
+    }
+
+    /**
+     * Begin a batch of changes that will be committed as a single version
+     * Nodes created inside the batch are not part of any committed version, so later changes in the same batch
+     * update them in place instead of copying them again. Until the batch is committed, version() and snapshot()
+     * still return the last committed version
+     */
+    public void beginBatch() {
+        if (batchOpen) {
+            throw new IllegalStateException("A batch is already open");
+        }
+        batchOpen = true;
+        building = new Object();
+    }
+
+    /**
+     * Commit the open batch, recording the version it started from once
+     */
+    public void commit() {
+        if (!batchOpen) {
+            throw new IllegalStateException("No batch is open");
+        }
+        batchOpen = false;
+        if (root != current.root) {
+            publish();
+        }
+    }
+
+    /**
+     * Discard the changes made by the open batch, returning to the version it started from
+     */
+    public void rollback() {
+        if (!batchOpen) {
+            throw new IllegalStateException("No batch is open");
+        }
+        batchOpen = false;
+        building = null;
+        root = current.root;
+    }
+
+    /**
+     * Check whether a batch is open
+     * @return whether beginBatch has been called without a matching commit or rollback
+     */
+    public boolean isBatchOpen() {
+        return batchOpen;
+    }
+
+    // helper method that runs a group of changes as a batch, committing it if they complete and rolling it back if not
+    void applyBatch(Runnable changes) {
+        beginBatch();
+        boolean completed = false;
+        try {
+            changes.run();
+            completed = true;
+        } finally {
+            if (completed) {
+                commit();
+            } else {
+                rollback();
+            }
+        }
+    }
+
+    // helper method that makes a change key by key, committing it as one version unless a batch is open
+    private void inOneVersion(Runnable changes) {
+        if (batchOpen) {
+            changes.run();
+        } else {
+            applyBatch(changes);
+        }
+    }
+
+    // helper method that records the current version and publishes the set that was built
+    private void publish() {
+        building = null; //the nodes of the new version are now shared
+        Version oldVersion = current;
+        previousVersions.add(oldVersion); //kept even if empty, so that a number always refers to the same contents
+        VersionHistory published = history;
+        history = published.size == previousVersions.size()-1 ? published.append(oldVersion)
+                : new VersionHistory(previousVersions);
+        current = new Version(oldVersion.number+1, root, System.nanoTime());
+    }
+
+    // helper method that commits a change that altered the set, unless it is part of an open batch
+    private void changed() {
+        if (!batchOpen) {
+            publish();
+        }
+    }
+
+    // helper method that returns the root as it is now, making sure the rest of an open batch copies its nodes
+    // rather than changing them, so that a view or iterator created inside a batch is never disturbed
+    private Node stableRoot() {
+        if (batchOpen) {
+            building = new Object();
+        }
+        return root;
+    }
+
+    /**
+     * Add a key, committing a new version if the key was not already in the set
+     * @param key key to add
+     * @return whether the key was added
+     */
+    boolean addKey(long key) {
+        if (!batchOpen) {
+            building = new Object();
+        }
+        inserted = false;
+        Node newRoot = insert(root, key);
+        if (!inserted) {
+            return false;
+        }
+        newRoot.red = false;
+        root = newRoot;
+        changed();
+        return true;
+    }
+
+    /**
+     * Remove a key, committing a new version if the key was in the set
+     * @param key key to remove
+     * @return whether the key was removed
+     */
+    boolean removeKey(long key) {
+        if (!containsKey(key)) {
+            return false;
+        }
+        if (!batchOpen) {
+            building = new Object();
+        }
+        Node newRoot = own(root);
+        if (!isRed(newRoot.leftChild) && !isRed(newRoot.rightChild)) {
+            newRoot.red = true;
+        }
+        newRoot = delete(newRoot, key);
+        if (newRoot != null) {
+            newRoot.red = false;
+        }
+        root = newRoot;
+        changed();
+        return true;
+    }
+
+    boolean containsKey(long key) {
+        return find(root, key);
+    }
+
+    long firstKey() {
+        Node node = root;
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        while (node.leftChild != null) {
+            node = node.leftChild;
+        }
+        return node.key;
+    }
+
+    long lastKey() {
+        Node node = root;
+        if (node == null) {
+            throw new NoSuchElementException();
+        }
+        while (node.rightChild != null) {
+            node = node.rightChild;
+        }
+        return node.key;
+    }
+
+    /**
+     * Get the number of keys in the set that are less than a key, in O(log n)
+     * @param key key to find the rank of
+     * @return the position the key has (or would have) in the set, starting from 0
+     */
+    int rankOf(long key) {
+        return countBelow(root, key);
+    }
+
+    /**
+     * Get the key at a position of the set, in O(log n)
+     * @param index position of the key, starting from 0 for the smallest key
+     * @return the key at that position
+     */
+    long keyAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No key at "+index);
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = sizeOf(node.leftChild);
+            if (index < leftSize) {
+                node = node.leftChild;
+            } else if (index == leftSize) {
+                return node.key;
+            } else {
+                index -= leftSize+1;
+                node = node.rightChild;
+            }
+        }
+    }
+
+    // helper method that returns an iterator over the keys of the set as it is now, which removes from the set
+    KeyIterator keyIterator() {
+        return new KeyIterator(stableRoot(), Long.MIN_VALUE, Long.MIN_VALUE, true, true);
+    }
+
+    @Override
+    public boolean add(K key) {
+        return addKey(unbox(key));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return isKey(o) && removeKey(unbox(o));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return isKey(o) && containsKey(unbox(o));
+    }
+
+    @Override
+    public int size() {
+        return sizeOf(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Remove every key, committing a new version if the set was not empty
+     */
+    @Override
+    public void clear() {
+        if (root != null) {
+            root = null;
+            changed();
+        }
+    }
+
+    /**
+     * Add the keys of a collection as a single version
+     * @param c keys to add
+     * @return whether the set changed
+     */
+    @Override
+    public boolean addAll(Collection<? extends K> c) {
+        boolean[] changed = new boolean[1];
+        inOneVersion(() -> {
+            for (Object key : c.toArray()) { //c may be this set
+                changed[0] |= addKey(unbox(key));
+            }
+        });
+        return changed[0];
+    }
+
+    /**
+     * Keep only the keys that are also in a collection, as a single version
+     * @param c keys to keep
+     * @return whether the set changed
+     */
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean[] changed = new boolean[1];
+        inOneVersion(() -> {
+            for (Object key : toArray()) {
+                if (!c.contains(key)) {
+                    changed[0] |= removeKey(unbox(key));
+                }
+            }
+        });
+        return changed[0];
+    }
+
+    /**
+     * Remove the keys of a collection, as a single version
+     * @param c keys to remove
+     * @return whether the set changed
+     */
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        boolean[] changed = new boolean[1];
+        inOneVersion(() -> {
+            for (Object key : c.toArray()) { //c may be this set
+                changed[0] |= remove(key);
+            }
+        });
+        return changed[0];
+    }
+
+    /**
+     * Get the comparator of the set
+     * @return null, as keys are in ascending numeric order
+     */
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public K first() {
+        return box(firstKey());
+    }
+
+    @Override
+    public K last() {
+        return box(lastKey());
+    }
+
+    /**
+     * Get a read-only view of the keys of the set, as it is now, from fromKey (inclusive) to toKey (exclusive)
+     * @param fromKey low bound
+     * @param toKey high bound
+     * @return view of the keys in the range
+     */
+    @Override
+    public SortedSet<K> subSet(K fromKey, K toKey) {
+        return new View(stableRoot(), Long.MIN_VALUE, Long.MIN_VALUE, true).subSet(fromKey, toKey);
+    }
+
+    @Override
+    public SortedSet<K> headSet(K toKey) {
+        return new View(stableRoot(), Long.MIN_VALUE, Long.MIN_VALUE, true).headSet(toKey);
+    }
+
+    @Override
+    public SortedSet<K> tailSet(K fromKey) {
+        return new View(stableRoot(), Long.MIN_VALUE, Long.MIN_VALUE, true).tailSet(fromKey);
+    }
+
+    private static int sizeOf(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static boolean isRed(Node node) {
+        return node != null && node.red;
+    }
+
+    // helper method that checks whether a key is in the subtree of a node
+    private static boolean find(Node node, long key) {
+        while (node != null) {
+            if (key < node.key) {
+                node = node.leftChild;
+            } else if (key > node.key) {
+                node = node.rightChild;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // helper method that returns the number of keys in the subtree of a node that are less than a key
+    private static int countBelow(Node node, long key) {
+        int count = 0;
+        while (node != null) {
+            if (key <= node.key) {
+                node = node.leftChild;
+            } else {
+                count += sizeOf(node.leftChild)+1;
+                node = node.rightChild;
+            }
+        }
+        return count;
+    }
+
+    // helper method that returns a node that the change being built may write to, copying it if it is shared
+    private Node own(Node node) {
+        return node.owner == building ? node : new Node(node, building);
+    }
+
+    // helper method that inserts a key below node, returning node itself if the key is already present
+    private Node insert(Node node, long key) {
+        if (node == null) {
+            inserted = true;
+            return new Node(key, building);
+        }
+        if (key < node.key) {
+            Node leftChild = insert(node.leftChild, key);
+            if (!inserted) {
+                return node;
+            }
+            node = own(node);
+            node.leftChild = leftChild;
+        } else if (key > node.key) {
+            Node rightChild = insert(node.rightChild, key);
+            if (!inserted) {
+                return node;
+            }
+            node = own(node);
+            node.rightChild = rightChild;
+        } else {
+            return node;
+        }
+        return balance(node);
+    }
+
+    // helper method that deletes a key known to be below the owned node
+    private Node delete(Node node, long key) {
+        if (key < node.key) {
+            if (!isRed(node.leftChild) && !isRed(node.leftChild.leftChild)) {
+                node = moveRedLeft(node);
+            }
+            node.leftChild = delete(own(node.leftChild), key);
+        } else {
+            if (isRed(node.leftChild)) {
+                node = rotateRight(node);
+            }
+            if (key == node.key && node.rightChild == null) {
+                return null;
+            }
+            if (!isRed(node.rightChild) && !isRed(node.rightChild.leftChild)) {
+                node = moveRedRight(node);
+            }
+            if (key == node.key) {
+                Node successor = node.rightChild;
+                while (successor.leftChild != null) {
+                    successor = successor.leftChild;
+                }
+                node.key = successor.key;
+                node.rightChild = deleteMin(own(node.rightChild));
+            } else {
+                node.rightChild = delete(own(node.rightChild), key);
+            }
+        }
+        return balance(node);
+    }
+
+    // helper method that deletes the smallest key below the owned node
+    private Node deleteMin(Node node) {
+        if (node.leftChild == null) {
+            return null;
+        }
+        if (!isRed(node.leftChild) && !isRed(node.leftChild.leftChild)) {
+            node = moveRedLeft(node);
+        }
+        node.leftChild = deleteMin(own(node.leftChild));
+        return balance(node);
+    }
+
+    // helper method that restores the left-leaning red-black invariants and the subtree size at the owned node
+    private Node balance(Node node) {
+        if (isRed(node.rightChild) && !isRed(node.leftChild)) {
+            node = rotateLeft(node);
+        }
+        if (isRed(node.leftChild) && isRed(node.leftChild.leftChild)) {
+            node = rotateRight(node);
+        }
+        if (isRed(node.leftChild) && isRed(node.rightChild)) {
+            flipColours(node);
+        }
+        node.size = sizeOf(node.leftChild)+sizeOf(node.rightChild)+1;
+        return node;
+    }
+
+    // helper method that rotates the owned node left, returning the owned node that replaces it
+    private Node rotateLeft(Node node) {
+        Node rightChild = own(node.rightChild);
+        node.rightChild = rightChild.leftChild;
+        rightChild.leftChild = node;
+        rightChild.red = node.red;
+        node.red = true;
+        node.size = sizeOf(node.leftChild)+sizeOf(node.rightChild)+1;
+        rightChild.size = node.size+sizeOf(rightChild.rightChild)+1;
+        return rightChild;
+    }
+
+    // helper method that rotates the owned node right, returning the owned node that replaces it
+    private Node rotateRight(Node node) {
+        Node leftChild = own(node.leftChild);
+        node.leftChild = leftChild.rightChild;
+        leftChild.rightChild = node;
+        leftChild.red = node.red;
+        node.red = true;
+        node.size = sizeOf(node.leftChild)+sizeOf(node.rightChild)+1;
+        leftChild.size = sizeOf(leftChild.leftChild)+node.size+1;
+        return leftChild;
+    }
+
+    // helper method that flips the colours of the owned node and its children
+    private void flipColours(Node node) {
+        node.red = !node.red;
+        node.leftChild = own(node.leftChild);
+        node.leftChild.red = !node.leftChild.red;
+        node.rightChild = own(node.rightChild);
+        node.rightChild.red = !node.rightChild.red;
+    }
+
+    // helper method that makes the left child of the owned node or one of its children red
+    private Node moveRedLeft(Node node) {
+        flipColours(node);
+        if (isRed(node.rightChild.leftChild)) {
+            node.rightChild = rotateRight(node.rightChild);
+            node = rotateLeft(node);
+            flipColours(node);
+        }
+        return node;
+    }
+
+    // helper method that makes the right child of the owned node or one of its children red
+    private Node moveRedRight(Node node) {
+        flipColours(node);
+        if (isRed(node.leftChild.leftChild)) {
+            node = rotateRight(node);
+            flipColours(node);
+        }
+        return node;
+    }
+
+    /**
+     * The previous versions published to reader threads, which share one array that only the writer appends to
+     */
+    private static class VersionHistory {
+        private final Version[] versions;
+        private final int size;
+
+        private VersionHistory(Version[] versions, int size) {
+            this.versions = versions;
+            this.size = size;
+        }
+
+        private VersionHistory(ArrayList<Version> versions) {
+            this(versions.toArray(new Version[versions.size()+8]), versions.size());
+        }
+
+        private VersionHistory append(Version version) {
+            Version[] array = versions;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size*2+8);
+            }
+            array[size] = version;
+            return new VersionHistory(array, size+1);
+        }
+    }
+
+    /**
+     * A committed version of the set, whose nodes are never changed once published
+     */
+    private static class Version {
+        private final int number;
+        private final Node root;
+        private final long commitTime; //System.nanoTime() when the version was committed
+        private String tag; //tag pinning the version, null if it is not pinned
+
+        public Version(int number, Node root, long commitTime) {
+            this.number = number;
+            this.root = root;
+            this.commitTime = commitTime;
+        }
+    }
+
+    /**
+     * A node holding its key inline, with the size of its subtree
+     */
+    private static class Node {
+        private long key;
+        private Node leftChild, rightChild;
+        private boolean red;
+        private int size;
+        private final Object owner; //token of the change or batch that created this node
+
+        public Node(long key, Object owner) {
+            this.key = key;
+            this.red = true;
+            this.size = 1;
+            this.owner = owner;
+        }
+
+        public Node(Node node, Object owner) {
+            this.key = node.key;
+            this.leftChild = node.leftChild;
+            this.rightChild = node.rightChild;
+            this.red = node.red;
+            this.size = node.size;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * A read-only view of the keys of one tree from low (inclusive) to high (exclusive), or to the end if toEnd
+     * Bounds outside the view are rejected as TreeSet does
+     */
+    private class View extends AbstractSet<K> implements SortedSet<K> {
+        private final Node root;
+        private final long low, high;
+        private final boolean toEnd;
+
+        public View(Node root, long low, long high, boolean toEnd) {
+            this.root = root;
+            this.low = low;
+            this.high = high;
+            this.toEnd = toEnd;
+        }
+
+        // helper methods that determine whether a key is in the view, and whether it may be an exclusive high bound
+        private boolean inRange(long key) {
+            return key >= low && (toEnd || key < high);
+        }
+
+        private boolean inClosedRange(long key) {
+            return key >= low && (toEnd || key <= high);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return isKey(o) && inRange(unbox(o)) && find(root, unbox(o));
+        }
+
+        @Override
+        public int size() {
+            int lowRank = countBelow(root, low);
+            int highRank = toEnd ? sizeOf(root) : countBelow(root, high);
+            return Math.max(0, highRank-lowRank);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            KeyIterator iterator = new KeyIterator(root, low, high, toEnd, false);
+            return new Iterator<K>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    return box(iterator.nextKey());
+                }
+            };
+        }
+
+        @Override
+        public boolean add(K key) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only view");
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedSet<K> subSet(K fromKey, K toKey) {
+            long from = unbox(fromKey);
+            long to = unbox(toKey);
+            if (from > to) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            if (!inRange(from)) {
+                throw new IllegalArgumentException("fromKey out of range");
+            }
+            if (!inClosedRange(to)) {
+                throw new IllegalArgumentException("toKey out of range");
+            }
+            return new View(root, from, to, false);
+        }
+
+        @Override
+        public SortedSet<K> headSet(K toKey) {
+            long to = unbox(toKey);
+            if (!inClosedRange(to)) {
+                throw new IllegalArgumentException("toKey out of range");
+            }
+            return new View(root, low, to, false);
+        }
+
+        @Override
+        public SortedSet<K> tailSet(K fromKey) {
+            long from = unbox(fromKey);
+            if (!inRange(from)) {
+                throw new IllegalArgumentException("fromKey out of range");
+            }
+            return new View(root, from, high, toEnd);
+        }
+
+        @Override
+        public K first() {
+            Node node = root;
+            Node least = null;
+            while (node != null) { //find the smallest key not below low
+                if (node.key < low) {
+                    node = node.rightChild;
+                } else {
+                    least = node;
+                    node = node.leftChild;
+                }
+            }
+            if (least == null || !inRange(least.key)) {
+                throw new NoSuchElementException();
+            }
+            return box(least.key);
+        }
+
+        @Override
+        public K last() {
+            Node node = root;
+            Node greatest = null;
+            while (node != null) { //find the largest key below high
+                if (toEnd || node.key < high) {
+                    greatest = node;
+                    node = node.rightChild;
+                } else {
+                    node = node.leftChild;
+                }
+            }
+            if (greatest == null || !inRange(greatest.key)) {
+                throw new NoSuchElementException();
+            }
+            return box(greatest.key);
+        }
+    }
+
+    /**
+     * Iterator over the keys of one tree from low (inclusive) to high (exclusive), or to the end if toEnd,
+     * using an explicit stack of the nodes still to be visited. The tree is never changed, so an iterator over
+     * the set may remove keys from the set without disturbing the iteration
+     */
+    class KeyIterator {
+        private Node[] stack;
+        private int depth;
+        private final long high;
+        private final boolean toEnd;
+        private final boolean removesFromSet;
+        private long lastKey;
+        private boolean canRemove;
+
+        private KeyIterator(Node root, long low, long high, boolean toEnd, boolean removesFromSet) {
+            this.stack = new Node[16];
+            this.high = high;
+            this.toEnd = toEnd;
+            this.removesFromSet = removesFromSet;
+            Node node = root;
+            while (node != null) { //push the path to the first key not below low
+                if (node.key < low) {
+                    node = node.rightChild;
+                } else {
+                    push(node);
+                    node = node.leftChild;
+                }
+            }
+        }
+
+        private void push(Node node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, 2*depth);
+            }
+            stack[depth++] = node;
+        }
+
+        boolean hasNext() {
+            return depth > 0 && (toEnd || stack[depth-1].key < high);
+        }
+
+        long nextKey() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node node = stack[--depth];
+            stack[depth] = null;
+            for (Node child = node.rightChild; child != null; child = child.leftChild) {
+                push(child);
+            }
+            lastKey = node.key;
+            canRemove = true;
+            return lastKey;
+        }
+
+        void remove() {
+            if (!removesFromSet) {
+                throw new UnsupportedOperationException("Read-only view");
+            }
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            removeKey(lastKey);
+            canRemove = false;
+        }
+    }
+}
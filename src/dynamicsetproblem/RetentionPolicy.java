@@ -0,0 +1,88 @@
+package dynamicsetproblem;
+
+import java.time.Duration;
+
+/**
+ * Decides which previous versions of a persistent dynamic set are retained when it is compacted
+ * A version is retained if it is among the most recent versions kept by count, if it is younger than the
+ * maximum age, or if it has been pinned with a tag (unless tagged versions are not kept)
+ * @author Tamati Rudd 18045626
+ */
+public class RetentionPolicy {
+    /**
+     * Policy that retains every version
+     */
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(Integer.MAX_VALUE, null, true);
+    
+    private final int keepLast;
+    private final Duration maxAge;
+    private final boolean keepTagged;
+
+    /**
+     * Construct a retention policy
+     * @param keepLast number of most recent previous versions to retain
+     * @param maxAge versions committed less than this long ago are retained, null to retain none by age
+     * @param keepTagged whether versions pinned with a tag are always retained
+     */
+    public RetentionPolicy(int keepLast, Duration maxAge, boolean keepTagged) {
+        if (keepLast < 0) {
+            throw new IllegalArgumentException("keepLast must not be negative");
+        }
+        this.keepLast = keepLast;
+        this.maxAge = maxAge;
+        this.keepTagged = keepTagged;
+    }
+    
+    /**
+     * Policy that retains the most recent previous versions, and tagged versions
+     * @param count number of most recent previous versions to retain
+     * @return retention policy
+     */
+    public static RetentionPolicy keepLast(int count) {
+        return new RetentionPolicy(count, null, true);
+    }
+    
+    /**
+     * Policy that retains versions younger than a maximum age, and tagged versions
+     * @param maxAge versions committed less than this long ago are retained
+     * @return retention policy
+     */
+    public static RetentionPolicy keepYoungerThan(Duration maxAge) {
+        return new RetentionPolicy(0, maxAge, true);
+    }
+    
+    /**
+     * Get a policy that also retains the most recent previous versions
+     * @param count number of most recent previous versions to retain
+     * @return retention policy
+     */
+    public RetentionPolicy andKeepLast(int count) {
+        return new RetentionPolicy(count, maxAge, keepTagged);
+    }
+    
+    /**
+     * Get a policy that also retains versions younger than a maximum age
+     * @param maxAge versions committed less than this long ago are retained
+     * @return retention policy
+     */
+    public RetentionPolicy andKeepYoungerThan(Duration maxAge) {
+        return new RetentionPolicy(keepLast, maxAge, keepTagged);
+    }
+    
+    /**
+     * Decide whether a previous version is retained
+     * @param newerVersions number of previous versions that are more recent than this one
+     * @param ageNanos nanoseconds since the version was committed
+     * @param tagged whether the version is pinned with a tag
+     * @return whether the version is retained
+     */
+    public boolean retains(int newerVersions, long ageNanos, boolean tagged) {
+        return (keepTagged && tagged) || newerVersions < keepLast
+                || (maxAge != null && ageNanos < maxAge.toNanos());
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy[keepLast="+keepLast+", maxAge="+maxAge+", keepTagged="+keepTagged+"]";
+    }
+}
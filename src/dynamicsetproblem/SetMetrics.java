@@ -0,0 +1,320 @@
+package dynamicsetproblem;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Operation-level metrics of a persistent dynamic set, enabled with PersistentDynamicSet.enableMetrics()
+ * The set's writer thread records each add and remove: the path length traversed, the nodes cloned, the
+ * rotations and recolourings of the red-black fixups, and the latency. Any thread may poll snapshot(), or
+ * read the metrics through JMX once they are registered. A set whose metrics are disabled holds no
+ * SetMetrics, so its operations only test a null field
+ * @author Tamati Rudd 18045626
+ */
+public class SetMetrics implements SetMetricsMXBean {
+    private final IntSupplier versionCount; //reads the published version count, so it may be called from any thread
+    private final LongAdder adds, removes, unchanged, rotations, recolourings;
+    private final Histogram pathLengths, nodesCloned, latencies;
+    private ObjectName registeredName;
+    //tallies of the operation in progress, only used by the writer thread
+    private int operationPathLength;
+    private int operationNodesCloned;
+
+    SetMetrics(IntSupplier versionCount) {
+        this.versionCount = versionCount;
+        this.adds = new LongAdder();
+        this.removes = new LongAdder();
+        this.unchanged = new LongAdder();
+        this.rotations = new LongAdder();
+        this.recolourings = new LongAdder();
+        this.pathLengths = new Histogram();
+        this.nodesCloned = new Histogram();
+        this.latencies = new Histogram();
+    }
+
+    /**
+     * Start recording an add or remove
+     * @return start time, to pass to endOperation
+     */
+    long beginOperation() {
+        operationPathLength = 0;
+        operationNodesCloned = 0;
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish recording an add or remove
+     * @param add whether the operation was an add
+     * @param changed whether the operation changed the set
+     * @param start start time returned by beginOperation
+     */
+    void endOperation(boolean add, boolean changed, long start) {
+        latencies.record(System.nanoTime()-start);
+        if (!changed) {
+            unchanged.increment();
+        } else if (add) {
+            adds.increment();
+        } else {
+            removes.increment();
+        }
+        pathLengths.record(operationPathLength);
+        nodesCloned.record(operationNodesCloned);
+    }
+
+    void visited() {
+        operationPathLength++;
+    }
+
+    void cloned() {
+        operationNodesCloned++;
+    }
+
+    void rotated() {
+        rotations.increment();
+    }
+
+    void recoloured() {
+        recolourings.increment();
+    }
+
+    /**
+     * Take a consistent-enough copy of the metrics for reporting
+     * Counters are read one after another while the writer may continue, so they can be a few operations apart
+     * @return snapshot of the metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     * @param name value of the name key of the object name, e.g. the name of the set
+     * @return object name the metrics were registered under
+     * @throws JMException if the metrics cannot be registered
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (registeredName != null) {
+            throw new IllegalStateException("Metrics are already registered as "+registeredName);
+        }
+        ObjectName objectName = new ObjectName("dynamicsetproblem:type=SetMetrics,name="+ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregister the metrics from the platform MBean server, if they are registered
+     * @throws JMException if the metrics cannot be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(registeredName)) {
+                server.unregisterMBean(registeredName);
+            }
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public void reset() {
+        adds.reset();
+        removes.reset();
+        unchanged.reset();
+        rotations.reset();
+        recolourings.reset();
+        pathLengths.reset();
+        nodesCloned.reset();
+        latencies.reset();
+    }
+
+    @Override
+    public long getAdds() {
+        return adds.sum();
+    }
+
+    @Override
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    @Override
+    public long getUnchangedOperations() {
+        return unchanged.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations.sum();
+    }
+
+    @Override
+    public long getRecolourings() {
+        return recolourings.sum();
+    }
+
+    @Override
+    public int getVersionCount() {
+        return versionCount.getAsInt();
+    }
+
+    @Override
+    public double getMeanPathLength() {
+        return pathLengths.mean();
+    }
+
+    @Override
+    public long getMaxPathLength() {
+        return pathLengths.max();
+    }
+
+    @Override
+    public double getMeanNodesCloned() {
+        return nodesCloned.mean();
+    }
+
+    @Override
+    public long getMaxNodesCloned() {
+        return nodesCloned.max();
+    }
+
+    @Override
+    public double getMeanLatencyNanos() {
+        return latencies.mean();
+    }
+
+    @Override
+    public long getP99LatencyNanos() {
+        return latencies.percentile(0.99);
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return latencies.max();
+    }
+
+    /**
+     * Histogram of non-negative values in power-of-two buckets
+     * Bucket 0 counts zeros and bucket b counts values from 2^(b-1) to 2^b-1, so percentiles are upper bounds
+     * within a factor of two
+     */
+    private static class Histogram {
+        private final AtomicLongArray buckets;
+        private final LongAdder count, sum;
+        private final LongAccumulator max;
+
+        public Histogram() {
+            this.buckets = new AtomicLongArray(Long.SIZE);
+            this.count = new LongAdder();
+            this.sum = new LongAdder();
+            this.max = new LongAccumulator(Math::max, 0);
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(Long.SIZE-Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public double mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum()/n;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        // returns an upper bound of the value below which a fraction of the recorded values fall
+        public long percentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(fraction*total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : (1L<<i)-1, max());
+                }
+            }
+            return 0;
+        }
+
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        public Summary summary() {
+            return new Summary(count.sum(), mean(), percentile(0.5), percentile(0.99), max());
+        }
+    }
+
+    /**
+     * Summary of the values recorded by a histogram
+     */
+    public static final class Summary {
+        public final long count;
+        public final double mean;
+        public final long p50, p99; //upper bounds, within a factor of two
+        public final long max;
+
+        public Summary(long count, double mean, long p50, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean %.2f, p50 <= %d, p99 <= %d, max %d", mean, p50, p99, max);
+        }
+    }
+
+    /**
+     * The metrics at one point in time
+     */
+    public static final class Snapshot {
+        public final long adds, removes, unchangedOperations;
+        public final long rotations, recolourings;
+        public final int versionCount;
+        public final Summary pathLength; //nodes visited by the search of each add or remove
+        public final Summary nodesCloned; //existing nodes copied by each add or remove
+        public final Summary latencyNanos;
+
+        private Snapshot(SetMetrics metrics) {
+            this.adds = metrics.adds.sum();
+            this.removes = metrics.removes.sum();
+            this.unchangedOperations = metrics.unchanged.sum();
+            this.rotations = metrics.rotations.sum();
+            this.recolourings = metrics.recolourings.sum();
+            this.versionCount = metrics.versionCount.getAsInt();
+            this.pathLength = metrics.pathLengths.summary();
+            this.nodesCloned = metrics.nodesCloned.summary();
+            this.latencyNanos = metrics.latencies.summary();
+        }
+
+        @Override
+        public String toString() {
+            return "adds "+adds+", removes "+removes+", unchanged "+unchangedOperations
+                    +", rotations "+rotations+", recolourings "+recolourings+", versions "+versionCount
+                    +"\npath length: "+pathLength+"\nnodes cloned: "+nodesCloned+"\nlatency (ns): "+latencyNanos;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package dynamicsetproblem;
+
+/**
+ * Management interface of the metrics of a persistent dynamic set (see SetMetrics)
+ * Counts are since the metrics were enabled or last reset
+ * @author Tamati Rudd 18045626
+ */
+public interface SetMetricsMXBean {
+
+    long getAdds();
+
+    long getRemoves();
+
+    long getUnchangedOperations();
+
+    long getRotations();
+
+    long getRecolourings();
+
+    int getVersionCount();
+
+    double getMeanPathLength();
+
+    long getMaxPathLength();
+
+    double getMeanNodesCloned();
+
+    long getMaxNodesCloned();
+
+    double getMeanLatencyNanos();
+
+    long getP99LatencyNanos();
+
+    long getMaxLatencyNanos();
+
+    void reset();
+}
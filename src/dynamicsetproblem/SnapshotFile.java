@@ -0,0 +1,190 @@
+package dynamicsetproblem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * Writes a version of a set to an immutable snapshot file, and opens snapshot files as read-only sorted sets
+ *
+ * A snapshot file is a 32 byte header followed by the elements in fixed-width slots, laid out in Eytzinger
+ * (breadth-first) order of a complete binary search tree: slot k has its children in slots 2k and 2k+1.
+ * A search therefore touches the top levels of the tree in the first few pages of the file, and the file is
+ * searched in place through MappedByteBuffers without being deserialized. Opening a file only maps it, so
+ * startup time does not depend on the size of the set
+ *
+ * Header: magic "DSPSNAP1", format version (int), slot width (int), number of elements (long),
+ * number of the version that was written or -1 (int), reserved (int)
+ * @author Tamati Rudd 18045626
+ */
+public final class SnapshotFile {
+    private static final long MAGIC = 0x445350534E415031L; //"DSPSNAP1"
+    private static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final long MAX_SEGMENT_BYTES = 1L<<30; //a MappedByteBuffer holds at most 2GB, so large files are mapped in segments
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Write a version of a versioned set to a snapshot file, replacing any existing file
+     * @param set versioned set
+     * @param number number of the version to write
+     * @param file file to write
+     * @param codec codec for the elements
+     * @throws IOException if the file cannot be written
+     */
+    public static <E> void write(VersionedSortedSet<E> set, int number, Path file, ElementCodec<? super E> codec) throws IOException {
+        write(set.version(number), number, file, codec);
+    }
+
+    /**
+     * Write the elements of a sorted set to a snapshot file, replacing any existing file
+     * @param set sorted set, which must not change while it is written
+     * @param file file to write
+     * @param codec codec for the elements
+     * @throws IOException if the file cannot be written
+     */
+    public static <E> void write(SortedSet<E> set, Path file, ElementCodec<? super E> codec) throws IOException {
+        write(set, -1, file, codec);
+    }
+
+    private static <E> void write(SortedSet<E> set, int number, Path file, ElementCodec<? super E> codec) throws IOException {
+        long count = set.size();
+        int width = codec.width();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.putLong(0, MAGIC);
+            header.putInt(8, FORMAT_VERSION);
+            header.putInt(12, width);
+            header.putLong(16, count);
+            header.putInt(24, number);
+            header.putInt(28, 0);
+            Slots slots = new Slots(channel, FileChannel.MapMode.READ_WRITE, width, count);
+            Iterator<E> elements = set.iterator();
+            //visit the slots in order of the elements they hold, which is an inorder traversal of the implicit tree
+            long slot = 1;
+            while (slot <= count && 2*slot <= count) {
+                slot = 2*slot;
+            }
+            for (long i = 0; i < count; i++) {
+                if (!elements.hasNext()) {
+                    throw new IllegalStateException("Set changed while it was written");
+                }
+                codec.encode(elements.next(), slots.buffer(slot), slots.offset(slot));
+                slot = successor(slot, count);
+            }
+            slots.force();
+            header.force();
+        }
+    }
+
+    /**
+     * Open a snapshot file as a read-only sorted set
+     * @param file snapshot file
+     * @param codec codec the file was written with
+     * @param comparator ordering the file was written in (null for natural ordering)
+     * @return read-only sorted set backed by the mapped file
+     * @throws IOException if the file cannot be read or is not a snapshot file
+     */
+    public static <E> MappedSnapshotSet<E> open(Path file, ElementCodec<E> codec, Comparator<? super E> comparator) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a snapshot file: "+file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("Not a snapshot file: "+file);
+            }
+            if (header.getInt(8) != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format "+header.getInt(8)+": "+file);
+            }
+            int width = header.getInt(12);
+            long count = header.getLong(16);
+            if (width != codec.width()) {
+                throw new IOException("Snapshot slots are "+width+" bytes but the codec uses "+codec.width()+": "+file);
+            }
+            if (channel.size() < HEADER_SIZE+count*width) {
+                throw new IOException("Snapshot file is truncated: "+file);
+            }
+            Slots slots = new Slots(channel, FileChannel.MapMode.READ_ONLY, width, count);
+            return new MappedSnapshotSet<>(slots, codec, comparator, header.getInt(24)); //the mappings stay valid after the channel is closed
+        }
+    }
+
+    // helper method that returns the slot holding the next element in order, or 0 if slot holds the last
+    static long successor(long slot, long count) {
+        if (2*slot+1 <= count) {
+            slot = 2*slot+1;
+            while (2*slot <= count) {
+                slot = 2*slot;
+            }
+            return slot;
+        }
+        while ((slot&1) == 1) { //climb while slot is a right child
+            slot >>>= 1;
+        }
+        return slot>>>1;
+    }
+
+    // helper method that returns the slot holding the previous element in order, or 0 if slot holds the first
+    static long predecessor(long slot, long count) {
+        if (2*slot <= count) {
+            slot = 2*slot;
+            while (2*slot+1 <= count) {
+                slot = 2*slot+1;
+            }
+            return slot;
+        }
+        while (slot != 0 && (slot&1) == 0) { //climb while slot is a left child
+            slot >>>= 1;
+        }
+        return slot>>>1;
+    }
+
+    /**
+     * The element slots of a snapshot file, mapped in segments of whole slots
+     * Slots are numbered from 1, as the Eytzinger layout needs
+     */
+    static class Slots {
+        private final MappedByteBuffer[] segments;
+        private final long slotsPerSegment;
+        private final int width;
+        final long count;
+
+        public Slots(FileChannel channel, FileChannel.MapMode mode, int width, long count) throws IOException {
+            this.width = width;
+            this.count = count;
+            this.slotsPerSegment = Math.max(1, MAX_SEGMENT_BYTES/Math.max(1, width));
+            int segmentCount = (int) ((count+slotsPerSegment-1)/slotsPerSegment);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long first = i*slotsPerSegment;
+                long slotsInSegment = Math.min(slotsPerSegment, count-first);
+                segments[i] = channel.map(mode, HEADER_SIZE+first*width, slotsInSegment*width);
+            }
+        }
+
+        public ByteBuffer buffer(long slot) {
+            return segments[(int) ((slot-1)/slotsPerSegment)];
+        }
+
+        public int offset(long slot) {
+            return (int) ((slot-1)%slotsPerSegment)*width;
+        }
+
+        public void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package dynamicsetproblem;
+
+import java.util.SortedSet;
+
+/**
+ * A sorted set that keeps its previous versions readable
+ * Each change that alters the set commits a new version, numbered from 0. Committed versions are never changed,
+ * so the views returned here may be read from any thread while the set continues to change
+ * @author Tamati Rudd 18045626
+ * @param <E>
+ */
+public interface VersionedSortedSet<E> extends SortedSet<E> {
+
+    /**
+     * Get the number of versions of the set that are retained, including the current version
+     * @return number of retained versions
+     */
+    int versionCount();
+
+    /**
+     * Get the number of the current version
+     * @return current version number
+     */
+    int currentVersion();
+
+    /**
+     * Get an immutable view of a version of the set
+     * @param number version number, from 0 (oldest) to currentVersion()
+     * @return read-only sorted set containing the elements of that version
+     */
+    SortedSet<E> version(int number);
+
+    /**
+     * Get an immutable view of the last committed version
+     * @return read-only sorted set containing the elements of the current version
+     */
+    SortedSet<E> snapshot();
+}
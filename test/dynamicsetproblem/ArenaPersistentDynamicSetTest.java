@@ -0,0 +1,63 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/**
+ * Tests the arena-backed engine against java.util.TreeSet
+ * @author Tamati Rudd 18045626
+ */
+public class ArenaPersistentDynamicSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 20; seed++) {
+            VersionedSetChecks.checkHistory(new ArenaPersistentDynamicSet<>(), new Random(seed), 400, 100);
+        }
+    }
+
+    @Test
+    public void arenaGrowsPastOnePage() {
+        Random random = new Random(31);
+        ArenaPersistentDynamicSet<Integer> set = new ArenaPersistentDynamicSet<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        TreeSet<Integer> halfway = null;
+        int halfwayVersion = 0;
+        for (int i = 0; i < 20000; i++) { //copies far more nodes than one page of the arena holds
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            if (i == 10000) {
+                halfway = new TreeSet<>(expected);
+                halfwayVersion = set.currentVersion();
+            }
+        }
+        VersionedSetChecks.assertSameSet(expected, set, random);
+        VersionedSetChecks.assertSameSet(halfway, set.version(halfwayVersion), random);
+    }
+
+    @Test
+    public void comparatorOrderIsUsed() {
+        Random random = new Random(32);
+        ArenaPersistentDynamicSet<Integer> set = new ArenaPersistentDynamicSet<>(Comparator.reverseOrder());
+        TreeSet<Integer> expected = new TreeSet<>(Comparator.reverseOrder());
+        for (int i = 0; i < 500; i++) {
+            int key = random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        assertEquals(new ArrayList<>(expected.subSet(150, 50)), new ArrayList<>(set.subSet(150, 50)));
+    }
+}
@@ -0,0 +1,181 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/**
+ * Tests the red-black insert and delete of BalancedPersistentDynamicSet against java.util.TreeSet
+ * @author Tamati Rudd 18045626
+ */
+public class BalancedPersistentDynamicSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 20; seed++) {
+            BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+            VersionedSetChecks.checkHistory(set, new Random(seed), 400, 100);
+            checkAllVersions(set);
+        }
+    }
+
+    @Test
+    public void keyCodecDoesNotChangeTheOrdering() {
+        for (long seed = 0; seed < 5; seed++) {
+            BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>(null, KeyCodec.INTEGER);
+            VersionedSetChecks.checkHistory(set, new Random(seed), 400, 100);
+            checkAllVersions(set);
+        }
+    }
+
+    @Test
+    public void removingEveryElementKeepsTheTreeBalanced() {
+        Random random = new Random(42);
+        ArrayList<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, random);
+        BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        set.addAll(keys);
+        TreeSet<Integer> expected = new TreeSet<>(keys);
+        int fullVersion = set.currentVersion();
+        Collections.shuffle(keys, random);
+        for (int key : keys) {
+            assertTrue(set.remove(key));
+            assertFalse(set.remove(key));
+            expected.remove(key);
+            checkRedBlack(set.published().root);
+            assertEquals(expected.size(), set.size());
+        }
+        assertTrue(set.isEmpty());
+        assertEquals(new ArrayList<>(new TreeSet<>(keys)), new ArrayList<>(set.version(fullVersion)));
+        checkAllVersions(set);
+    }
+
+    @Test
+    public void removesInsideABatchCommitOneVersion() {
+        Random random = new Random(7);
+        BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 300, 200);
+        TreeSet<Integer> expected = new TreeSet<>(history.get(set.currentVersion()));
+        int before = set.currentVersion();
+        set.apply(s -> {
+            for (int i = 0; i < 200; i += 3) {
+                s.remove(i);
+                expected.remove(i);
+            }
+        });
+        assertEquals(before+1, set.currentVersion());
+        history.put(set.currentVersion(), expected);
+        VersionedSetChecks.checkVersions(set, history, random);
+        checkAllVersions(set);
+    }
+
+    @Test
+    public void setOperationsKeepTheTreeBalanced() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+            TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 150, 300);
+            for (int i = 0; i < 10; i++) {
+                BalancedPersistentDynamicSet<Integer> operand = new BalancedPersistentDynamicSet<>();
+                int count = random.nextInt(200);
+                for (int j = 0; j < count; j++) {
+                    operand.add(random.nextInt(300));
+                }
+                VersionedSetChecks.checkSetOperation(set, history, operand, random.nextInt(3), random);
+                checkRedBlack(operand.published().root);
+            }
+            checkAllVersions(set);
+        }
+    }
+
+    @Test
+    public void stringKeyCodecMatchesTreeSet() {
+        String[] stems = {"", "a", "commonpr", "commonprefix-", "\u00e9t\u00e9", "\u00ff\u00ff", "x\u0100", "\u4e2d\u6587"};
+        char[] alphabet = {'a', 'b', 'z', '\u00e9', '\u00ff', '\u0100', '\u4e2d', '\ud83d', '\ude00'};
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            BalancedPersistentDynamicSet<String> set = new BalancedPersistentDynamicSet<>(null, KeyCodec.STRING);
+            TreeSet<String> expected = new TreeSet<>();
+            TreeMap<Integer, ArrayList<String>> history = new TreeMap<>();
+            for (int i = 0; i < 400; i++) {
+                String key = randomString(random, stems, alphabet);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(key, expected.remove(key), set.remove(key));
+                } else {
+                    assertEquals(key, expected.add(key), set.add(key));
+                }
+                history.put(set.currentVersion(), new ArrayList<>(expected));
+                String probe = randomString(random, stems, alphabet);
+                assertEquals(probe, expected.contains(probe), set.contains(probe));
+                assertEquals(probe, expected.ceiling(probe), set.ceiling(probe));
+                assertEquals(probe, expected.floor(probe), set.floor(probe));
+                assertEquals(probe, expected.higher(probe), set.higher(probe));
+                assertEquals(probe, expected.lower(probe), set.lower(probe));
+            }
+            for (Integer number : history.keySet()) {
+                assertEquals(history.get(number), new ArrayList<>(set.version(number)));
+            }
+        }
+        assertFalse(KeyCodec.STRING.exact());
+        assertEquals(KeyCodec.STRING.prefix("commonprefix-a"), KeyCodec.STRING.prefix("commonprefix-b")); //the comparator decides
+        assertEquals(KeyCodec.STRING.prefix("x\u0100a"), KeyCodec.STRING.prefix("x\u4e2db"));
+        assertTrue(Long.compareUnsigned(KeyCodec.STRING.prefix("x\u00ff\u00ff"), KeyCodec.STRING.prefix("x\u0100")) < 0);
+    }
+
+    // returns one of the stems followed by a few characters of the alphabet, so that many keys share long prefixes
+    private static String randomString(Random random, String[] stems, char[] alphabet) {
+        StringBuilder key = new StringBuilder(stems[random.nextInt(stems.length)]);
+        for (int i = random.nextInt(4); i > 0; i--) {
+            key.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return key.toString();
+    }
+
+    // checks the red-black and subtree size invariants of every retained version
+    private static void checkAllVersions(BalancedPersistentDynamicSet<Integer> set) {
+        for (PersistentDynamicSet<Integer>.Version version : set.previousVersions) {
+            checkRedBlack(version.root);
+        }
+        checkRedBlack(set.published().root);
+    }
+
+    private static void checkRedBlack(BinarySearchTree<Integer>.BinaryTreeNode root) {
+        if (root != null) {
+            assertEquals("root is black", BalancedPersistentDynamicSet.Colour.BLACK, colourOf(root));
+        }
+        blackHeight(root, null, null);
+    }
+
+    // returns the black height of a subtree, checking that it is ordered between low and high (exclusive)
+    private static int blackHeight(BinarySearchTree<Integer>.BinaryTreeNode node, Integer low, Integer high) {
+        if (node == null) {
+            return 1;
+        }
+        assertTrue("ordered", (low == null || node.element > low) && (high == null || node.element < high));
+        if (colourOf(node) == BalancedPersistentDynamicSet.Colour.RED) {
+            assertEquals("red node has black children", BalancedPersistentDynamicSet.Colour.BLACK, colourOf(node.leftChild));
+            assertEquals("red node has black children", BalancedPersistentDynamicSet.Colour.BLACK, colourOf(node.rightChild));
+        }
+        int leftHeight = blackHeight(node.leftChild, low, node.element);
+        int rightHeight = blackHeight(node.rightChild, node.element, high);
+        assertEquals("equal black heights", leftHeight, rightHeight);
+        int leftSize = node.leftChild == null ? 0 : node.leftChild.size;
+        int rightSize = node.rightChild == null ? 0 : node.rightChild.size;
+        assertEquals("subtree size", leftSize+rightSize+1, node.size);
+        return leftHeight+(colourOf(node) == BalancedPersistentDynamicSet.Colour.BLACK ? 1 : 0);
+    }
+
+    private static BalancedPersistentDynamicSet.Colour colourOf(BinarySearchTree<Integer>.BinaryTreeNode node) {
+        return node == null ? BalancedPersistentDynamicSet.Colour.BLACK : ((BalancedPersistentDynamicSet<Integer>.RedBlackNode) node).colour;
+    }
+}
@@ -0,0 +1,213 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/**
+ * Tests the navigable views of BinarySearchTree, and of the versions of PersistentDynamicSet, against java.util.TreeSet
+ * @author Tamati Rudd 18045626
+ */
+public class BinarySearchTreeTest {
+
+    @Test
+    public void randomViewsMatchTreeSet() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = random.nextInt(100); i > 0; i--) {
+                expected.add(random.nextInt(100));
+            }
+            VersionedSetChecks.assertSameNavigableSet(expected, new BinarySearchTree<>(expected), random);
+        }
+    }
+
+    @Test
+    public void versionViewsMatchTreeSet() {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            PersistentDynamicSet<Integer> set = seed%2 == 0 ? new PersistentDynamicSet<>() : new BalancedPersistentDynamicSet<>();
+            for (Map.Entry<Integer, TreeSet<Integer>> entry : VersionedSetChecks.checkHistory(set, random, 200, 80).entrySet()) {
+                VersionedSetChecks.assertSameNavigableSet(entry.getValue(), set.version(entry.getKey()), random);
+            }
+            VersionedSetChecks.assertSameNavigableSet(new TreeSet<>(set), set.snapshot(), random);
+        }
+    }
+
+    @Test
+    public void equalExclusiveBoundsGiveAnEmptyView() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int i = 0; i < 10; i++) {
+            tree.add(i);
+        }
+        for (NavigableSet<Integer> view : new NavigableSet[] {tree.subSet(4, false, 4, false), tree.subSet(4, true, 4, false),
+                tree.subSet(4, false, 5, false), tree.subSet(4, false, 4, false).descendingSet()}) { //unchecked
+            assertEquals(0, view.size());
+            assertTrue(view.isEmpty());
+            assertArrayEquals(new Object[0], view.toArray());
+            assertEquals(0, view.stream().count());
+            assertEquals(0, view.spliterator().estimateSize());
+        }
+        assertEquals(1, tree.subSet(4, true, 4, true).size());
+    }
+
+    @Test
+    public void viewsOfViewsRejectTheSameBoundsAsTreeSet() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int i = 0; i < 30; i += 2) {
+            expected.add(i);
+            tree.add(i);
+        }
+        assertEquals(IllegalArgumentException.class, outcome(() -> expected.subSet(4, true, 10, true).subSet(0, true, 20, true)));
+        assertEquals(IllegalArgumentException.class, outcome(() -> tree.subSet(4, true, 10, true).subSet(0, true, 20, true)));
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(34)-2;
+            int to = random.nextInt(34)-2;
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            int innerFrom = random.nextInt(34)-2;
+            int innerTo = random.nextInt(34)-2;
+            boolean innerFromInclusive = random.nextBoolean();
+            boolean innerToInclusive = random.nextBoolean();
+            String message = from+" "+fromInclusive+" "+to+" "+toInclusive+" / "+innerFrom+" "+innerFromInclusive+" "+innerTo+" "+innerToInclusive;
+            assertEquals(message,
+                    outcome(() -> expected.subSet(from, fromInclusive, to, toInclusive).subSet(innerFrom, innerFromInclusive, innerTo, innerToInclusive)),
+                    outcome(() -> tree.subSet(from, fromInclusive, to, toInclusive).subSet(innerFrom, innerFromInclusive, innerTo, innerToInclusive)));
+            assertEquals(message,
+                    outcome(() -> expected.subSet(from, fromInclusive, to, toInclusive).headSet(innerTo, innerToInclusive)),
+                    outcome(() -> tree.subSet(from, fromInclusive, to, toInclusive).headSet(innerTo, innerToInclusive)));
+            assertEquals(message,
+                    outcome(() -> expected.subSet(from, fromInclusive, to, toInclusive).tailSet(innerFrom, innerFromInclusive)),
+                    outcome(() -> tree.subSet(from, fromInclusive, to, toInclusive).tailSet(innerFrom, innerFromInclusive)));
+            assertEquals(message,
+                    outcome(() -> expected.subSet(from, fromInclusive, to, toInclusive).descendingSet().headSet(innerTo, innerToInclusive)),
+                    outcome(() -> tree.subSet(from, fromInclusive, to, toInclusive).descendingSet().headSet(innerTo, innerToInclusive)));
+        }
+    }
+
+    @Test
+    public void endsOfViewsMatchTreeSet() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int i = 0; i < 30; i += 2) {
+            expected.add(i);
+            tree.add(i);
+        }
+        assertEquals(NoSuchElementException.class, attempt(() -> expected.subSet(5, 6).first()));
+        assertEquals(NoSuchElementException.class, attempt(() -> tree.subSet(5, 6).first()));
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(34)-2;
+            int to = from+random.nextInt(6);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            String message = from+" "+fromInclusive+" "+to+" "+toInclusive;
+            NavigableSet<Integer> expectedView = expected.subSet(from, fromInclusive, to, toInclusive);
+            NavigableSet<Integer> view = tree.subSet(from, fromInclusive, to, toInclusive);
+            assertEquals(message, attempt(expectedView::first), attempt(view::first));
+            assertEquals(message, attempt(expectedView::last), attempt(view::last));
+            assertEquals(message, attempt(() -> expectedView.descendingSet().first()), attempt(() -> view.descendingSet().first()));
+            assertEquals(message, attempt(() -> expectedView.descendingSet().last()), attempt(() -> view.descendingSet().last()));
+            assertEquals(message, attempt(() -> expected.headSet(to, toInclusive).first()), attempt(() -> tree.headSet(to, toInclusive).first()));
+            assertEquals(message, attempt(() -> expected.tailSet(from, fromInclusive).last()), attempt(() -> tree.tailSet(from, fromInclusive).last()));
+        }
+        assertEquals(NoSuchElementException.class, attempt(() -> new BinarySearchTree<Integer>().descendingSet().first()));
+    }
+
+    @Test
+    public void nullBoundsAreRejectedLikeTreeSet() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(i);
+            tree.add(i);
+        }
+        for (NavigableSet<Integer> set : new NavigableSet[] {expected, tree, expected.subSet(2, true, 8, true), tree.subSet(2, true, 8, true),
+                expected.descendingSet(), tree.descendingSet()}) { //unchecked
+            assertEquals(NullPointerException.class, outcome(() -> set.subSet(null, true, 5, true)));
+            assertEquals(NullPointerException.class, outcome(() -> set.subSet(5, true, null, true)));
+            assertEquals(NullPointerException.class, outcome(() -> (NavigableSet<Integer>) set.subSet(null, 5)));
+            assertEquals(NullPointerException.class, outcome(() -> set.headSet(null, false)));
+            assertEquals(NullPointerException.class, outcome(() -> set.tailSet(null, true)));
+            assertEquals(NullPointerException.class, outcome(() -> (NavigableSet<Integer>) set.headSet(null)));
+            assertEquals(NullPointerException.class, outcome(() -> (NavigableSet<Integer>) set.tailSet(null)));
+        }
+    }
+
+    @Test
+    public void parallelStreamsOfViewsAndVersionsMatchSequentialStreams() {
+        Random random = new Random(11);
+        PersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        Map<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 1500, 1000);
+        for (int i = 0; i < 40; i++) {
+            int number = random.nextInt(set.currentVersion()+1);
+            int from = random.nextInt(1000);
+            int to = from+random.nextInt(1000-from);
+            NavigableSet<Integer> version = (NavigableSet<Integer>) set.version(number);
+            TreeSet<Integer> expected = history.get(number);
+            NavigableSet<Integer>[] views = new NavigableSet[] {version, version.subSet(from, true, to, false),
+                version.headSet(to, true), version.tailSet(from, false)}; //unchecked
+            NavigableSet<Integer>[] expectedViews = new NavigableSet[] {expected, expected.subSet(from, true, to, false),
+                expected.headSet(to, true), expected.tailSet(from, false)}; //unchecked
+            for (int v = 0; v < views.length; v++) {
+                NavigableSet<Integer> view = views[v];
+                List<Integer> sequential = view.stream().collect(Collectors.toList());
+                assertEquals(new ArrayList<>(expectedViews[v]), sequential);
+                assertEquals(sequential.stream().mapToLong(Integer::longValue).sum(), view.parallelStream().mapToLong(Integer::longValue).sum());
+                assertEquals(sequential, view.parallelStream().collect(Collectors.toList()));
+                assertEquals(sequential, splitAll(view.spliterator()));
+            }
+        }
+    }
+
+    // splits a spliterator as far as it goes, checking that each part is exactly sized, and returns the elements in order
+    private static List<Integer> splitAll(Spliterator<Integer> spliterator) {
+        int required = Spliterator.ORDERED | Spliterator.SORTED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        assertEquals(required, spliterator.characteristics() & required);
+        long size = spliterator.getExactSizeIfKnown();
+        List<Integer> elements = new ArrayList<>();
+        Spliterator<Integer> prefix = spliterator.trySplit();
+        if (prefix != null) {
+            assertEquals(size, prefix.getExactSizeIfKnown()+spliterator.getExactSizeIfKnown());
+            elements.addAll(splitAll(prefix));
+            elements.addAll(splitAll(spliterator));
+        } else {
+            spliterator.forEachRemaining(elements::add);
+            assertEquals(0, spliterator.estimateSize());
+        }
+        assertEquals(size, elements.size());
+        return elements;
+    }
+
+    // returns the elements of the view made by a call, or the type of exception it threw
+    private static Object outcome(Supplier<NavigableSet<Integer>> view) {
+        try {
+            return new ArrayList<>(view.get());
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    // returns the element found by a call, or the type of exception it threw
+    private static Object attempt(Supplier<Integer> query) {
+        try {
+            return query.get();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Tests ConcurrentPersistentDynamicSet with several writer threads and readers of the published versions
+ * @author Tamati Rudd 18045626
+ */
+public class ConcurrentPersistentDynamicSetTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 2;
+    private static final int KEYS = 20000; //keys per writer
+
+    @Test
+    public void concurrentWritersLeaveTheExpectedSetAndConsistentVersions() throws InterruptedException {
+        ConcurrentPersistentDynamicSet<Integer> set = new ConcurrentPersistentDynamicSet<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                try {
+                    int lastNumber = 0;
+                    boolean last;
+                    do {
+                        last = !writing.get();
+                        int before = set.currentVersion();
+                        NavigableSet<Integer> version = set.snapshot();
+                        int after = set.currentVersion();
+                        assertTrue(before >= lastNumber);
+                        int changes = checkVersion(version);
+                        assertTrue(before+" <= "+changes+" <= "+after, before <= changes && changes <= after);
+                        lastNumber = after;
+                    } while (!last);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers[r].start();
+        }
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < writers.length; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < KEYS; i++) {
+                        assertTrue(set.add(keyOf(writer, i)));
+                        assertFalse(set.add(keyOf(writer, i)));
+                    }
+                    for (int i = 0; i < KEYS/2; i++) {
+                        assertTrue(set.remove(keyOf(writer, i)));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int writer = 0; writer < WRITERS; writer++) {
+            for (int i = KEYS/2; i < KEYS; i++) {
+                expected.add(keyOf(writer, i));
+            }
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        assertEquals(expected.size(), set.size());
+        assertEquals(WRITERS*(KEYS+KEYS/2), set.currentVersion());
+        assertEquals(WRITERS*(2*KEYS+KEYS/2), set.operationCount());
+    }
+
+    // the i-th key of a writer, so that the writers change disjoint keys
+    private static int keyOf(int writer, int i) {
+        return i*WRITERS+writer;
+    }
+
+    // checks that a published version is sorted and holds a state each writer passed through,
+    // returning the number of changes that made it
+    private static int checkVersion(NavigableSet<Integer> version) {
+        int[] lowest = new int[WRITERS];
+        int[] count = new int[WRITERS];
+        int size = 0;
+        Integer previous = null;
+        for (Integer key : version) {
+            assertTrue(previous == null || previous < key);
+            previous = key;
+            int writer = key%WRITERS;
+            int i = key/WRITERS;
+            if (count[writer] == 0) {
+                lowest[writer] = i;
+            }
+            assertEquals("keys of writer "+writer+" are not contiguous", lowest[writer]+count[writer], i);
+            count[writer]++;
+            size++;
+        }
+        assertEquals(size, version.size());
+        int changes = 0;
+        for (int writer = 0; writer < WRITERS; writer++) {
+            int added = count[writer] == 0 ? 0 : lowest[writer]+count[writer];
+            int removed = count[writer] == 0 ? 0 : lowest[writer];
+            assertTrue("writer "+writer+" removed before adding every key", removed == 0 || added == KEYS);
+            changes += added+removed;
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,60 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/**
+ * Tests the node-copying engine against java.util.TreeSet, where every version shares nodes through modification slots
+ * @author Tamati Rudd 18045626
+ */
+public class NodeCopyingDynamicSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 20; seed++) {
+            VersionedSetChecks.checkHistory(new NodeCopyingDynamicSet<>(), new Random(seed), 400, 100);
+        }
+    }
+
+    @Test
+    public void removeHeavyChangesMatchTreeSetInEveryVersion() {
+        Random random = new Random(11);
+        NodeCopyingDynamicSet<Integer> set = new NodeCopyingDynamicSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 300, 300);
+        TreeSet<Integer> expected = new TreeSet<>(history.get(set.currentVersion()));
+        for (int i = 0; i < 2000 && !expected.isEmpty(); i++) {
+            int key = random.nextInt(300);
+            assertEquals(expected.remove(key), set.remove(key));
+            history.put(set.currentVersion(), new TreeSet<>(expected));
+        }
+        VersionedSetChecks.checkVersions(set, history, random);
+    }
+
+    @Test
+    public void comparatorOrderIsUsedByEveryVersion() {
+        Random random = new Random(12);
+        NodeCopyingDynamicSet<Integer> set = new NodeCopyingDynamicSet<>(Comparator.reverseOrder());
+        TreeSet<Integer> expected = new TreeSet<>(Comparator.reverseOrder());
+        TreeMap<Integer, TreeSet<Integer>> history = new TreeMap<>();
+        for (int i = 0; i < 300; i++) {
+            int key = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+            TreeSet<Integer> contents = new TreeSet<>(Comparator.reverseOrder());
+            contents.addAll(expected);
+            history.put(set.currentVersion(), contents);
+        }
+        for (int number : history.keySet()) {
+            assertEquals(new ArrayList<>(history.get(number)), new ArrayList<>(set.version(number)));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that every version in a node log reads back the same as java.util.TreeSet, across reopening and recovery
+ * @author Tamati Rudd 18045626
+ */
+public class NodeLogStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyVersionReadsBackAfterReopening() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("random.log");
+        for (long seed = 0; seed < 4; seed++) {
+            Random random = new Random(seed);
+            TreeMap<Integer, TreeSet<Integer>> logged = new TreeMap<>();
+            PersistentDynamicSet<Integer> set = seed%2 == 0 ? new PersistentDynamicSet<>() : new BalancedPersistentDynamicSet<>();
+            try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+                store.setSyncOnCommit(false);
+                store.attach(set);
+                changeRandomly(set, store, logged, random, 200);
+            }
+            try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+                checkLog(store, logged, random);
+            }
+            file.toFile().delete();
+        }
+    }
+
+    @Test
+    public void restoredSetAppendsAfterTheHistory() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("restart.log");
+        Random random = new Random(5);
+        TreeMap<Integer, TreeSet<Integer>> logged = new TreeMap<>();
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+            store.attach(set);
+            logged.put(store.latestVersion(), new TreeSet<>(set));
+            for (int i = 0; i < 10; i++) {
+                set.add(i);
+                logged.put(store.latestVersion(), new TreeSet<>(set));
+            }
+            assertEquals(10, store.latestVersion()); //the empty version 0 is logged when the set is attached
+        }
+        for (int session = 0; session < 3; session++) {
+            try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+                checkLog(store, logged, random);
+                int latest = store.latestVersion();
+                BalancedPersistentDynamicSet<Integer> set = store.restore(latest, new BalancedPersistentDynamicSet<>());
+                store.attach(set);
+                assertEquals(latest+1, store.latestVersion()); //the restored version is logged after the history
+                logged.put(store.latestVersion(), new TreeSet<>(set));
+                for (int i = 0; i < 3; i++) {
+                    set.add(100*(session+1)+i);
+                    logged.put(store.latestVersion(), new TreeSet<>(set));
+                }
+                assertEquals(latest+4, store.latestVersion());
+                changeRandomly(set, store, logged, random, 50);
+            }
+        }
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            checkLog(store, logged, random);
+            assertTrue(store.restore(store.latestVersion(), new PersistentDynamicSet<>()).contains(302));
+        }
+    }
+
+    @Test
+    public void versionsCannotBeLoggedAtOrBeforeTheLatest() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("order.log");
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+            for (int i = 0; i < 5; i++) {
+                set.add(i);
+            }
+            PersistentDynamicSet<Integer>.Version early = set.published();
+            set.add(5);
+            store.append(set.published());
+            assertThrows(IllegalArgumentException.class, () -> store.append(early));
+            assertThrows(IllegalArgumentException.class, () -> store.append(set.published()));
+            assertEquals(6, store.latestVersion());
+        }
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnReopening() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("torn.log");
+        Random random = new Random(6);
+        TreeMap<Integer, TreeSet<Integer>> logged = new TreeMap<>();
+        BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        long completeSize;
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            store.attach(set);
+            changeRandomly(set, store, logged, random, 100);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            completeSize = channel.size();
+            ByteBuffer torn = ByteBuffer.allocate(30);
+            torn.putInt(0, 1000); //a frame header promising more bytes than were written
+            channel.write(torn, completeSize);
+        }
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            checkLog(store, logged, random);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            assertEquals(completeSize, channel.size());
+            channel.truncate(completeSize-3); //tear the last complete frame
+        }
+        logged.remove(logged.lastKey());
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            checkLog(store, logged, random);
+            BalancedPersistentDynamicSet<Integer> restored = store.restore(store.latestVersion(), new BalancedPersistentDynamicSet<>());
+            store.attach(restored);
+            logged.put(store.latestVersion(), new TreeSet<>(restored));
+            changeRandomly(restored, store, logged, random, 50);
+        }
+        try (NodeLogStore<Integer> store = NodeLogStore.open(file, ElementCodec.INTEGER, null)) {
+            checkLog(store, logged, random);
+        }
+    }
+
+    // makes random changes to an attached set, recording the contents of each version under its number in the log
+    private static void changeRandomly(PersistentDynamicSet<Integer> set, NodeLogStore<Integer> store,
+            TreeMap<Integer, TreeSet<Integer>> logged, Random random, int operations) {
+        logged.put(store.latestVersion(), new TreeSet<>(set));
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                set.remove(key);
+            } else {
+                set.add(key);
+            }
+            logged.put(store.latestVersion(), new TreeSet<>(set));
+        }
+    }
+
+    // checks that the log holds exactly the recorded versions, both searched on disk and restored
+    private static void checkLog(NodeLogStore<Integer> store, TreeMap<Integer, TreeSet<Integer>> logged, Random random) throws IOException {
+        assertEquals(logged.keySet(), store.versionNumbers());
+        assertEquals((int) logged.lastKey(), store.latestVersion());
+        for (Map.Entry<Integer, TreeSet<Integer>> entry : logged.entrySet()) {
+            BalancedPersistentDynamicSet<Integer> restored = store.restore(entry.getKey(), new BalancedPersistentDynamicSet<>());
+            assertEquals(new ArrayList<>(entry.getValue()), new ArrayList<>(restored));
+            long root = store.rootOffset(entry.getKey());
+            for (int i = 0; i < 20; i++) {
+                int probe = random.nextInt(110)-5;
+                assertEquals(entry.getValue().contains(probe), store.contains(root, probe));
+            }
+        }
+    }
+}
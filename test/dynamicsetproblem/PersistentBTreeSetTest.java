@@ -0,0 +1,83 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Test;
+
+/**
+ * Tests the persistent B+-tree against java.util.TreeSet, with fan-outs small enough to split and merge often
+ * @author Tamati Rudd 18045626
+ */
+public class PersistentBTreeSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        int[] fanOuts = {4, 5, 8, 32};
+        for (int fanOut : fanOuts) {
+            for (long seed = 0; seed < 8; seed++) {
+                VersionedSetChecks.checkHistory(new PersistentBTreeSet<>(fanOut, null), new Random(seed), 600, 200);
+            }
+        }
+    }
+
+    @Test
+    public void drainingTheTreeMergesEveryLevel() {
+        Random random = new Random(21);
+        PersistentBTreeSet<Integer> set = new PersistentBTreeSet<>(4, null);
+        ArrayList<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, random);
+        TreeSet<Integer> expected = new TreeSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = new TreeMap<>();
+        for (int key : keys) {
+            set.add(key);
+            expected.add(key);
+            history.put(set.currentVersion(), new TreeSet<>(expected));
+        }
+        Collections.shuffle(keys, random);
+        for (int key : keys) {
+            assertEquals(true, set.remove(key));
+            expected.remove(key);
+            history.put(set.currentVersion(), new TreeSet<>(expected));
+            assertEquals(expected.size(), set.size());
+        }
+        for (int i = 0; i < 200; i++) {
+            int number = random.nextInt(set.currentVersion()+1);
+            if (history.containsKey(number)) {
+                VersionedSetChecks.assertSameSet(history.get(number), set.version(number), random);
+            }
+        }
+    }
+
+    @Test
+    public void comparatorOrderIsUsedByEveryVersion() {
+        Random random = new Random(22);
+        PersistentBTreeSet<Integer> set = new PersistentBTreeSet<>(4, Comparator.reverseOrder());
+        TreeSet<Integer> expected = new TreeSet<>(Comparator.reverseOrder());
+        for (int i = 0; i < 500; i++) {
+            int key = random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+        }
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        assertEquals(expected.first(), set.first());
+        assertEquals(new ArrayList<>(expected.subSet(150, 50)), new ArrayList<>(set.subSet(150, 50)));
+    }
+
+    @Test
+    public void fanOutBelowFourIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new PersistentBTreeSet<Integer>(3, null));
+    }
+}
@@ -0,0 +1,316 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/**
+ * Tests PersistentDynamicSet against java.util.TreeSet, and its versions read from other threads
+ * @author Tamati Rudd 18045626
+ */
+public class PersistentDynamicSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 20; seed++) {
+            VersionedSetChecks.checkHistory(new PersistentDynamicSet<>(), new Random(seed), 400, 100);
+        }
+    }
+
+    @Test
+    public void diffMatchesTheDifferenceOfTwoVersions() {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            PersistentDynamicSet<Integer> set = seed%2 == 0 ? new PersistentDynamicSet<>() : new BalancedPersistentDynamicSet<>();
+            TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 300, 80);
+            ArrayList<Integer> numbers = new ArrayList<>(history.keySet());
+            for (int i = 0; i < 50; i++) {
+                int from = numbers.get(random.nextInt(numbers.size()));
+                int to = numbers.get(random.nextInt(numbers.size()));
+                ArrayList<String> expected = new ArrayList<>();
+                TreeSet<Integer> union = new TreeSet<>(history.get(from));
+                union.addAll(history.get(to));
+                for (int element : union) {
+                    boolean before = history.get(from).contains(element);
+                    boolean after = history.get(to).contains(element);
+                    if (before != after) {
+                        expected.add((after ? "+" : "-")+element);
+                    }
+                }
+                List<String> actual = set.diff(from, to)
+                        .map(change -> (change.added ? "+" : "-")+change.element)
+                        .collect(Collectors.toList());
+                assertEquals("diff "+from+" "+to, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void emptyVersionsKeepTheirNumber() {
+        for (PersistentDynamicSet<Integer> set : Arrays.asList(new PersistentDynamicSet<Integer>(), new BalancedPersistentDynamicSet<Integer>())) {
+            set.add(1);
+            set.remove(1);
+            assertEquals(2, set.currentVersion());
+            set.add(5);
+            assertEquals(Arrays.asList(), new ArrayList<>(set.version(0)));
+            assertEquals(Arrays.asList(1), new ArrayList<>(set.version(1)));
+            assertEquals(Arrays.asList(), new ArrayList<>(set.version(2)));
+            assertEquals(Arrays.asList(5), new ArrayList<>(set.version(3)));
+            assertEquals(Arrays.asList("+5"), set.diff(2, 3).map(change -> (change.added ? "+" : "-")+change.element)
+                    .collect(Collectors.toList()));
+            PersistentDynamicSet.CompactionReport report = set.compact(); //keeps every version, empty ones included
+            assertEquals(4, report.retainedVersions);
+            assertEquals(2, report.retainedNodes);
+            assertEquals(Arrays.asList(), new ArrayList<>(set.version(2)));
+        }
+    }
+
+    @Test
+    public void setOperationsMatchTreeSet() {
+        for (long seed = 0; seed < 30; seed++) {
+            Random random = new Random(seed);
+            PersistentDynamicSet<Integer> set = newSet(seed%2 == 0);
+            TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 100, 60);
+            for (int i = 0; i < 12; i++) {
+                VersionedSetChecks.checkSetOperation(set, history, randomOperand(random, 60), random.nextInt(3), random);
+            }
+        }
+    }
+
+    @Test
+    public void largeSetOperationsMatchTreeSet() {
+        Random random = new Random(3);
+        for (int operation = 0; operation < 3; operation++) {
+            PersistentDynamicSet<Integer> set = newSet(operation != 1);
+            set.apply(s -> fill(s, random, 6000, 12000));
+            TreeMap<Integer, TreeSet<Integer>> history = new TreeMap<>();
+            history.put(set.currentVersion(), new TreeSet<>(set));
+            PersistentDynamicSet<Integer> other = newSet(operation != 2); //large enough to fork onto the pool
+            other.apply(s -> fill(s, random, 6000, 12000));
+            VersionedSetChecks.checkSetOperation(set, history, other, operation, random);
+        }
+    }
+
+    @Test
+    public void setOperationsInsideABatchCommitOneVersion() {
+        Random random = new Random(11);
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 200, 100);
+        TreeSet<Integer> expected = new TreeSet<>(history.get(set.currentVersion()));
+        PersistentDynamicSet<Integer> added = newSet(true);
+        fill(added, random, 50, 200);
+        NavigableSet<Integer> removed = added.snapshot().subSet(50, true, 150, false);
+        ArrayList<Integer> kept = new ArrayList<>(expected.headSet(180));
+        int before = set.currentVersion();
+        set.apply(s -> {
+            s.addAll(added);
+            s.add(500);
+            s.removeAll(removed);
+            s.retainAll(kept);
+        });
+        expected.addAll(added);
+        expected.add(500);
+        expected.removeAll(removed);
+        expected.retainAll(kept);
+        assertEquals(before+1, set.currentVersion());
+        history.put(set.currentVersion(), expected);
+        VersionedSetChecks.checkVersions(set, history, random);
+    }
+
+    @Test
+    public void setOperationsOnAPathDoNotOverflowTheStack() {
+        int n = 20000;
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        set.apply(s -> {
+            for (int i = 0; i < n; i++) {
+                s.add(i); //ascending adds make the unbalanced tree a path
+            }
+        });
+        NavigableSet<Integer> path = set.snapshot();
+        int before = set.currentVersion();
+        assertTrue(set.addAll(Arrays.asList(n, n+1)));
+        assertEquals(n+2, set.size());
+        assertTrue(set.removeAll(Arrays.asList(0, n/2, n+1)));
+        assertEquals(n-1, set.size());
+        assertFalse(set.retainAll(set));
+        assertTrue(set.addAll(path));
+        assertTrue(set.retainAll(path.headSet(10, false)));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), new ArrayList<>(set));
+        assertTrue(set.removeAll(set));
+        assertTrue(set.isEmpty());
+        assertEquals(n, set.version(before).size());
+        assertEquals(Integer.valueOf(n-1), set.version(before).last());
+    }
+
+    @Test
+    public void memoryReportCountsSharedAndUniqueNodes() {
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        set.add(4); //v1: 4
+        set.add(2); //v2: copy of 4, new 2
+        set.add(6); //v3: copy of 4, the 2 of v2, new 6
+        set.add(1); //v4: copy of 4, copy of 2, the 6 of v3, new 1
+        PersistentDynamicSet.MemoryReport report = set.analyzeMemory();
+        assertEquals(5, report.versionCount());
+        assertEquals(8, report.distinctNodes); //four copies of 4, two of 2, one 6 and one 1
+        assertEquals(0+1+2+3+4, report.naiveNodes);
+        int[] unique = {0, 1, 1, 1, 3}; //the 2 of v2 and the 6 of v3 are each shared by two versions
+        for (int number = 0; number < unique.length; number++) {
+            assertEquals("version "+number, unique[number], report.uniqueNodes(number));
+            assertEquals(unique[number]*report.bytesPerNode, report.bytesFreedByDropping(number));
+        }
+        assertEquals(8L*report.bytesPerNode, report.estimatedBytes);
+        assertEquals(10.0/8, report.sharingRatio(), 1e-9);
+        set.setRetentionPolicy(RetentionPolicy.keepLast(1));
+        set.compact(); //keeps v3 and v4, so only the root copies of v1 and v2 are dropped
+        PersistentDynamicSet.MemoryReport compacted = set.analyzeMemory();
+        assertEquals(2, compacted.versionCount());
+        assertEquals(6, compacted.distinctNodes);
+        assertEquals(3+4, compacted.naiveNodes);
+        assertEquals(2, compacted.uniqueNodes(3)); //its root and the 2 it shared with v2
+        assertEquals(3, compacted.uniqueNodes(4));
+        assertThrows(NoSuchElementException.class, () -> compacted.uniqueNodes(2));
+    }
+
+    @Test
+    public void exportDotAndRenderMatchTheExpectedOutput() throws IOException {
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        set.add(4);
+        set.add(2);
+        set.add(6);
+        set.add(1);
+        set.tag(2, "base");
+        StringBuilder dot = new StringBuilder();
+        set.exportDot(1, 4, dot);
+        assertEquals(String.join("\n",
+                "digraph versions {",
+                "  v1 [shape=box, label=\"v1\"];",
+                "  v1 -> n0;",
+                "  n0 [label=\"4 (v1)\"];",
+                "  v2 [shape=box, label=\"v2 base\"];",
+                "  v2 -> n1;",
+                "  n1 [label=\"4 (v2)\"];",
+                "  n1 -> n2 [label=L];",
+                "  n2 [label=\"2 (v1)\"];",
+                "  v3 [shape=box, label=\"v3\"];",
+                "  v3 -> n3;",
+                "  n3 [label=\"4 (v3)\"];",
+                "  n3 -> n2 [label=L];", //the 2 of v2 is shared, so it is written once
+                "  n3 -> n4 [label=R];",
+                "  n4 [label=\"6 (v1)\"];",
+                "  v4 [shape=box, label=\"v4\"];",
+                "  v4 -> n5;",
+                "  n5 [label=\"4 (v4)\"];",
+                "  n5 -> n6 [label=L];",
+                "  n5 -> n4 [label=R];", //as is the 6 of v3
+                "  n6 [label=\"2 (v2)\"];",
+                "  n6 -> n7 [label=L];",
+                "  n7 [label=\"1 (v1)\"];",
+                "}", ""), dot.toString());
+        StringBuilder tree = new StringBuilder();
+        set.render(tree);
+        assertEquals(String.join("\n",
+                "4 (v4)",
+                "L:      2 (v2)",
+                "L:           1 (v1)",
+                "R:      6 (v1)", ""), tree.toString());
+        assertEquals(tree.toString(), set.toString());
+        tree.setLength(0);
+        ((BinarySearchTree<Integer>) set.version(3)).render(tree);
+        assertEquals(String.join("\n",
+                "4 (v3)",
+                "L:      2 (v1)",
+                "R:      6 (v1)", ""), tree.toString());
+    }
+
+    @Test
+    public void readersSeeEveryVersionWhileTheWriterCommits() throws InterruptedException {
+        PersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>(); //ascending adds would make a path of an unbalanced tree
+        set.add(0);
+        int versions = 20000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            long seed = r;
+            readers[r] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    int latest;
+                    do {
+                        latest = set.currentVersion();
+                        int number = 1+random.nextInt(latest);
+                        SortedSet<Integer> version = set.version(number); //version k holds 0 to k-1
+                        assertEquals(number, version.size());
+                        assertEquals(Integer.valueOf(number-1), version.last());
+                    } while (latest < versions);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            readers[r].start();
+        }
+        for (int i = 1; i < versions; i++) {
+            set.add(i);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+
+    private static PersistentDynamicSet<Integer> newSet(boolean balanced) {
+        return balanced ? new BalancedPersistentDynamicSet<>() : new PersistentDynamicSet<>();
+    }
+
+    private static void fill(Collection<Integer> set, Random random, int count, int keyRange) {
+        for (int i = 0; i < count; i++) {
+            set.add(random.nextInt(keyRange));
+        }
+    }
+
+    // returns a set of either engine, a version view of one, or a plain collection with duplicates
+    private static Collection<Integer> randomOperand(Random random, int keyRange) {
+        int count = random.nextInt(2*keyRange/3);
+        switch (random.nextInt(5)) {
+            case 0:
+            case 1: {
+                PersistentDynamicSet<Integer> operand = newSet(random.nextBoolean());
+                fill(operand, random, count, keyRange);
+                return operand;
+            }
+            case 2: {
+                PersistentDynamicSet<Integer> operand = newSet(random.nextBoolean());
+                fill(operand, random, count, keyRange);
+                NavigableSet<Integer> old = operand.snapshot();
+                operand.clear();
+                return random.nextBoolean() ? old : old.subSet(keyRange/4, true, 3*keyRange/4, false);
+            }
+            case 3: {
+                TreeSet<Integer> operand = new TreeSet<>();
+                fill(operand, random, count, keyRange);
+                return operand;
+            }
+            default: {
+                ArrayList<Integer> operand = new ArrayList<>();
+                fill(operand, random, count, keyRange);
+                return operand;
+            }
+        }
+    }
+}
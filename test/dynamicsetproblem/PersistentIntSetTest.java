@@ -0,0 +1,198 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+/**
+ * Tests the primitive int engine against java.util.TreeSet
+ * @author Tamati Rudd 18045626
+ */
+public class PersistentIntSetTest {
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 20; seed++) {
+            VersionedSetChecks.checkHistory(new PersistentIntSet(), new Random(seed), 400, 100);
+        }
+    }
+
+    @Test
+    public void setOperationsMatchTreeSet() {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            PersistentIntSet set = new PersistentIntSet();
+            TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 100, 60);
+            for (int i = 0; i < 10; i++) {
+                Collection<Integer> operand = random.nextBoolean() ? new PersistentIntSet() : new ArrayList<>();
+                for (int j = random.nextInt(40); j > 0; j--) {
+                    operand.add(random.nextInt(60));
+                }
+                VersionedSetChecks.checkSetOperation(set, history, operand, random.nextInt(3), random);
+            }
+        }
+    }
+
+    @Test
+    public void rankAndSelectMatchTheSortedOrder() {
+        Random random = new Random(3);
+        PersistentIntSet set = new PersistentIntSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 2000; i++) {
+            int key = random.nextInt(1000)-500;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+        }
+        ArrayList<Integer> keys = new ArrayList<>(expected);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals((int) keys.get(i), set.select(i));
+            assertEquals(i, set.rank(keys.get(i)));
+        }
+        for (int key = -510; key < 510; key++) {
+            assertEquals(expected.headSet(key).size(), set.rank(key));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> set.select(keys.size()));
+        assertArrayEquals(keys.stream().mapToInt(Integer::intValue).toArray(), set.toIntArray());
+    }
+
+    @Test
+    public void ascendingKeysKeepTheTreeBalanced() {
+        PersistentIntSet set = new PersistentIntSet();
+        int n = 200000;
+        set.apply(s -> {
+            for (int i = 0; i < n; i++) {
+                s.add(i); //a path this deep would overflow the recursive insert
+            }
+        });
+        set.apply(s -> {
+            for (int i = 0; i < n; i += 2) {
+                s.remove(i);
+            }
+        });
+        assertEquals(3, set.versionCount());
+        assertEquals(n/2, set.size());
+        assertEquals(n, set.version(1).size());
+        for (int i = 0; i < n/2; i += 997) {
+            assertEquals(2*i+1, set.select(i));
+        }
+        assertEquals(1, set.firstInt());
+        assertEquals(n-1, set.lastInt());
+    }
+
+    @Test
+    public void batchesCommitOneVersionOrNone() {
+        PersistentIntSet set = new PersistentIntSet();
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        int before = set.currentVersion();
+        SortedSet<Integer> inside = new TreeSet<>();
+        set.apply(s -> {
+            s.add(20);
+            inside.addAll(s.headSet(5)); //a view made inside the batch keeps the keys it was made with
+            SortedSet<Integer> view = s.subSet(0, 100);
+            for (PrimitiveIterator.OfInt iterator = s.iterator(); iterator.hasNext();) {
+                if (iterator.nextInt()%2 == 0) {
+                    iterator.remove();
+                }
+            }
+            assertEquals(11, view.size());
+            assertEquals(before, s.currentVersion());
+        });
+        assertEquals(before+1, set.currentVersion());
+        assertEquals(new TreeSet<>(Arrays.asList(0, 1, 2, 3, 4)), inside);
+        assertEquals(Arrays.asList(1, 3, 5, 7, 9), new ArrayList<>(set));
+        assertThrows(IllegalStateException.class, () -> set.apply(s -> {
+            s.clear();
+            throw new IllegalStateException();
+        }));
+        assertEquals(before+1, set.currentVersion());
+        assertEquals(5, set.size());
+        assertEquals(10, set.version(before).size());
+    }
+
+    @Test
+    public void viewsRejectTheSameBoundsAsTreeSet() {
+        TreeSet<Integer> expected = new TreeSet<>();
+        PersistentIntSet set = new PersistentIntSet();
+        for (int i = 0; i < 30; i += 2) {
+            expected.add(i);
+            set.add(i);
+        }
+        Random random = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            int from = random.nextInt(34)-2;
+            int to = random.nextInt(34)-2;
+            int innerFrom = random.nextInt(34)-2;
+            int innerTo = random.nextInt(34)-2;
+            String message = from+" "+to+" / "+innerFrom+" "+innerTo;
+            assertEquals(message, outcome(() -> expected.subSet(from, to)), outcome(() -> set.subSet(from, to)));
+            assertEquals(message, outcome(() -> expected.subSet(from, to).subSet(innerFrom, innerTo)),
+                    outcome(() -> set.snapshot().subSet(from, to).subSet(innerFrom, innerTo)));
+            assertEquals(message, outcome(() -> expected.headSet(to).tailSet(innerFrom).headSet(innerTo)),
+                    outcome(() -> set.headSet(to).tailSet(innerFrom).headSet(innerTo)));
+            assertEquals(message, ends(() -> expected.tailSet(from).headSet(to)), ends(() -> set.tailSet(from).headSet(to)));
+        }
+    }
+
+    @Test
+    public void compactionKeepsTheRetainedVersions() {
+        PersistentIntSet set = new PersistentIntSet();
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        set.tag(3, "three");
+        set.setRetentionPolicy(RetentionPolicy.keepLast(2));
+        PersistentDynamicSet.CompactionReport report = set.compact();
+        assertEquals(4, report.retainedVersions); //versions 3, 8, 9 and the current version 10
+        assertEquals(7, report.discardedVersions);
+        assertEquals(4, set.versionCount());
+        assertEquals(3, set.taggedVersion("three"));
+        assertEquals(Arrays.asList(0, 1, 2), new ArrayList<>(set.version(3)));
+        assertEquals(9, set.version(9).size());
+        assertThrows(NoSuchElementException.class, () -> set.version(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.version(11));
+    }
+
+    // returns the keys of the view made by a call, or the type of exception it threw
+    private static Object outcome(Supplier<SortedSet<Integer>> view) {
+        try {
+            return new ArrayList<>(view.get());
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    // returns the size, first and last keys of the view made by a call, or the type of exception it threw
+    private static Object ends(Supplier<SortedSet<Integer>> view) {
+        try {
+            SortedSet<Integer> keys = view.get();
+            return Arrays.asList(keys.size(), attempt(keys::first), attempt(keys::last));
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    private static Object attempt(Supplier<Integer> query) {
+        try {
+            return query.get();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
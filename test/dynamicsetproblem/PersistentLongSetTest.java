@@ -0,0 +1,119 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+/**
+ * Tests the primitive long engine against java.util.TreeSet, including keys at the ends of the long range
+ * @author Tamati Rudd 18045626
+ */
+public class PersistentLongSetTest {
+    private static final long[] EDGE_KEYS = {Long.MIN_VALUE, Long.MIN_VALUE+1, -1, 0, 1, Long.MAX_VALUE-1, Long.MAX_VALUE};
+
+    @Test
+    public void randomChangesMatchTreeSetInEveryVersion() {
+        for (long seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            PersistentLongSet set = new PersistentLongSet();
+            TreeSet<Long> expected = new TreeSet<>();
+            TreeMap<Integer, TreeSet<Long>> history = new TreeMap<>();
+            history.put(set.currentVersion(), new TreeSet<>(expected));
+            for (int i = 0; i < 300; i++) {
+                long key = randomKey(random);
+                if (random.nextInt(3) == 0) {
+                    assertEquals(expected.remove(key), set.remove(key));
+                } else {
+                    assertEquals(expected.add(key), set.add(key));
+                }
+                history.put(set.currentVersion(), new TreeSet<>(expected));
+            }
+            assertSameSet(expected, set, random);
+            assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), set.toLongArray());
+            for (Map.Entry<Integer, TreeSet<Long>> entry : history.entrySet()) {
+                assertSameSet(entry.getValue(), set.version(entry.getKey()), random);
+            }
+        }
+    }
+
+    @Test
+    public void iteratorRemovesFromTheSet() {
+        PersistentLongSet set = new PersistentLongSet();
+        for (long key : EDGE_KEYS) {
+            set.add(key);
+        }
+        int before = set.currentVersion();
+        for (PrimitiveIterator.OfLong iterator = set.iterator(); iterator.hasNext();) {
+            if (iterator.nextLong()%2 != 0) {
+                iterator.remove();
+            }
+        }
+        assertEquals(Arrays.asList(Long.MIN_VALUE, 0L, Long.MAX_VALUE-1), new ArrayList<>(set));
+        assertEquals(before+4, set.currentVersion());
+        assertEquals(EDGE_KEYS.length, set.version(before).size());
+        assertEquals(Long.MIN_VALUE, set.firstLong());
+        assertEquals(Long.MAX_VALUE-1, set.lastLong());
+        assertEquals(3, set.rank(Long.MAX_VALUE));
+        assertEquals(2, set.rank(Long.MAX_VALUE-1));
+        assertEquals(0L, set.select(1));
+    }
+
+    // returns a key that is often at or next to the ends of the long range
+    private static long randomKey(Random random) {
+        return random.nextBoolean() ? EDGE_KEYS[random.nextInt(EDGE_KEYS.length)] : random.nextLong();
+    }
+
+    // checks that a set and its views with random and edge bounds match a TreeSet, including the bounds they reject
+    private static void assertSameSet(TreeSet<Long> expected, SortedSet<Long> actual, Random random) {
+        assertSameElements(expected, actual);
+        for (int i = 0; i < 20; i++) {
+            long from = randomKey(random);
+            long to = randomKey(random);
+            assertEquals(from+" "+to, outcome(() -> expected.subSet(from, to)), outcome(() -> actual.subSet(from, to)));
+            assertEquals(outcome(() -> expected.headSet(to)), outcome(() -> actual.headSet(to)));
+            assertEquals(outcome(() -> expected.tailSet(from)), outcome(() -> actual.tailSet(from)));
+            assertEquals(from+" "+to, outcome(() -> expected.tailSet(from).headSet(to)),
+                    outcome(() -> actual.tailSet(from).headSet(to)));
+            assertEquals(from+" "+to, outcome(() -> expected.headSet(to).subSet(from, to)),
+                    outcome(() -> actual.headSet(to).subSet(from, to)));
+        }
+        for (long probe : EDGE_KEYS) {
+            assertEquals(expected.contains(probe), actual.contains(probe));
+        }
+    }
+
+    private static void assertSameElements(SortedSet<Long> expected, SortedSet<Long> actual) {
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(expected.size(), actual.size());
+        assertEquals(attempt(expected::first), attempt(actual::first));
+        assertEquals(attempt(expected::last), attempt(actual::last));
+    }
+
+    // returns the keys, size and ends of the view made by a call, or the type of exception it threw
+    private static Object outcome(Supplier<SortedSet<Long>> view) {
+        try {
+            SortedSet<Long> keys = view.get();
+            return Arrays.asList(new ArrayList<>(keys), keys.size(), attempt(keys::first), attempt(keys::last));
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    private static Object attempt(Supplier<Long> query) {
+        try {
+            return query.get();
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
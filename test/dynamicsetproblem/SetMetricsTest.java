@@ -0,0 +1,132 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+/**
+ * Tests the counters of SetMetrics after known operations, directly and through JMX
+ * @author Tamati Rudd 18045626
+ */
+public class SetMetricsTest {
+
+    @Test
+    public void countersMatchKnownOperations() {
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        SetMetrics metrics = set.enableMetrics();
+        assertTrue(set.add(2)); //into the empty tree: no node visited or cloned
+        assertTrue(set.add(1)); //visits and copies the root
+        assertTrue(set.add(3)); //visits and copies the root
+        assertFalse(set.add(3)); //visits the root and 3, copies nothing
+        SetMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.adds);
+        assertEquals(0, snapshot.removes);
+        assertEquals(1, snapshot.unchangedOperations);
+        assertEquals(0, snapshot.rotations);
+        assertEquals(0, snapshot.recolourings);
+        assertEquals(4, snapshot.versionCount);
+        assertEquals(4, snapshot.pathLength.count);
+        assertEquals(1.0, snapshot.pathLength.mean, 0);
+        assertEquals(2, snapshot.pathLength.max);
+        assertEquals(0.5, snapshot.nodesCloned.mean, 0);
+        assertEquals(1, snapshot.nodesCloned.max);
+        assertEquals(4, snapshot.latencyNanos.count);
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(7));
+        assertEquals(3, metrics.getAdds());
+        assertEquals(1, metrics.getRemoves());
+        assertEquals(2, metrics.getUnchangedOperations());
+        assertEquals(5, metrics.getVersionCount());
+        metrics.reset();
+        assertEquals(0, metrics.getAdds());
+        assertEquals(0, metrics.getRemoves());
+        assertEquals(0, metrics.getUnchangedOperations());
+        assertEquals(0, metrics.getMaxPathLength());
+        assertEquals(0, metrics.getMaxLatencyNanos());
+        assertEquals(5, metrics.getVersionCount()); //versions are not operation counts, so they are not reset
+        set.disableMetrics();
+        set.add(4);
+        assertEquals(0, metrics.getAdds());
+        assertNull(set.metrics());
+    }
+
+    @Test
+    public void ascendingAddsRotateAndRecolourAsExpected() {
+        BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        SetMetrics metrics = set.enableMetrics();
+        set.add(1);
+        set.add(2);
+        set.add(3); //the red parent 2 has no uncle: one left rotation about 1
+        assertEquals(1, metrics.getRotations());
+        assertEquals(0, metrics.getRecolourings());
+        set.add(4); //the red parent 3 has the red uncle 1: one recolouring
+        assertEquals(1, metrics.getRotations());
+        assertEquals(1, metrics.getRecolourings());
+        assertEquals(4, metrics.getAdds());
+    }
+
+    @Test
+    public void versionCountFollowsCommitsAndCompaction() throws InterruptedException {
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        SetMetrics metrics = set.enableMetrics();
+        int versions = 2000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                int last = 1;
+                while (last < versions) {
+                    int count = metrics.getVersionCount();
+                    assertTrue(last+" then "+count, count >= last && count <= versions);
+                    last = count;
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        for (int i = 1; i < versions; i++) {
+            set.add(i);
+        }
+        reader.join();
+        assertNull(String.valueOf(failure.get()), failure.get());
+        set.beginBatch();
+        set.add(0);
+        assertEquals(versions, metrics.getVersionCount()); //the open batch is not published
+        set.commit();
+        assertEquals(versions+1, metrics.getVersionCount());
+        set.setRetentionPolicy(RetentionPolicy.keepLast(2));
+        set.compact();
+        assertEquals(3, metrics.getVersionCount());
+        assertEquals(set.versionCount(), metrics.snapshot().versionCount);
+    }
+
+    @Test
+    public void metricsCanBeReadThroughJmx() throws JMException {
+        PersistentDynamicSet<Integer> set = new PersistentDynamicSet<>();
+        SetMetrics metrics = set.enableMetrics();
+        ObjectName name = metrics.register("SetMetricsTest");
+        try {
+            set.add(1);
+            set.add(1);
+            set.remove(1);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "Adds"));
+            assertEquals(1L, server.getAttribute(name, "Removes"));
+            assertEquals(1L, server.getAttribute(name, "UnchangedOperations"));
+            assertEquals(3, server.getAttribute(name, "VersionCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Adds"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,103 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that snapshot files written from each version of a set read back the same as java.util.TreeSet
+ * @author Tamati Rudd 18045626
+ */
+public class SnapshotFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everySizeOfTreeReadsBackInOrder() throws IOException {
+        Random random = new Random(1);
+        Path file = folder.getRoot().toPath().resolve("sizes.snap");
+        for (int size = 0; size < 70; size++) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            while (expected.size() < size) {
+                expected.add(random.nextInt(1000)-500);
+            }
+            SnapshotFile.write(expected, file, ElementCodec.INTEGER);
+            MappedSnapshotSet<Integer> snapshot = SnapshotFile.open(file, ElementCodec.INTEGER, null);
+            VersionedSetChecks.assertSameSet(expected, snapshot, random);
+            assertEquals(-1, snapshot.sourceVersion());
+        }
+    }
+
+    @Test
+    public void everyVersionReadsBackAfterReopening() throws IOException {
+        Random random = new Random(2);
+        BalancedPersistentDynamicSet<Integer> set = new BalancedPersistentDynamicSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = VersionedSetChecks.checkHistory(set, random, 300, 150);
+        for (Map.Entry<Integer, TreeSet<Integer>> entry : history.entrySet()) {
+            Path file = folder.getRoot().toPath().resolve("v"+entry.getKey()+".snap");
+            SnapshotFile.write(set, entry.getKey(), file, ElementCodec.INTEGER);
+        }
+        for (Map.Entry<Integer, TreeSet<Integer>> entry : history.entrySet()) {
+            Path file = folder.getRoot().toPath().resolve("v"+entry.getKey()+".snap");
+            MappedSnapshotSet<Integer> snapshot = SnapshotFile.open(file, ElementCodec.INTEGER, null);
+            assertEquals((int) entry.getKey(), snapshot.sourceVersion());
+            VersionedSetChecks.assertSameSet(entry.getValue(), snapshot, random);
+            //a snapshot loaded back into a persistent set is writable again
+            BalancedPersistentDynamicSet<Integer> restored = new BalancedPersistentDynamicSet<>(snapshot);
+            TreeSet<Integer> expected = new TreeSet<>(entry.getValue());
+            restored.add(-1);
+            expected.add(-1);
+            VersionedSetChecks.assertSameSet(expected, restored, random);
+        }
+    }
+
+    @Test
+    public void stringsReadBackInOrder() throws IOException {
+        Random random = new Random(3);
+        TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(Integer.toString(random.nextInt(100000), 36));
+        }
+        expected.add("");
+        expected.add("été");
+        Path file = folder.getRoot().toPath().resolve("strings.snap");
+        SnapshotFile.write(new BalancedPersistentDynamicSet<>(expected), file, ElementCodec.utf8(16));
+        MappedSnapshotSet<String> snapshot = SnapshotFile.open(file, ElementCodec.utf8(16), null);
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(snapshot));
+        for (String element : expected) {
+            assertEquals(true, snapshot.contains(element));
+            assertEquals(new ArrayList<>(expected.tailSet(element)), new ArrayList<>(snapshot.tailSet(element)));
+        }
+        assertEquals(false, snapshot.contains("zzzzzz"));
+    }
+
+    @Test
+    public void damagedFilesAreRejected() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("damaged.snap");
+        TreeSet<Integer> elements = new TreeSet<>();
+        for (int i = 0; i < 100; i++) {
+            elements.add(i);
+        }
+        SnapshotFile.write(elements, file, ElementCodec.INTEGER);
+        assertThrows(IOException.class, () -> SnapshotFile.open(file, ElementCodec.LONG, null));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size()-1);
+        }
+        assertThrows(IOException.class, () -> SnapshotFile.open(file, ElementCodec.INTEGER, null));
+        Files.write(file, new byte[40]);
+        assertThrows(IOException.class, () -> SnapshotFile.open(file, ElementCodec.INTEGER, null));
+    }
+}
@@ -0,0 +1,188 @@
+package dynamicsetproblem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Randomized checks of sorted sets against java.util.TreeSet, shared by the tests of each engine
+ * @author Tamati Rudd 18045626
+ */
+final class VersionedSetChecks {
+
+    private VersionedSetChecks() {
+    }
+
+    /**
+     * Apply random adds and removes to a set and a TreeSet, checking after each step that the current version
+     * matches and, every so often, that every retained version still holds what the TreeSet held when it was current
+     * @param set empty set to check
+     * @param random source of the keys and operations
+     * @param operations number of adds and removes
+     * @param keyRange keys are drawn from 0 (inclusive) to keyRange (exclusive)
+     * @return the contents of each version, by version number
+     */
+    static TreeMap<Integer, TreeSet<Integer>> checkHistory(VersionedSortedSet<Integer> set, Random random, int operations, int keyRange) {
+        TreeSet<Integer> expected = new TreeSet<>();
+        TreeMap<Integer, TreeSet<Integer>> history = new TreeMap<>();
+        history.put(set.currentVersion(), new TreeSet<>(expected));
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(keyRange);
+            if (random.nextInt(3) == 0) {
+                assertEquals("remove "+key, expected.remove(key), set.remove(key));
+            } else {
+                assertEquals("add "+key, expected.add(key), set.add(key));
+            }
+            history.put(set.currentVersion(), new TreeSet<>(expected)); //an unchanged set keeps its version
+            assertEquals(expected.size(), set.size());
+            if (i%(operations/8+1) == 0) {
+                assertSameSet(expected, set, random);
+                checkVersions(set, history, random);
+            }
+        }
+        assertSameSet(expected, set, random);
+        checkVersions(set, history, random);
+        return history;
+    }
+
+    /**
+     * Check that every retained version holds the recorded contents
+     * @param set set to check
+     * @param history contents of each version, by version number
+     * @param random source of the probes and view bounds
+     */
+    static void checkVersions(VersionedSortedSet<Integer> set, Map<Integer, TreeSet<Integer>> history, Random random) {
+        for (Map.Entry<Integer, TreeSet<Integer>> entry : history.entrySet()) {
+            assertSameSet(entry.getValue(), set.version(entry.getKey()), random);
+        }
+        assertEquals(new ArrayList<>(history.get(set.currentVersion())), new ArrayList<>(set.snapshot()));
+    }
+
+    /**
+     * Apply addAll (0), retainAll (1) or removeAll (2) to a set and a TreeSet, checking that both report the same change,
+     * that the set commits at most one version, that the operand is unchanged and that every retained version still
+     * holds what it held before
+     * @param set set to change
+     * @param history contents of each version, by version number, updated with the new version
+     * @param operand collection to combine the set with
+     * @param operation 0 for addAll, 1 for retainAll, 2 for removeAll
+     * @param random source of the probes and view bounds
+     */
+    static void checkSetOperation(VersionedSortedSet<Integer> set, Map<Integer, TreeSet<Integer>> history,
+            Collection<Integer> operand, int operation, Random random) {
+        TreeSet<Integer> expected = new TreeSet<>(history.get(set.currentVersion()));
+        ArrayList<Integer> operandBefore = new ArrayList<>(operand);
+        int before = set.currentVersion();
+        boolean changed;
+        switch (operation) {
+            case 0:
+                assertEquals("addAll", expected.addAll(operand), changed = set.addAll(operand));
+                break;
+            case 1:
+                assertEquals("retainAll", expected.retainAll(operand), changed = set.retainAll(operand));
+                break;
+            default:
+                assertEquals("removeAll", expected.removeAll(operand), changed = set.removeAll(operand));
+                break;
+        }
+        assertEquals("one version per change", changed ? before+1 : before, set.currentVersion());
+        assertEquals("operand unchanged", operandBefore, new ArrayList<>(operand));
+        history.put(set.currentVersion(), expected);
+        assertSameSet(expected, set, random);
+        checkVersions(set, history, random);
+    }
+
+    /**
+     * Check that a sorted set has the same elements as a TreeSet, and that views of both with random bounds agree
+     * @param expected expected contents
+     * @param actual set to check
+     * @param random source of the probes and view bounds
+     */
+    static void assertSameSet(SortedSet<Integer> expected, SortedSet<Integer> actual, Random random) {
+        assertSameElements(expected, actual, random);
+        int range = expected.isEmpty() ? 10 : expected.last()+10;
+        for (int i = 0; i < 3; i++) {
+            int from = random.nextInt(range)-5;
+            int to = from+random.nextInt(range);
+            assertSameElements(expected.subSet(from, to), actual.subSet(from, to), random);
+            assertSameElements(expected.headSet(to), actual.headSet(to), random);
+            assertSameElements(expected.tailSet(from), actual.tailSet(from), random);
+        }
+    }
+
+    /**
+     * Check that a navigable set agrees with a TreeSet on every query, both ascending and descending, and that
+     * views of both with random inclusive and exclusive bounds agree, including views of views
+     * @param expected expected contents
+     * @param actual set to check
+     * @param random source of the probes and view bounds
+     */
+    static void assertSameNavigableSet(NavigableSet<Integer> expected, NavigableSet<Integer> actual, Random random) {
+        assertSameNavigableElements(expected, actual, random);
+        assertSameNavigableElements(expected.descendingSet(), actual.descendingSet(), random);
+        int range = expected.isEmpty() ? 10 : expected.last()+10;
+        for (int i = 0; i < 3; i++) {
+            int from = random.nextInt(range)-5;
+            int to = from+random.nextInt(range);
+            boolean fromInclusive = random.nextBoolean();
+            boolean toInclusive = random.nextBoolean();
+            NavigableSet<Integer> expectedView = expected.subSet(from, fromInclusive, to, toInclusive);
+            NavigableSet<Integer> actualView = actual.subSet(from, fromInclusive, to, toInclusive);
+            assertSameNavigableElements(expectedView, actualView, random);
+            assertSameNavigableElements(expectedView.descendingSet(), actualView.descendingSet(), random);
+            assertSameNavigableElements(expected.headSet(to, toInclusive), actual.headSet(to, toInclusive), random);
+            assertSameNavigableElements(expected.tailSet(from, fromInclusive), actual.tailSet(from, fromInclusive), random);
+            if (to-from >= 2) {
+                int middle = from+1+random.nextInt(to-from-1);
+                assertSameNavigableElements(expectedView.headSet(middle, true), actualView.headSet(middle, true), random);
+                assertSameNavigableElements(expectedView.tailSet(middle, false), actualView.tailSet(middle, false), random);
+                assertSameNavigableElements(expectedView.descendingSet().headSet(middle, false),
+                        actualView.descendingSet().headSet(middle, false), random);
+            }
+        }
+    }
+
+    private static void assertSameElements(SortedSet<Integer> expected, SortedSet<Integer> actual, Random random) {
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(actual));
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        assertEquals(expected.size(), actual.toArray().length);
+        if (!expected.isEmpty()) {
+            assertEquals(expected.first(), actual.first());
+            assertEquals(expected.last(), actual.last());
+        }
+        int range = expected.isEmpty() ? 10 : Math.abs(expected.last())+10;
+        for (int i = 0; i < 10; i++) {
+            int probe = random.nextInt(2*range)-range;
+            assertEquals("contains "+probe, expected.contains(probe), actual.contains(probe));
+        }
+        for (Integer element : expected) {
+            assertTrue(actual.contains(element));
+        }
+    }
+
+    private static void assertSameNavigableElements(NavigableSet<Integer> expected, NavigableSet<Integer> actual, Random random) {
+        assertSameElements(expected, actual, random);
+        ArrayList<Integer> expectedDescending = new ArrayList<>();
+        ArrayList<Integer> actualDescending = new ArrayList<>();
+        expected.descendingIterator().forEachRemaining(expectedDescending::add);
+        actual.descendingIterator().forEachRemaining(actualDescending::add);
+        assertEquals(expectedDescending, actualDescending);
+        int range = expected.isEmpty() ? 10 : Math.abs(expected.last())+10;
+        for (int i = 0; i < 10; i++) {
+            int probe = random.nextInt(2*range)-range;
+            assertEquals("floor "+probe, expected.floor(probe), actual.floor(probe));
+            assertEquals("ceiling "+probe, expected.ceiling(probe), actual.ceiling(probe));
+            assertEquals("lower "+probe, expected.lower(probe), actual.lower(probe));
+            assertEquals("higher "+probe, expected.higher(probe), actual.higher(probe));
+        }
+    }
+}